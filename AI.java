@@ -1,7 +1,10 @@
 package amazons;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Set;
 import static amazons.Piece.BLACK;
 import static amazons.Piece.WHITE;
 import static amazons.Utils.iterable;
@@ -11,6 +14,10 @@ import static java.lang.Math.min;
 /**
  * A Player that automatically generates moves.
  *
+ * <p>The AIs created from one template (see Player.create) share its
+ * transposition table and evaluation cache, so that one engine playing
+ * many games at once has one body of knowledge, warmed by them all.
+ *
  * @author Shichao Han
  */
 class AI extends Player {
@@ -19,7 +26,7 @@ class AI extends Player {
      * A position magnitude indicating a win (for white if positive, black
      * if negative).
      */
-    private static final int WINNING_VALUE = Integer.MAX_VALUE - 1;
+    static final int WINNING_VALUE = Integer.MAX_VALUE - 1;
     /**
      * A magnitude greater than a normal value.
      */
@@ -30,32 +37,216 @@ class AI extends Player {
      */
     private Move _lastFoundMove;
 
+    /**
+     * The value found by the last call to findMove(Board, int).
+     */
+    private int _lastValue;
+
     /** Dividor using for maxDepth. */
     private static final int DIVID = 20;
 
+    /**
+     * The value of one empty square in a region that only one side can
+     * reach, relative to one square of queen mobility in contested play.
+     */
+    private static final int TERRITORY_WEIGHT = 4;
+
+    /**
+     * The least magnitude of the value of a position whose outcome is
+     * known because every region is sealed and has been solved exactly.
+     */
+    private static final int SEALED_VALUE = WINNING_VALUE / 2;
+
+    /**
+     * Solver for the regions that only one side can reach, kept for the
+     * whole game so that its memo table carries from move to move.
+     */
+    private final RegionSolver _solver =
+            new RegionSolver(Tablebase.standard());
+
+    /**
+     * The number of moves after which we first try to prove a win
+     * before searching.
+     */
+    private static final int PROOF_MOVES = 40;
+
+    /**
+     * The most nodes each attempt to prove a win may expand.
+     */
+    private static final long PROOF_NODES = 20000;
+
+    /**
+     * Each attempt to prove a win may take at most this fraction of
+     * the time limit, if there is one.
+     */
+    private static final int PROOF_SHARE = 4;
+
+    /**
+     * Proof-number search used late in the game, sharing my region
+     * solver, or null until first needed (its table is large).
+     */
+    private ProofSearch _prover;
+
+    /**
+     * Static values of positions seen so far, shared by mirror images,
+     * and with my pondering and the AIs created from me.
+     */
+    private final EvalCache _cache;
+
+    /**
+     * The number of plies beyond my own search depth to which I search
+     * while pondering.
+     */
+    private static final int PONDER_EXTRA_PLIES = 2;
+
+    /**
+     * The results of my searches, shared with my pondering and with the
+     * AIs created from me.
+     */
+    private final TranspositionTable _table;
+
+    /**
+     * The longest time, in milliseconds, that an AI may spend choosing
+     * a move in play, or 0 for no limit, unless changed by
+     * setTimeLimit.  Set by the system property amazons.timeLimit.
+     */
+    private static final long TIME_LIMIT =
+            Long.getLong("amazons.timeLimit", 0);
+
+    /**
+     * True iff my searches in play are driven by MTD(f) rather than
+     * by a single alpha-beta search per depth, unless changed by
+     * useMtdf.  Set by the system property amazons.search, which is
+     * either "alphabeta" (the default) or "mtdf".
+     */
+    private static final boolean MTDF =
+            "mtdf".equals(System.getProperty("amazons.search"));
+
+    /**
+     * True iff findMove uses MTD(f).
+     */
+    private boolean _mtdf = MTDF;
+
+    /**
+     * The token of the search in progress, or null.
+     */
+    private volatile SearchToken _token;
+
+    /**
+     * The token of my pondering, or null if I am not pondering.
+     */
+    private SearchToken _ponderToken;
+
+    /**
+     * True iff I ponder while my opponent thinks.
+     */
+    private boolean _ponders = true;
+
+    /**
+     * The AI that ponders for me, sharing my table and cache, or null
+     * if I have not pondered yet.  It has its own solver, which is not
+     * safe to share between threads.
+     */
+    private AI _ponderer;
+
+    /**
+     * The thread running _ponderer, or null if I am not pondering.
+     */
+    private Thread _ponderThread;
+
+    /**
+     * The number of threads used by each of my searches.
+     */
+    private int _threads = 1;
+
+    /**
+     * The longest time, in milliseconds, that I may spend choosing a
+     * move in play, or 0 for no limit.
+     */
+    private long _timeLimit = TIME_LIMIT;
+
+    /**
+     * The depth of my searches in play, or 0 to choose it by the number
+     * of moves made.
+     */
+    private int _depthLimit;
+
+    /**
+     * The number of plies at the start of a game for which I choose
+     * moves at random.
+     */
+    private int _randomPlies;
+
+    /**
+     * The AIs that help my searches when _threads > 1, sharing my
+     * table.
+     */
+    private final List<AI> _helpers = new ArrayList<>();
+
+    /**
+     * The tokens and threads of my helpers during a search.
+     */
+    private SearchToken[] _helperTokens;
+    private Thread[] _helperThreads;
+
     /**
      * A new AI with no piece or controller (intended to produce
      * a template).
      */
     AI() {
-        this(null, null);
+        this(new TranspositionTable(), new EvalCache());
     }
 
     /**
      * A new AI playing PIECE under control of CONTROLLER.
      */
     AI(Piece piece, Controller controller) {
+        this(piece, controller, new TranspositionTable(), new EvalCache());
+    }
+
+    /**
+     * A new AI with no piece or controller, recording its search
+     * results in TABLE.
+     */
+    AI(TranspositionTable table) {
+        this(table, new EvalCache());
+    }
+
+    /**
+     * A new AI with no piece or controller, recording its search
+     * results in TABLE and static values in CACHE, either of which
+     * may be shared with other AIs, searching in other threads.
+     */
+    AI(TranspositionTable table, EvalCache cache) {
+        this(null, null, table, cache);
+    }
+
+    /**
+     * A new AI playing PIECE under control of CONTROLLER, recording
+     * its search results in TABLE and static values in CACHE.
+     */
+    private AI(Piece piece, Controller controller, TranspositionTable table,
+               EvalCache cache) {
         super(piece, controller);
+        _table = table;
+        _cache = cache;
     }
 
     @Override
     Player create(Piece piece, Controller controller) {
-        return new AI(piece, controller);
+        AI result = new AI(piece, controller, _table, _cache);
+        result._ponders = _ponders;
+        result._mtdf = _mtdf;
+        result._threads = _threads;
+        result._timeLimit = _timeLimit;
+        result._depthLimit = _depthLimit;
+        result._randomPlies = _randomPlies;
+        return result;
     }
 
     @Override
     String myMove() {
-        Move move = findMove();
+        Move move = findMove(new Board(board()));
         if (move == null) {
             return "null";
         }
@@ -63,94 +254,576 @@ class AI extends Player {
         return move.toString();
     }
 
+    @Override
+    String myMove(Board position) {
+        Move move = findMove(position);
+        return move == null ? "null" : move.toString();
+    }
+
+    @Override
+    boolean isAutomated() {
+        return true;
+    }
+
+    /**
+     * Search the current position in the background, my opponent to
+     * move, filling my transposition table, until stopPondering is
+     * called.  Every reply is searched a little deeper than I would
+     * search it myself, so whichever one my opponent chooses, my own
+     * search then finds most of its tree already evaluated.
+     */
+    @Override
+    void startPondering() {
+        if (!_ponders || _ponderThread != null
+                || board().winner() != null) {
+            return;
+        }
+        if (_ponderer == null) {
+            _ponderer = new AI(_table, _cache);
+        }
+        AI ponderer = _ponderer;
+        Board position = new Board(board());
+        SearchToken token = new SearchToken();
+        int depth = maxDepth(position) + PONDER_EXTRA_PLIES;
+        _ponderToken = token;
+        _ponderThread = new Thread(() -> ponderer.findMove(position, depth,
+                token), "ponder");
+        _ponderThread.setDaemon(true);
+        _ponderThread.start();
+    }
+
+    @Override
+    void stopPondering() {
+        if (_ponderThread == null) {
+            return;
+        }
+        _ponderToken.cancel();
+        join(_ponderThread);
+        _ponderThread = null;
+        _ponderToken = null;
+    }
+
+    /**
+     * Ponder on my opponent's time iff ON, as will the AIs created from
+     * me.
+     */
+    void setPondering(boolean on) {
+        _ponders = on;
+    }
+
+    /**
+     * Use THREADS threads (at least 1) for each of my searches.  The
+     * extra threads search the same position at the same time, sharing
+     * my transposition table, so that my own search finds parts of its
+     * tree already evaluated; only my own search chooses the move.
+     */
+    void setThreads(int threads) {
+        _threads = max(1, threads);
+    }
+
+    /**
+     * Spend at most MILLIS milliseconds choosing each move in play, or
+     * any time if MILLIS is 0, regardless of amazons.timeLimit.
+     */
+    void setTimeLimit(long millis) {
+        _timeLimit = max(0, millis);
+    }
+
+    /**
+     * Search DEPTH plies deep in play, or as deep as the number of
+     * moves made suggests if DEPTH is 0.
+     */
+    void setDepthLimit(int depth) {
+        _depthLimit = max(0, depth);
+    }
+
+    /**
+     * Choose each of the first PLIES moves of a game uniformly at random
+     * from the legal moves, using my controller's random numbers, so
+     * that games whose controllers are seeded alike (see
+     * Controller.setSeed) open alike, and games seeded differently
+     * usually open differently.
+     */
+    void setRandomPlies(int plies) {
+        _randomPlies = max(0, plies);
+    }
+
+    /**
+     * Start my helpers searching BOARD, to about DEPTH plies, in the
+     * background, until stopHelpers is called.  Every other helper
+     * searches a ply deeper, so that they do not all repeat my work.
+     */
+    private void startHelpers(Board board, int depth) {
+        while (_helpers.size() < _threads - 1) {
+            _helpers.add(new AI(_table, _cache));
+        }
+        _helperTokens = new SearchToken[_threads - 1];
+        _helperThreads = new Thread[_threads - 1];
+        for (int i = 0; i < _threads - 1; i += 1) {
+            AI helper = _helpers.get(i);
+            SearchToken token = new SearchToken();
+            Board position = new Board(board);
+            int helperDepth = depth + i % 2;
+            _helperTokens[i] = token;
+            _helperThreads[i] = new Thread(() ->
+                    helper.findMove(position, helperDepth, token), "helper");
+            _helperThreads[i].setDaemon(true);
+            _helperThreads[i].start();
+        }
+    }
+
+    /**
+     * Stop the helpers started by startHelpers and wait for them.
+     */
+    private void stopHelpers() {
+        for (int i = 0; i < _helperThreads.length; i += 1) {
+            _helperTokens[i].cancel();
+        }
+        for (Thread thread : _helperThreads) {
+            join(thread);
+        }
+    }
+
+    /**
+     * Wait for THREAD to finish, preserving the interrupt status of the
+     * current thread.
+     */
+    private static void join(Thread thread) {
+        boolean interrupted = false;
+        while (thread.isAlive()) {
+            try {
+                thread.join();
+            } catch (InterruptedException excp) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Stop the search in progress, if any, which then returns the best
+     * move it has found so far.  May be called from any thread.
+     */
+    @Override
+    void cancel() {
+        SearchToken token = _token;
+        if (token != null) {
+            token.cancel();
+        }
+    }
+
     /**
-     * Return a move for me from the current position, assuming there
-     * is a move.
+     * Return a move for me from position B, assuming there is a move.
+     * The search stops early if cancelled, or once my time limit has
+     * passed.  The first of a game's moves may be chosen at random (see
+     * setRandomPlies).
      */
-    private Move findMove() {
-        Board b = new Board(board());
-        if (_myPiece == WHITE) {
-            findMove(b, maxDepth(b), true, 1, -INFTY, INFTY);
-        } else {
-            findMove(b, maxDepth(b), true, -1, -INFTY, INFTY);
+    private Move findMove(Board b) {
+        SearchToken token = new SearchToken(_timeLimit);
+        _token = token;
+        if (b.numMoves() < _randomPlies && _controller != null) {
+            List<Move> moves = new ArrayList<>();
+            b.legalMoves().forEachRemaining(moves::add);
+            if (!moves.isEmpty()) {
+                return moves.get(_controller.randInt(moves.size()));
+            }
+        }
+        OpeningBook book = OpeningBook.standard();
+        if (book != null) {
+            Move move = book.lookup(b);
+            if (move != null) {
+                return move;
+            }
+        }
+        if (b.numMoves() >= PROOF_MOVES) {
+            if (_prover == null) {
+                _prover = new ProofSearch(_solver);
+            }
+            SearchToken proof =
+                new SearchToken(token, _timeLimit / PROOF_SHARE);
+            _token = proof;
+            if (_prover.prove(b, PROOF_NODES, proof) == _myPiece
+                    && _prover.winningMove() != null) {
+                return _prover.winningMove();
+            }
+        }
+        return findMove(b, maxDepth(b), token);
+    }
+
+    /**
+     * Return the best move for the side to move on BOARD found by a
+     * search DEPTH plies deep, or null if there is none.  Afterwards,
+     * lastValue() is the value of that move (positive values favor
+     * White).  BOARD is left as it was.
+     */
+    Move findMove(Board board, int depth) {
+        return findMove(board, depth, new SearchToken());
+    }
+
+    /**
+     * Return the best move for the side to move on BOARD found by
+     * searching ever deeper, up to DEPTH plies, until TOKEN stops the
+     * search.  The search to depth 1, which is cheap, is always
+     * finished, unless TOKEN is cancelled, even if TOKEN's deadline has
+     * passed.  A stopped search returns the best move found so far,
+     * which is at least as good as that of the last completed depth,
+     * since each depth searches the previous best move first.  Returns
+     * null only if there is no legal move.  Afterwards, lastValue() is
+     * the value of the move returned, if it was searched.  BOARD is
+     * left as it was.
+     */
+    Move findMove(Board board, int depth, SearchToken token) {
+        Board b = new Board(board);
+        _token = token;
+        _lastFoundMove = null;
+        _lastValue = 0;
+        List<Variation> lines = new ArrayList<>();
+        startHelpers(b, depth);
+        try {
+            for (int d = 1; d <= depth && (d == 1 || !token.isStopped());
+                 d += 1) {
+                _token = d == 1 ? new SearchToken(token, 0) : token;
+                if (_mtdf) {
+                    mtdf(b, d, _lastValue);
+                } else {
+                    lines = searchRoot(b, d, 1, lines);
+                }
+            }
+        } finally {
+            stopHelpers();
+        }
+        if (_lastFoundMove == null && b.winner() == null) {
+            _lastFoundMove = b.contestedMoves(b.turn()).next();
         }
         return _lastFoundMove;
     }
 
     /**
-     * Find a move from position BOARD and return its value, recording
-     * the move found in _lastFoundMove iff SAVEMOVE. The move
+     * Return the best COUNT moves for the side to move on BOARD, best
+     * first, each with its exact value and principal variation, found
+     * by searching ever deeper, up to DEPTH plies, until TOKEN stops
+     * the search.  The moves share one search, so that later moves are
+     * searched only as far as needed to show that they are worse than
+     * the COUNTth best so far.  After each depth is complete, its
+     * results are sent to REPORTER, if not null.  Returns the results
+     * of the last complete depth (empty if there is none).  Of moves
+     * leading to mirror images of the same position, only the first is
+     * included.  BOARD is left as it was.
+     */
+    List<Variation> analyze(Board board, int depth, int count,
+                            SearchToken token, Reporter reporter) {
+        Board b = new Board(board);
+        _token = token;
+        _lastFoundMove = null;
+        _lastValue = 0;
+        List<Variation> result = new ArrayList<>();
+        startHelpers(b, depth);
+        try {
+            for (int d = 1; d <= depth && !token.isStopped(); d += 1) {
+                List<Variation> lines = searchRoot(b, d, count, result);
+                if (token.isStopped()) {
+                    break;
+                }
+                result = lines;
+                if (reporter != null) {
+                    reporter.reportAnalysis(result);
+                }
+            }
+        } finally {
+            stopHelpers();
+        }
+        return result;
+    }
+
+    /**
+     * Return the best COUNT moves for the side to move on BOARD, as
+     * for analyze(BOARD, DEPTH, COUNT, TOKEN, REPORTER), searching as
+     * deep as I would in play, or until my time limit has passed.
+     */
+    List<Variation> analyze(Board board, int count, Reporter reporter) {
+        SearchToken token = new SearchToken(_timeLimit);
+        return analyze(board, maxDepth(board), count, token, reporter);
+    }
+
+    /**
+     * Return the best COUNT moves for the side to move on BOARD, as
+     * for analyze, using a single search DEPTH plies deep.  Moves are
+     * searched in the order of PREVIOUS, the results of the last
+     * shallower search, and then in the usual order.  Records the best
+     * move so far and its value in _lastFoundMove and _lastValue as
+     * each is found, so that a stopped search leaves the best move
+     * found so far.  The result is incomplete if _token stops the
+     * search.  BOARD is left as it was.
+     */
+    private List<Variation> searchRoot(Board board, int depth, int count,
+                                       List<Variation> previous) {
+        int sense = board.turn() == WHITE ? 1 : -1;
+        List<Variation> best = new ArrayList<>();
+        Set<Long> searched = new HashSet<>();
+        List<Move> first = new ArrayList<>();
+        for (Variation line : previous) {
+            first.add(line.move());
+        }
+        Move hint = TranspositionTable.move(_table.probe(board.hash()));
+        if (hint != null && board.isLegal(hint) && !first.contains(hint)) {
+            first.add(hint);
+        }
+        Iterator<Move> rest = board.contestedMoves(board.turn());
+        Iterator<Move> firsts = first.iterator();
+        while (firsts.hasNext() || rest.hasNext()) {
+            Move m = firsts.hasNext() ? firsts.next() : rest.next();
+            board.makeMove(m);
+            if (!searched.add(board.canonicalHash())) {
+                board.undo();
+                continue;
+            }
+            int bound = best.size() < count ? -sense * INFTY
+                    : best.get(count - 1).value();
+            int value = sense == 1
+                    ? findMove(board, depth - 1, -sense, bound, INFTY)
+                    : findMove(board, depth - 1, -sense, -INFTY, bound);
+            if (_token.isStopped()) {
+                board.undo();
+                break;
+            }
+            if (best.size() < count || better(sense, value, bound)) {
+                int k = best.size();
+                while (k > 0
+                       && better(sense, value, best.get(k - 1).value())) {
+                    k -= 1;
+                }
+                List<Move> line = new ArrayList<>();
+                line.add(m);
+                principalVariation(board, depth - 1, line);
+                best.add(k, new Variation(depth, value, line));
+                if (best.size() > count) {
+                    best.remove(count);
+                }
+                if (k == 0) {
+                    _lastFoundMove = m;
+                    _lastValue = value;
+                }
+            }
+            board.undo();
+        }
+        if (!_token.isStopped() && !best.isEmpty()) {
+            _table.store(board.hash(), depth, best.get(0).value(),
+                    TranspositionTable.EXACT, best.get(0).move());
+        }
+        return best;
+    }
+
+    /**
+     * Return true iff value A is better than value B for the side whose
+     * SENSE is given (1 for White, -1 for Black).
+     */
+    private static boolean better(int sense, int a, int b) {
+        return sense == 1 ? a > b : a < b;
+    }
+
+    /**
+     * Append to LINE up to LENGTH moves of the principal variation from
+     * BOARD, as recorded in _table.  BOARD is left as it was.
+     */
+    private void principalVariation(Board board, int length,
+                                    List<Move> line) {
+        int made = 0;
+        while (made < length && board.winner() == null) {
+            Move move =
+                    TranspositionTable.move(_table.probe(board.hash()));
+            if (move == null || !board.isLegal(move)) {
+                break;
+            }
+            board.makeMove(move);
+            line.add(move);
+            made += 1;
+        }
+        for (; made > 0; made -= 1) {
+            board.undo();
+        }
+    }
+
+    /**
+     * Use MTD(f) in findMove iff ON, regardless of amazons.search.
+     */
+    void useMtdf(boolean on) {
+        _mtdf = on;
+    }
+
+    /**
+     * Search BOARD DEPTH plies deep by MTD(f), starting from the
+     * estimate GUESS of its value.  Each pass is a search with a null
+     * window, which only shows that the value is above or below a
+     * single bound; the bounds close in on the value, and _table spares
+     * each pass from repeating most of the work of the one before.
+     * Once they meet, records the value and the best move in _lastValue
+     * and _lastFoundMove, unless _token stopped the search first.
+     * BOARD is left as it was.
+     */
+    private void mtdf(Board board, int depth, int guess) {
+        int sense = board.turn() == WHITE ? 1 : -1;
+        long hash = board.hash();
+        int lower = -INFTY, upper = INFTY;
+        int value = guess;
+        Move best = null;
+        while (lower < upper) {
+            int beta = value == lower ? value + 1 : value;
+            value = findMove(board, depth, sense, beta - 1, beta);
+            if (_token.isStopped()) {
+                return;
+            }
+            if (value < beta) {
+                upper = value;
+            } else {
+                lower = value;
+            }
+            if (sense == 1 ? value >= beta : value < beta) {
+                best = TranspositionTable.move(_table.probe(hash));
+            }
+        }
+        if (best != null && board.isLegal(best)) {
+            _lastFoundMove = best;
+            _lastValue = value;
+        }
+    }
+
+    /**
+     * Return the value of the move found by the last call to
+     * findMove(BOARD, DEPTH).
+     */
+    int lastValue() {
+        return _lastValue;
+    }
+
+    /**
+     * Return up to COUNT legal moves for the side to move on BOARD,
+     * best first according to the static value of the position each
+     * one leads to.  Of moves leading to mirror images of the same
+     * position, only the first is included.
+     */
+    List<Move> rankMoves(Board board, int count) {
+        Board b = new Board(board);
+        int sense = b.turn() == WHITE ? 1 : -1;
+        List<Move> moves = new ArrayList<>();
+        List<Integer> values = new ArrayList<>();
+        Set<Long> seen = new HashSet<>();
+        for (Move move : iterable(b.legalMoves())) {
+            b.makeMove(move);
+            if (seen.add(b.canonicalHash())) {
+                moves.add(move);
+                values.add(sense * staticScore(b));
+            }
+            b.undo();
+        }
+        Integer[] order = new Integer[moves.size()];
+        for (int i = 0; i < order.length; i += 1) {
+            order[i] = i;
+        }
+        Arrays.sort(order, (i, j) -> Integer.compare(values.get(j),
+                values.get(i)));
+        List<Move> result = new ArrayList<>();
+        for (int i = 0; i < Math.min(count, order.length); i += 1) {
+            result.add(moves.get(order[i]));
+        }
+        return result;
+    }
+
+    /**
+     * Find a move from position BOARD and return its value. The move
      * should have maximal value or have value > BETA if SENSE==1,
      * and minimal value or value < ALPHA if SENSE==-1. Searches up to
      * DEPTH levels.  Searching at level 0 simply returns a static estimate
-     * of the board value and does not set _lastMoveFound.
+     * of the board value.  BOARD is left as it was.  Results are recorded
+     * in _table, whose best move for BOARD, if any, is tried first.
+     * Returns 0, recording nothing, once the search has been stopped by
+     * _token.
      */
-    private int findMove(Board board, int depth, boolean saveMove, int sense,
+    private int findMove(Board board, int depth, int sense,
                          int alpha, int beta) {
+        if (_token.checkpoint()) {
+            return 0;
+        }
         if (depth == 0 || board.winner() != null) {
             return staticScore(board);
         }
-
-
-        Board myCopy = new Board();
-        myCopy.copy(board);
-        Board findMax = new Board();
-        findMax.setValue(-INFTY);
-        Board findMin = new Board();
-        findMin.setValue(INFTY);
-        Board nextBoard;
-        if (sense == 1) {
-            for (Move m : iterable(myCopy.legalMoves(WHITE))) {
-                myCopy.makeMove(m);
-                nextBoard = new Board();
-                nextBoard.copy(myCopy);
-                myCopy.undo();
-                int performance = findMove(nextBoard, depth - 1,
-                        false, -1, alpha, beta);
-                if (performance >= findMax.getValue()) {
-                    findMax = nextBoard;
-                    nextBoard.setValue(performance);
-                    alpha = max(alpha, performance);
-                    if (beta <= alpha) {
-                        break;
-                    }
-                }
+        long hash = board.hash();
+        long entry = _table.probe(hash);
+        if (entry != TranspositionTable.NONE
+                && TranspositionTable.depth(entry) >= depth) {
+            int value = TranspositionTable.value(entry);
+            switch (TranspositionTable.bound(entry)) {
+            case TranspositionTable.EXACT:
+                return value;
+            case TranspositionTable.LOWER:
+                alpha = max(alpha, value);
+                break;
+            default:
+                beta = min(beta, value);
+                break;
+            }
+            if (beta <= alpha) {
+                return value;
             }
-            if (saveMove) {
-                _lastFoundMove = findMax.getMyMoves().pop();
-            }
-            return findMax.getValue();
-        } else {
-            for (Move m : iterable(myCopy.legalMoves(BLACK))) {
-                myCopy.makeMove(m);
-                nextBoard = new Board();
-                nextBoard.copy(myCopy);
-                myCopy.undo();
-                int performance = findMove(nextBoard, depth - 1,
-                        false, 1, alpha, beta);
-                if (performance <= findMin.getValue()) {
-                    findMin = nextBoard;
-                    nextBoard.setValue(performance);
-                    beta = min(beta, performance);
-                    if (beta <= alpha) {
-                        break;
-                    }
+        }
+        Move hint = TranspositionTable.move(entry);
+        if (hint != null && !board.isLegal(hint)) {
+            hint = null;
+        }
+        int alpha0 = alpha, beta0 = beta;
+        int best = sense == 1 ? -INFTY : INFTY;
+        Move bestMove = null;
+        Iterator<Move> moves =
+                board.contestedMoves(sense == 1 ? WHITE : BLACK);
+        boolean first = hint != null;
+        while (first || moves.hasNext()) {
+            Move m;
+            if (first) {
+                m = hint;
+                first = false;
+            } else {
+                m = moves.next();
+                if (m == hint) {
+                    continue;
                 }
             }
-            if (saveMove) {
-                _lastFoundMove = findMin.getMyMoves().pop();
+            board.makeMove(m);
+            int value = findMove(board, depth - 1, -sense, alpha, beta);
+            board.undo();
+            if (_token.isStopped()) {
+                return 0;
+            }
+            if (sense == 1 ? value > best : value < best) {
+                best = value;
+                bestMove = m;
+                if (sense == 1) {
+                    alpha = max(alpha, value);
+                } else {
+                    beta = min(beta, value);
+                }
+                if (beta <= alpha) {
+                    break;
+                }
             }
-            return findMin.getValue();
-
         }
+        int bound = best <= alpha0 ? TranspositionTable.UPPER
+                : best >= beta0 ? TranspositionTable.LOWER
+                : TranspositionTable.EXACT;
+        _table.store(hash, depth, best, bound, bestMove);
+        return best;
     }
 
 
     /**
-     * Return a heuristically determined maximum search depth
-     * based on characteristics of BOARD.
+     * Return my depth limit, if I have one, or else a heuristically
+     * determined maximum search depth based on characteristics of
+     * BOARD.
      */
     private int maxDepth(Board board) {
+        if (_depthLimit > 0) {
+            return _depthLimit;
+        }
         int N = board.numMoves();
         return (N + DIVID) / DIVID;
 
@@ -158,60 +831,77 @@ class AI extends Player {
 
 
     /**
-     * Return a heuristic value for BOARD.
+     * Return a heuristic value for BOARD.  The board is scored as a sum
+     * of its regions: a region that only one side can reach is worth
+     * the number of moves that side can make there (exact for small
+     * regions, otherwise one move per empty square), while in contested
+     * regions we count how many squares each amazon can reach.  When
+     * every region is sealed and solved, the winner is known: the side
+     * to move loses unless it has more moves left than its opponent.
+     * Values are cached by canonical hash, since mirror images of a
+     * position have the same value.
      */
     private int staticScore(Board board) {
+        long key = board.canonicalHash();
+        int value = _cache.get(key);
+        if (value == EvalCache.MISSING) {
+            value = evaluate(board);
+            _cache.put(key, value);
+        }
+        return value;
+    }
 
-
+    /**
+     * Return the value of BOARD as described for staticScore, computed
+     * afresh.
+     */
+    private int evaluate(Board board) {
         Piece winner = board.winner();
         if (winner == BLACK) {
             return -WINNING_VALUE;
         } else if (winner == WHITE) {
             return WINNING_VALUE;
-        } else {
-            Board myBoard = new Board();
-            myBoard.copy(board);
-            List<Square> myPosWhite = new ArrayList<>();
-            List<Square> myPosBlack = new ArrayList<>();
-            for (int i = Integer.parseInt("0");
-                 i <= Integer.parseInt("99"); i++) {
-                if (myBoard.get(Square.sq(i)).equals(WHITE)) {
-                    myPosWhite.add(Square.sq(i));
-                }
-                if (myBoard.get(Square.sq(i)).equals(BLACK)) {
-                    myPosBlack.add(Square.sq(i));
+        }
+        int territory = 0;
+        int mobility = 0;
+        boolean exact = true;
+        for (Region region : board.regions()) {
+            if (region.isContested()) {
+                exact = false;
+                mobility += reach(board, region.amazons(WHITE));
+                mobility -= reach(board, region.amazons(BLACK));
+            } else if (!region.isDead()) {
+                int moves = _solver.solve(region);
+                if (moves < 0) {
+                    exact = false;
+                    moves = region.size();
                 }
+                territory += region.owner() == WHITE ? moves : -moves;
             }
-
-            int positivePoint = 0;
-            int negativePoint = 0;
-
-
-            for (int i = 0; i < myPosWhite.size(); i++) {
-                Iterator<Square> positive = myBoard.reachableFrom
-                        (myPosWhite.get(i), myPosWhite.get(i));
-                while (positive.hasNext()) {
-                    positivePoint += 1;
-                    positive.next();
-                }
+        }
+        if (exact) {
+            if (territory > 0 || territory == 0 && board.turn() == BLACK) {
+                return SEALED_VALUE + territory;
+            } else {
+                return -SEALED_VALUE + territory;
             }
+        }
+        return TERRITORY_WEIGHT * territory + mobility;
+    }
 
-            for (int i = 0; i < myPosBlack.size(); i++) {
-                Iterator<Square> negative = myBoard.reachableFrom
-                        (myPosBlack.get(i), myPosBlack.get(i));
-
-                while (negative.hasNext()) {
-                    negativePoint -= 1;
-                    negative.next();
-                }
+    /**
+     * Return the total number of squares reachable in one queen move
+     * by the amazons at AMAZONS on BOARD.
+     */
+    private int reach(Board board, List<Square> amazons) {
+        int result = 0;
+        for (Square amazon : amazons) {
+            Iterator<Square> reachable = board.reachableFrom(amazon, amazon);
+            while (reachable.hasNext()) {
+                reachable.next();
+                result += 1;
             }
-
-
-            return positivePoint + negativePoint;
-
-
         }
-
+        return result;
     }
 }
-
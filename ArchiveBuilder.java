@@ -0,0 +1,55 @@
+package amazons;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The offline converter from Controller command logs (see GameLog) to
+ * a GameArchive.  The games of each log are added in order, the logs
+ * being taken in the order given.  Moves in a log that cannot be
+ * replayed are skipped and reported on the standard error.
+ *
+ * <p>Usage: java amazons.ArchiveBuilder ARCHIVE LOG....
+ *
+ * @author Shichao Han
+ */
+public class ArchiveBuilder {
+
+    /**
+     * Not instantiable.
+     */
+    private ArchiveBuilder() {
+    }
+
+    /**
+     * Build an archive as directed by ARGS (see the class comment).
+     */
+    public static void main(String... args) {
+        if (args.length < 2) {
+            System.err.println("Usage: java amazons.ArchiveBuilder"
+                    + " ARCHIVE LOG...");
+            System.exit(1);
+        }
+        String name = args[0];
+        try (GameArchive.Writer archive = new GameArchive.Writer(name)) {
+            int skipped = 0;
+            for (int i = 1; i < args.length; i += 1) {
+                List<String> notes = new ArrayList<>();
+                for (Board game : GameLog.read(args[i], notes)) {
+                    archive.add(game);
+                }
+                for (String note : notes) {
+                    System.err.printf("%s: %s%n", args[i], note);
+                }
+                skipped += notes.size();
+            }
+            System.out.printf("Wrote %d games to %s, skipping %d moves%n",
+                              archive.size(), name, skipped);
+        } catch (IOException excp) {
+            System.err.printf("Could not build %s: %s%n", name,
+                    excp.getMessage());
+            System.exit(1);
+        }
+    }
+}
@@ -1,8 +1,12 @@
 package amazons;
 
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.Iterator;
+import java.util.List;
+import java.util.Random;
 import java.util.Stack;
 
 import static amazons.Move.mv;
@@ -33,6 +37,46 @@ class Board {
      */
     private static final Iterator<Square> NO_SQUARES =
             Collections.emptyIterator();
+    /**
+     * Bits of _regionSides marking regions that hold white and black
+     * amazons.
+     */
+    private static final int WHITE_SIDE = 1, BLACK_SIDE = 2;
+    /**
+     * Temporary value of _regionOf for squares not yet given a label.
+     */
+    private static final int UNLABELED = SIZE * SIZE;
+    /**
+     * Entry of _regionHistory for a move whose spear did not split a
+     * region.
+     */
+    private static final int[] NO_SPLIT = new int[0];
+    /**
+     * Entry of _regionHistory for a move made while the regions were
+     * not being tracked.
+     */
+    private static final int[] UNTRACKED = new int[0];
+    /**
+     * Zobrist keys: ZOBRIST[p.ordinal()][k] is XORed into a position's
+     * hash for piece P on the square with index K.  Keys for EMPTY are
+     * 0, so only occupied squares contribute.
+     */
+    private static final long[][] ZOBRIST =
+            new long[Piece.values().length][SIZE * SIZE];
+    /**
+     * Zobrist key XORed into a position's hash when Black is to move.
+     */
+    private static final long BLACK_TO_MOVE;
+
+    static {
+        Random keys = new Random(0x61B);
+        for (Piece p : Piece.values()) {
+            for (int k = 0; k < SIZE * SIZE; k += 1) {
+                ZOBRIST[p.ordinal()][k] = p == EMPTY ? 0 : keys.nextLong();
+            }
+        }
+        BLACK_TO_MOVE = keys.nextLong();
+    }
     /**
      * A parameter that is used for alpha beta prunning.
      */
@@ -60,6 +104,43 @@ class Board {
      */
     private Stack<Move> _myMoves;
 
+    /**
+     * For each square, by index, a label naming the region it belongs
+     * to, or -1 if it holds a spear.  A label is the index of a square
+     * that was in the region when the label was assigned, so no two
+     * regions share one.  Meaningful only while _regionsValid.
+     */
+    private int[] _regionOf = new int[SIZE * SIZE];
+    /**
+     * For each region label, WHITE_SIDE and/or BLACK_SIDE according to
+     * which colors have amazons in that region.
+     */
+    private int[] _regionSides = new int[SIZE * SIZE];
+    /**
+     * True iff _regionOf and _regionSides describe the current board.
+     * Arbitrary changes through put clear this; makeMove and undo keep
+     * the regions up to date.
+     */
+    private boolean _regionsValid;
+    /**
+     * The regions of the current board, or null if they have not been
+     * gathered since the last change.
+     */
+    private List<Region> _regions;
+    /**
+     * For each move on _myMoves, the region state that its spear
+     * replaced (labels followed by sides), NO_SPLIT, or UNTRACKED.
+     */
+    private Stack<int[]> _regionHistory = new Stack<>();
+
+    /**
+     * The Zobrist hashes of the images of the current position under
+     * each symmetry: _hashes[sym] is the hash of transform(sym).  All
+     * are kept up to date by set and by every change of turn, and
+     * _hashes[0] is the hash of the position itself.
+     */
+    private long[] _hashes = new long[Square.SYMMETRIES];
+
     /**
      * Initializes a game board with SIZE squares on a side in the
      * initial position.
@@ -76,7 +157,8 @@ class Board {
     }
 
     /**
-     * Copies MODEL into me.
+     * Copies MODEL into me.  MODEL is only read, so several threads may
+     * copy the same board at once.
      */
     void copy(Board model) {
         init();
@@ -85,18 +167,17 @@ class Board {
         }
 
 
-        Move[] storage = new Move[model.getMyMoves().size()];
-        for (int i = storage.length - 1; i >= 0; i--) {
-            Move temp = model.getMyMoves().pop();
-            storage[i] = temp;
-        }
-
-        for (int i = 0; i < storage.length; i++) {
-            this._myMoves.push(storage[i]);
-            model._myMoves.push(storage[i]);
-        }
+        _myMoves.addAll(model._myMoves);
         this._turn = model.turn();
         this._numMoves = model.numMoves();
+        System.arraycopy(model._hashes, 0, _hashes, 0, _hashes.length);
+        if (model._regionsValid) {
+            System.arraycopy(model._regionOf, 0, _regionOf, 0,
+                    _regionOf.length);
+            System.arraycopy(model._regionSides, 0, _regionSides, 0,
+                    _regionSides.length);
+            _regionsValid = true;
+        }
     }
 
     /**
@@ -106,6 +187,7 @@ class Board {
         _turn = WHITE;
         _winner = EMPTY;
         _numMoves = 0;
+        Arrays.fill(_hashes, 0);
         _mySquareMap = new HashMap<>();
         for (int i = 0; i < SIZE; i++) {
             for (int j = 0; j < SIZE; j++) {
@@ -123,6 +205,7 @@ class Board {
         put(WHITE, 9, 3);
 
         _myMoves = new Stack<Move>();
+        _regionHistory.clear();
     }
 
     /**
@@ -140,6 +223,69 @@ class Board {
         return _numMoves;
     }
 
+    /**
+     * Return a Zobrist hash of the current position: the pieces on the
+     * board and the side to move.  Positions reached by different move
+     * orders have the same hash.
+     */
+    long hash() {
+        return _hashes[0];
+    }
+
+    /**
+     * Return the hash shared by the current position and all its
+     * images under the symmetries of the board: the least of their
+     * hashes.  Positions with the same canonical hash have the same
+     * value, and their moves correspond one to one.
+     */
+    long canonicalHash() {
+        return _hashes[canonicalSymmetry()];
+    }
+
+    /**
+     * Return a symmetry (see Square.SYMMETRIES) that carries the
+     * current position to the one whose hash is canonicalHash().
+     */
+    int canonicalSymmetry() {
+        int result = 0;
+        for (int sym = 1; sym < _hashes.length; sym += 1) {
+            if (_hashes[sym] < _hashes[result]) {
+                result = sym;
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Return a new board holding the image of the current position
+     * under symmetry SYM, with the same side to move and move count,
+     * but no move history.
+     */
+    Board transform(int sym) {
+        Board result = new Board();
+        for (int k = 0; k < SIZE * SIZE; k += 1) {
+            result.put(get(Square.sq(k)), Square.sq(k).transform(sym));
+        }
+        if (result._turn != _turn) {
+            result._turn = _turn;
+            result.flipTurnHashes();
+        }
+        result._numMoves = _numMoves;
+        return result;
+    }
+
+    /**
+     * Return the hash that the current position would have after MOVE,
+     * assumed legal, without making it.
+     */
+    long hashAfter(Move move) {
+        int from = move.from().index(), to = move.to().index(),
+            spear = move.spear().index();
+        int queen = get(move.from()).ordinal();
+        return _hashes[0] ^ ZOBRIST[queen][from] ^ ZOBRIST[queen][to]
+                ^ ZOBRIST[SPEAR.ordinal()][spear] ^ BLACK_TO_MOVE;
+    }
+
     /**
      * Return the winner in the current position, or null if the game is
      * not yet finished.
@@ -188,9 +334,34 @@ class Board {
      * Set square (COL, ROW) to P.
      */
     final void put(Piece p, int col, int row) {
-        int squareIndex = row * SIZE + col;
-        _mySquareMap.put(squareIndex, p);
+        set(p, row * SIZE + col);
+        _regionsValid = false;
+        _regionHistory.clear();
+    }
+
+    /**
+     * Set the square with index K to P, leaving the regions alone.
+     */
+    private void set(Piece p, int k) {
+        Piece old = _mySquareMap.put(k, p);
+        for (int sym = 0; sym < _hashes.length; sym += 1) {
+            int image = Square.transform(sym, k);
+            if (old != null) {
+                _hashes[sym] ^= ZOBRIST[old.ordinal()][image];
+            }
+            _hashes[sym] ^= ZOBRIST[p.ordinal()][image];
+        }
         _winner = EMPTY;
+        _regions = null;
+    }
+
+    /**
+     * Account in _hashes for a change of the side to move.
+     */
+    private void flipTurnHashes() {
+        for (int sym = 0; sym < _hashes.length; sym += 1) {
+            _hashes[sym] ^= BLACK_TO_MOVE;
+        }
     }
 
     /**
@@ -221,7 +392,7 @@ class Board {
                 if (asEmpty != null) {
                     if ((from.col() + colInc * i == asEmpty.col()
                             && from.row() + rowInc * i == asEmpty.row())) {
-                        return true;
+                        continue;
                     }
                 }
                 return false;
@@ -247,7 +418,7 @@ class Board {
      */
     boolean isLegal(Square from, Square to) {
         return isLegal(from) && from.isQueenMove(to)
-                && get(to).equals(EMPTY);
+                && get(to).equals(EMPTY) && isUnblockedMove(from, to, null);
     }
 
     /**
@@ -284,12 +455,18 @@ class Board {
      * Move FROM-TO(SPEAR), assuming this is a legal move.
      */
     void makeMove(Square from, Square to, Square spear) {
-        put(get(from), to);
-        put(EMPTY, from);
-        put(SPEAR, spear);
+        set(get(from), to.index());
+        set(EMPTY, from.index());
+        set(SPEAR, spear.index());
+        if (_regionsValid) {
+            _regionHistory.push(throwSpear(spear.index()));
+        } else {
+            _regionHistory.push(UNTRACKED);
+        }
         Move myMove = Move.mv(from, to, spear);
         _myMoves.push(myMove);
         _turn = _turn.opponent();
+        flipTurnHashes();
         _numMoves += 1;
         _winner = winner();
 
@@ -310,10 +487,16 @@ class Board {
         if (!_myMoves.empty()) {
             Move lastMove = _myMoves.pop();
             Piece lastPiece = get(lastMove.to());
-            put(EMPTY, lastMove.spear());
-            put(EMPTY, lastMove.to());
-            put(lastPiece, lastMove.from());
+            set(EMPTY, lastMove.spear().index());
+            set(EMPTY, lastMove.to().index());
+            set(lastPiece, lastMove.from().index());
+            if (_regionHistory.empty()) {
+                _regionsValid = false;
+            } else {
+                retractSpear(lastMove.spear().index(), _regionHistory.pop());
+            }
             _turn = _turn.opponent();
+            flipTurnHashes();
             _numMoves -= 1;
         }
     }
@@ -346,6 +529,222 @@ class Board {
         return new LegalMoveIterator(side);
     }
 
+    /**
+     * Return an Iterator over the legal moves for SIDE that start in a
+     * contested region, or over all legal moves for SIDE if there are
+     * none.  Once the board has split up, moves inside a region that
+     * only one side can reach do not change the outcome elsewhere, so
+     * a search need only look where both sides are still fighting.
+     */
+    Iterator<Move> contestedMoves(Piece side) {
+        trackRegions();
+        List<Square> starts = new ArrayList<>();
+        for (int k = 0; k < SIZE * SIZE; k += 1) {
+            if (_regionOf[k] >= 0
+                    && _regionSides[_regionOf[k]] == (WHITE_SIDE | BLACK_SIDE)
+                    && get(Square.sq(k)) == side) {
+                starts.add(Square.sq(k));
+            }
+        }
+        if (!starts.isEmpty()) {
+            Iterator<Move> result =
+                    new LegalMoveIterator(side, starts.iterator());
+            if (result.hasNext()) {
+                return result;
+            }
+        }
+        return new LegalMoveIterator(side);
+    }
+
+    /**
+     * Return the regions of the current board: the connected components
+     * of non-spear squares under king steps, each with the amazons that
+     * stand in it.
+     */
+    List<Region> regions() {
+        trackRegions();
+        if (_regions == null) {
+            int[] slot = new int[SIZE * SIZE];
+            Arrays.fill(slot, -1);
+            List<long[]> masks = new ArrayList<>();
+            List<List<Square>> whites = new ArrayList<>(),
+                blacks = new ArrayList<>();
+            for (int k = 0; k < SIZE * SIZE; k += 1) {
+                int label = _regionOf[k];
+                if (label < 0) {
+                    continue;
+                }
+                if (slot[label] < 0) {
+                    slot[label] = masks.size();
+                    masks.add(new long[2]);
+                    whites.add(new ArrayList<>());
+                    blacks.add(new ArrayList<>());
+                }
+                int i = slot[label];
+                Piece p = get(Square.sq(k));
+                if (p == WHITE) {
+                    whites.get(i).add(Square.sq(k));
+                } else if (p == BLACK) {
+                    blacks.get(i).add(Square.sq(k));
+                } else {
+                    masks.get(i)[k / Long.SIZE] |= 1L << (k % Long.SIZE);
+                }
+            }
+            List<Region> result = new ArrayList<>();
+            for (int i = 0; i < masks.size(); i += 1) {
+                result.add(new Region(masks.get(i)[0], masks.get(i)[1],
+                        whites.get(i), blacks.get(i)));
+            }
+            _regions = Collections.unmodifiableList(result);
+        }
+        return _regions;
+    }
+
+    /**
+     * Make sure that _regionOf and _regionSides describe the current
+     * board, labeling every region from scratch if they do not.
+     */
+    private void trackRegions() {
+        if (_regionsValid) {
+            return;
+        }
+        for (int k = 0; k < SIZE * SIZE; k += 1) {
+            _regionOf[k] = get(Square.sq(k)) == SPEAR ? -1 : UNLABELED;
+        }
+        for (int k = 0; k < SIZE * SIZE; k += 1) {
+            if (_regionOf[k] == UNLABELED) {
+                relabel(k);
+            }
+        }
+        _regionsValid = true;
+    }
+
+    /**
+     * Label every square connected by king steps to the square with
+     * index START, through squares that have the same label as START,
+     * with START itself, and record which sides have amazons among them.
+     */
+    private void relabel(int start) {
+        int old = _regionOf[start];
+        int[] queue = new int[SIZE * SIZE];
+        int head, tail, sides;
+        head = tail = sides = 0;
+        queue[tail++] = start;
+        _regionOf[start] = -1;
+        while (head < tail) {
+            Square s = Square.sq(queue[head++]);
+            Piece p = get(s);
+            if (p == WHITE) {
+                sides |= WHITE_SIDE;
+            } else if (p == BLACK) {
+                sides |= BLACK_SIDE;
+            }
+            for (int dir = 0; dir < DIRECTIONS.length; dir += 1) {
+                Square next = s.queenMove(dir, 1);
+                if (next != null && _regionOf[next.index()] == old) {
+                    _regionOf[next.index()] = -1;
+                    queue[tail++] = next.index();
+                }
+            }
+        }
+        for (int i = 0; i < tail; i += 1) {
+            _regionOf[queue[i]] = start;
+        }
+        _regionSides[start] = sides;
+    }
+
+    /**
+     * Update the regions for a spear just thrown onto the square with
+     * index SPEAR, returning the region state that it replaced if it
+     * split a region, and otherwise NO_SPLIT.  Only the squares around
+     * SPEAR are examined unless they fall into more than one group.
+     */
+    private int[] throwSpear(int spear) {
+        int[] around = new int[DIRECTIONS.length];
+        int[] group = new int[DIRECTIONS.length];
+        Square center = Square.sq(spear);
+        for (int dir = 0; dir < DIRECTIONS.length; dir += 1) {
+            Square next = center.queenMove(dir, 1);
+            around[dir] = next == null || get(next) == SPEAR
+                    ? -1 : next.index();
+            group[dir] = dir;
+        }
+        for (int dir = 0; dir < DIRECTIONS.length; dir += 1) {
+            if (around[dir] < 0) {
+                continue;
+            }
+            int next = (dir + 1) % DIRECTIONS.length;
+            if (around[next] >= 0) {
+                join(group, dir, next);
+            }
+            next = (dir + 2) % DIRECTIONS.length;
+            if (dir % 2 == 0 && around[next] >= 0) {
+                join(group, dir, next);
+            }
+        }
+        int groups = 0;
+        for (int dir = 0; dir < DIRECTIONS.length; dir += 1) {
+            if (around[dir] >= 0 && group[dir] == dir) {
+                groups += 1;
+            }
+        }
+        int label = _regionOf[spear];
+        _regionOf[spear] = -1;
+        if (groups <= 1) {
+            return NO_SPLIT;
+        }
+        int[] saved = new int[2 * SIZE * SIZE];
+        System.arraycopy(_regionOf, 0, saved, 0, SIZE * SIZE);
+        saved[spear] = label;
+        System.arraycopy(_regionSides, 0, saved, SIZE * SIZE, SIZE * SIZE);
+        int pieces = 0;
+        for (int dir = 0; dir < DIRECTIONS.length; dir += 1) {
+            if (around[dir] >= 0 && _regionOf[around[dir]] == label) {
+                relabel(around[dir]);
+                pieces += 1;
+            }
+        }
+        return pieces > 1 ? saved : NO_SPLIT;
+    }
+
+    /**
+     * Merge the groups of ring positions I and J in GROUP, a union-find
+     * forest in which each root is its own parent.
+     */
+    private static void join(int[] group, int i, int j) {
+        while (group[i] != i) {
+            i = group[i];
+        }
+        while (group[j] != j) {
+            j = group[j];
+        }
+        group[Math.max(i, j)] = Math.min(i, j);
+    }
+
+    /**
+     * Restore the regions on taking back the spear thrown onto the
+     * square with index SPEAR, where SAVED is the entry that throwSpear
+     * recorded for it.
+     */
+    private void retractSpear(int spear, int[] saved) {
+        if (!_regionsValid || saved == UNTRACKED) {
+            _regionsValid = false;
+        } else if (saved == NO_SPLIT) {
+            Square center = Square.sq(spear);
+            for (int dir = 0; dir < DIRECTIONS.length; dir += 1) {
+                Square next = center.queenMove(dir, 1);
+                if (next != null && _regionOf[next.index()] >= 0) {
+                    _regionOf[spear] = _regionOf[next.index()];
+                    break;
+                }
+            }
+        } else {
+            System.arraycopy(saved, 0, _regionOf, 0, SIZE * SIZE);
+            System.arraycopy(saved, SIZE * SIZE, _regionSides, 0,
+                    SIZE * SIZE);
+        }
+    }
+
     @Override
     public String toString() {
         String result = "";
@@ -518,7 +917,15 @@ class Board {
          * All legal moves for SIDE (WHITE or BLACK).
          */
         LegalMoveIterator(Piece side) {
-            _startingSquares = Square.iterator();
+            this(side, Square.iterator());
+        }
+
+        /**
+         * All legal moves for SIDE (WHITE or BLACK) that start from one
+         * of STARTS.
+         */
+        LegalMoveIterator(Piece side, Iterator<Square> starts) {
+            _startingSquares = starts;
             _spearThrows = NO_SQUARES;
             _pieceMoves = NO_SQUARES;
             _fromPiece = side;
@@ -570,7 +977,6 @@ class Board {
                 if (!_startingSquares.hasNext()) {
                     return;
                 } else {
-                    _start = _startingSquares.next();
                     toNext();
                 }
             }
@@ -8,7 +8,7 @@ import java.awt.Color;
 import java.awt.event.MouseEvent;
 import java.awt.image.BufferedImage;
 import java.io.IOException;
-import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
 
 import static amazons.Piece.BLACK;
 import static amazons.Piece.SPEAR;
@@ -53,7 +53,7 @@ class BoardWidget extends Pad {
     /**
      * Queue on which to post move commands (from mouse clicks).
      */
-    private ArrayBlockingQueue<String> _commands;
+    private BlockingQueue<String> _commands;
     /**
      * Image of white queen.
      */
@@ -75,7 +75,7 @@ class BoardWidget extends Pad {
      * A graphical representation of an Amazons board that sends commands
      * derived from mouse clicks to COMMANDS.
      */
-    BoardWidget(ArrayBlockingQueue<String> commands) {
+    BoardWidget(BlockingQueue<String> commands) {
         _commands = commands;
         setMouseHandler("click", this::mouseClicked);
         setPreferredSize(BOARD_SIDE, BOARD_SIDE);
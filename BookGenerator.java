@@ -0,0 +1,211 @@
+package amazons;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+/**
+ * The offline generator for OpeningBook files.  Starting from the
+ * initial position, it expands the game tree breadth-first to a given
+ * number of plies.  For the first BRANCH_PLIES plies it follows the
+ * most promising moves at each position (as ranked by AI.rankMoves)
+ * together with the move the deep search chose there; after that, each
+ * line continues with the chosen move alone, so that the book can
+ * reach deep into the opening without growing exponentially.  Every
+ * position reached is searched to a fixed depth, with no time limit,
+ * and the positions of each ply are searched in parallel.  Mirror
+ * images of a position are searched and stored only once.
+ *
+ * <p>The defaults cover the first 20 plies, during which the AI
+ * searches only 1 ply deep in play (see AI.maxDepth), with a 3-ply
+ * search: some 300 positions, taking a few hours of processor time.
+ *
+ * <p>Usage: java amazons.BookGenerator [PLIES [WIDTH [DEPTH [FILE]]]].
+ *
+ * @author Shichao Han
+ */
+public class BookGenerator {
+
+    /**
+     * The default number of plies covered by the book.
+     */
+    static final int DEFAULT_PLIES = 20;
+    /**
+     * The default number of moves followed from each position.
+     */
+    static final int DEFAULT_WIDTH = 3;
+    /**
+     * The default search depth.
+     */
+    static final int DEFAULT_DEPTH = 3;
+    /**
+     * The number of plies from the start from which the book follows
+     * more than one move.
+     */
+    static final int BRANCH_PLIES = 2;
+    /**
+     * The default output file.
+     */
+    static final String DEFAULT_FILE = "amazons.book";
+
+    /**
+     * The number of plies I cover.
+     */
+    private final int _plies;
+    /**
+     * The number of moves I follow from each position.
+     */
+    private final int _width;
+    /**
+     * The depth of the search at each position.
+     */
+    private final int _depth;
+
+    /**
+     * A generator covering PLIES plies, following WIDTH moves from each
+     * position in the first BRANCH_PLIES plies, and searching DEPTH
+     * plies deep.
+     */
+    BookGenerator(int plies, int width, int depth) {
+        _plies = plies;
+        _width = width;
+        _depth = depth;
+    }
+
+    /**
+     * Generate a book as directed by ARGS (see the class comment).
+     */
+    public static void main(String... args) {
+        int[] params = { DEFAULT_PLIES, DEFAULT_WIDTH, DEFAULT_DEPTH };
+        String file = DEFAULT_FILE;
+        try {
+            for (int i = 0; i < Math.min(args.length, params.length);
+                 i += 1) {
+                params[i] = Integer.parseInt(args[i]);
+            }
+            if (args.length > params.length) {
+                file = args[params.length];
+            }
+        } catch (NumberFormatException excp) {
+            params[0] = -1;
+        }
+        if (args.length > params.length + 1 || params[0] < 1
+                || params[1] < 1 || params[2] < 1) {
+            System.err.println("Usage: java amazons.BookGenerator"
+                    + " [PLIES [WIDTH [DEPTH [FILE]]]], all positive");
+            System.exit(1);
+        }
+        try {
+            int count = new BookGenerator(params[0], params[1], params[2])
+                    .generate(file);
+            System.out.printf("Wrote %d positions to %s%n", count, file);
+        } catch (IOException excp) {
+            System.err.printf("Could not write %s: %s%n", file,
+                    excp.getMessage());
+            System.exit(1);
+        }
+    }
+
+    /**
+     * Search every position in the book and write them to the file
+     * NAME.  Return the number of positions written.
+     */
+    int generate(String name) throws IOException {
+        Map<Long, Entry> entries = new LinkedHashMap<>();
+        List<Board> layer = new ArrayList<>();
+        layer.add(new Board());
+        for (int ply = 0; ply < _plies && !layer.isEmpty(); ply += 1) {
+            boolean branch = ply < BRANCH_PLIES;
+            List<Entry> searched = layer.parallelStream()
+                    .map(b -> search(b, branch))
+                    .filter(e -> e._move != null)
+                    .collect(Collectors.toList());
+            Map<Long, Board> next = new LinkedHashMap<>();
+            for (Entry entry : searched) {
+                entries.putIfAbsent(entry._key, entry);
+                if (ply + 1 < _plies) {
+                    for (Move move : entry._followed) {
+                        Board child = new Board(entry._board);
+                        child.makeMove(move);
+                        long key = child.canonicalHash();
+                        if (!entries.containsKey(key)) {
+                            next.putIfAbsent(key, child);
+                        }
+                    }
+                }
+            }
+            layer = new ArrayList<>(next.values());
+        }
+        int n = entries.size();
+        long[] keys = new long[n];
+        Move[] moves = new Move[n];
+        int[] values = new int[n];
+        int i = 0;
+        for (Entry entry : entries.values()) {
+            keys[i] = entry._key;
+            moves[i] = entry._move.transform(
+                    entry._board.canonicalSymmetry());
+            values[i] = entry._value;
+            i += 1;
+        }
+        OpeningBook.write(name, keys, moves, values);
+        return n;
+    }
+
+    /**
+     * Return the book entry for BOARD, whose _move is null if the game
+     * is over there.  The entry follows the most promising moves as
+     * well as the one found iff BRANCH.
+     */
+    private Entry search(Board board, boolean branch) {
+        AI ai = new AI();
+        Move best = ai.findMove(board, _depth);
+        List<Move> followed =
+            branch ? ai.rankMoves(board, _width) : new ArrayList<>();
+        if (best != null && !followed.contains(best)) {
+            followed.add(best);
+        }
+        return new Entry(board, best, ai.lastValue(), followed);
+    }
+
+    /**
+     * A searched position, with the moves to follow from it.
+     */
+    private static final class Entry {
+        /**
+         * The position.
+         */
+        private final Board _board;
+        /**
+         * The canonical hash of _board.
+         */
+        private final long _key;
+        /**
+         * The move found, or null.
+         */
+        private final Move _move;
+        /**
+         * The value of _move.
+         */
+        private final int _value;
+        /**
+         * The moves whose positions the book should also cover.
+         */
+        private final List<Move> _followed;
+
+        /**
+         * An entry recording that MOVE, with value VALUE, was found for
+         * BOARD, and that the book continues with FOLLOWED.
+         */
+        Entry(Board board, Move move, int value, List<Move> followed) {
+            _board = board;
+            _key = board.canonicalHash();
+            _move = move;
+            _value = value;
+            _followed = followed;
+        }
+    }
+}
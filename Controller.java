@@ -1,8 +1,19 @@
 package amazons;
 
 import java.io.PrintStream;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
 import java.util.Random;
 import java.util.Scanner;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
 import java.util.function.Consumer;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
@@ -13,6 +24,18 @@ import static amazons.Utils.error;
 /**
  * The input/output and GUI controller for play of Amazons.
  *
+ * <p>The controller runs an event loop.  Automated players think on a
+ * worker thread, and input is read on a thread of its own.  Both hand
+ * their results back as events, which the loop processes one at a time
+ * on its own thread, the only one that changes the board.  While an
+ * automated player is thinking, interactive input is still read: quit,
+ * new, and undo take effect at once, cancelling the search, while other
+ * commands wait until the search has finished and its move has been
+ * made.  An analysis (the analyze command) runs on the search thread
+ * too, and is cancelled in the same way.  Input from a script is not
+ * read during a search, so scripts behave as if every command waited
+ * its turn.
+ *
  * @author Shichao Han
  */
 final class Controller {
@@ -45,13 +68,22 @@ final class Controller {
      * Log file, or null if absent.
      */
     private PrintStream _logFile;
+    /**
+     * The journal of my game, or null if it has none.
+     */
+    private GameJournal _journal;
     /**
      * Input source.
      */
     private Scanner _input;
+    /**
+     * Destination of prompts and board dumps.
+     */
+    private PrintStream _output;
     /**
      * The current White and Black players, each created from
-     * _autoPlayerTemplate or _manualPlayerTemplate.
+     * _manualPlayerTemplate or from the automated player template for
+     * its side.
      */
     private Player _white, _black;
     /**
@@ -60,13 +92,87 @@ final class Controller {
      */
     private Player _nonPlayer;
     /**
-     * The current templates for manual and automated players.
+     * The current template for manual players.
+     */
+    private Player _manualPlayerTemplate;
+    /**
+     * The current templates for the automated players of White and of
+     * Black.
      */
-    private Player _autoPlayerTemplate, _manualPlayerTemplate;
+    private Player _autoWhiteTemplate, _autoBlackTemplate;
     /**
      * Reporter for messages and errors.
      */
     private Reporter _reporter;
+    /**
+     * Matches the (normalized) commands that take effect at once, even
+     * while an automated player is thinking.
+     */
+    private static final Pattern IMMEDIATE = Pattern.compile("quit|new|undo");
+    /**
+     * Events for the game loop to process in order, posted by the input
+     * and search threads.
+     */
+    private final BlockingQueue<Runnable> _events =
+            new LinkedBlockingQueue<>();
+    /**
+     * Lines of input that arrived during a search, waiting for it to
+     * finish.
+     */
+    private final Queue<String> _deferred = new ArrayDeque<>();
+    /**
+     * Permits for the input thread to read one more line each.
+     */
+    private final Semaphore _inputWanted = new Semaphore(0);
+    /**
+     * True iff the input thread has been asked for a line that the game
+     * loop has not yet received.
+     */
+    private boolean _inputPending;
+    /**
+     * True iff input may be read while an automated player is thinking.
+     */
+    private boolean _interactive;
+    /**
+     * Runs the searches of automated players.
+     */
+    private Executor _searcher;
+    /**
+     * The executor shared with other controllers, to be used as
+     * _searcher, or null if I have a search thread of my own.
+     */
+    private Executor _searchPool;
+    /**
+     * Runs analyses, if they are not to run on _searcher, or null.
+     */
+    private Executor _analyzer;
+    /**
+     * My own search thread, when I have one, or null.
+     */
+    private ExecutorService _ownSearcher;
+    /**
+     * Creates my input thread.
+     */
+    private ThreadFactory _threadFactory;
+    /**
+     * The player whose search or analysis is running, or null.
+     */
+    private Player _searching;
+    /**
+     * The number of the current search.  A search whose number is no
+     * longer current when it finishes was cancelled, and its result is
+     * ignored.
+     */
+    private volatile int _epoch;
+    /**
+     * The player pondering while input is awaited, or null.
+     */
+    private Player _pondering;
+    /**
+     * True iff the search running is an analysis rather than the search
+     * for a move.
+     */
+    private boolean _analyzing;
     /**
      * A list of Commands describing the valid textual commands to the
      * Amazons program and the methods to process them.
@@ -85,9 +191,15 @@ final class Controller {
         new Command("([a-j]([1-9]|10)-[a-j]([1-9]|10)"
                 + "\\([a-j]([1-9]|10)\\))$", this::doMove),
         new Command("undo$", this::doUndo),
+        new Command("takeback$", this::doTakeback),
+        new Command("analyze\\s+(\\d+)$", this::doAnalyze),
 
 
     };
+    /**
+     * The commands added by addCommand.
+     */
+    private final List<Command> _added = new ArrayList<>();
 
 
 
@@ -107,11 +219,35 @@ final class Controller {
      */
     Controller(View view, PrintStream logFile, Reporter reporter,
                Player manualPlayerTemplate, Player autoPlayerTemplate) {
+        this(view, logFile, reporter, manualPlayerTemplate,
+             autoPlayerTemplate, new Scanner(System.in), System.out, null,
+             task -> {
+                 Thread thread = new Thread(task, "input");
+                 thread.setDaemon(true);
+                 return thread;
+             });
+    }
+
+    /**
+     * Controller as above, but reading commands from INPUT and writing
+     * prompts and board dumps to OUTPUT (the players' text input comes
+     * through readLine).  Automated players search on SEARCHPOOL, which
+     * may be shared with other controllers (a pool, or the executor of
+     * a session of a SearchScheduler), or on a thread of my own if it
+     * is null.  My input thread is created by THREADFACTORY.
+     */
+    Controller(View view, PrintStream logFile, Reporter reporter,
+               Player manualPlayerTemplate, Player autoPlayerTemplate,
+               Scanner input, PrintStream output, Executor searchPool,
+               ThreadFactory threadFactory) {
         _view = view;
         _playing = false;
         _logFile = logFile;
-        _input = new Scanner(System.in);
-        _autoPlayerTemplate = autoPlayerTemplate;
+        _input = input;
+        _output = output;
+        _searchPool = searchPool;
+        _threadFactory = threadFactory;
+        _autoWhiteTemplate = _autoBlackTemplate = autoPlayerTemplate;
         _manualPlayerTemplate = manualPlayerTemplate;
         _nonPlayer = manualPlayerTemplate.create(EMPTY, this);
         _reporter = reporter;
@@ -125,33 +261,277 @@ final class Controller {
         _winner = null;
         _board.init();
         _white = _manualPlayerTemplate.create(WHITE, this);
-        _black = _autoPlayerTemplate.create(BLACK, this);
+        _black = autoPlayer(BLACK);
+        if (_journal != null) {
+            resume();
+        }
+        _interactive = _nonPlayer.isInteractive();
+        if (_searchPool != null) {
+            _searcher = _searchPool;
+        } else {
+            _ownSearcher = Executors.newSingleThreadExecutor(task -> {
+                Thread thread = new Thread(task, "search");
+                thread.setDaemon(true);
+                return thread;
+            });
+            _searcher = _ownSearcher;
+        }
+        Thread reader = _threadFactory.newThread(this::readInput);
+        reader.start();
         while (_playing) {
-            _view.update(_board);
-            String command;
-            if (_winner == null) {
-                if (_board.turn() == WHITE) {
-                    command = _white.myMove();
+            if (_searching == null) {
+                _view.update(new Board(_board));
+                Player mover = _board.turn() == WHITE ? _white : _black;
+                if (!_deferred.isEmpty()) {
+                    execute(_deferred.remove());
+                    continue;
+                } else if (_winner == null && mover.isAutomated()) {
+                    startSearch(mover);
                 } else {
-                    command = _black.myMove();
-                }
-            } else {
-                command = _nonPlayer.myMove();
-                if (command == null) {
-                    command = "quit";
+                    if (_winner == null && _pondering == null) {
+                        _pondering = mover == _white ? _black : _white;
+                        _pondering.startPondering();
+                    }
+                    requestInput();
                 }
             }
+            if (_searching != null && _interactive) {
+                requestInput();
+            }
             try {
-                executeCommand(command);
-            } catch (IllegalArgumentException excp) {
-                reportError("Error: %s%n", excp.getMessage());
+                _events.take().run();
+            } catch (InterruptedException excp) {
+                _playing = false;
             }
         }
+        cancelSearch();
+        stopPondering();
+        reader.interrupt();
+        if (_ownSearcher != null) {
+            _ownSearcher.shutdownNow();
+            _ownSearcher = null;
+        }
         if (_logFile != null) {
             _logFile.close();
         }
     }
 
+    /**
+     * Continue the game recorded in my journal, if it was recovered,
+     * and start its journal afresh from a snapshot.
+     */
+    private void resume() {
+        if (_journal.recovered()) {
+            _board.copy(_journal.board());
+            _winner = _board.winner();
+            _white = _journal.isAutomated(WHITE) ? autoPlayer(WHITE)
+                : _manualPlayerTemplate.create(WHITE, this);
+            _black = _journal.isAutomated(BLACK) ? autoPlayer(BLACK)
+                : _manualPlayerTemplate.create(BLACK, this);
+        }
+        _journal.recordSnapshot();
+    }
+
+    /**
+     * Ask the input thread for another line, unless one is already on
+     * its way.
+     */
+    private void requestInput() {
+        if (!_inputPending) {
+            _inputPending = true;
+            _inputWanted.release();
+        }
+    }
+
+    /**
+     * Body of the input thread: read a line of input whenever asked to,
+     * and post it to the game loop.
+     */
+    private void readInput() {
+        try {
+            while (true) {
+                _inputWanted.acquire();
+                String line = _nonPlayer.myMove();
+                String command = line == null ? "quit" : line;
+                _events.add(() -> receiveInput(command));
+            }
+        } catch (InterruptedException excp) {
+            return;
+        }
+    }
+
+    /**
+     * Process LINE, a line of input, as described in the class comment.
+     * An undo during a search for a move (not an analysis) takes back
+     * only the move before it, since the move being searched for was
+     * never made, leaving the board as an undo after that move would
+     * have.  It is executed, and so
+     * logged, as the command "takeback", so that a log replays as the
+     * game was played (see GameLog).
+     */
+    private void receiveInput(String line) {
+        _inputPending = false;
+        stopPondering();
+        if (_searching == null) {
+            execute(line);
+        } else if (IMMEDIATE.matcher(normalize(line)).matches()) {
+            boolean analyzing = _analyzing;
+            cancelSearch();
+            if (normalize(line).equals("undo") && !analyzing) {
+                execute("takeback");
+            } else {
+                execute(line);
+            }
+        } else {
+            _deferred.add(line);
+        }
+    }
+
+    /**
+     * Start MOVER choosing a move on the search thread, from a copy of
+     * the current board.
+     */
+    private void startSearch(Player mover) {
+        Board position = new Board(_board);
+        _epoch += 1;
+        int epoch = _epoch;
+        _searching = mover;
+        _searcher.execute(() -> {
+            if (epoch != _epoch) {
+                return;
+            }
+            try {
+                String command = mover.myMove(position);
+                _events.add(() -> finishSearch(epoch, command));
+            } catch (RuntimeException excp) {
+                _events.add(() -> {
+                    throw excp;
+                });
+            }
+        });
+    }
+
+    /**
+     * Make the move COMMAND chosen by search number EPOCH, unless that
+     * search has been cancelled.
+     */
+    private void finishSearch(int epoch, String command) {
+        if (epoch != _epoch) {
+            return;
+        }
+        _searching = null;
+        Move move = Move.mv(command);
+        if (move != null) {
+            reportMove(move);
+        }
+        execute(command);
+    }
+
+    /**
+     * Cancel the search in progress, if any, ignoring its result.
+     */
+    private void cancelSearch() {
+        if (_searching != null) {
+            _epoch += 1;
+            _searching.cancel();
+            _searching = null;
+            _analyzing = false;
+        }
+    }
+
+    /**
+     * Stop any pondering started while waiting for input.
+     */
+    private void stopPondering() {
+        if (_pondering != null) {
+            _pondering.stopPondering();
+            _pondering = null;
+        }
+    }
+
+    /**
+     * Execute COMMAND, reporting any error in it.
+     */
+    private void execute(String command) {
+        try {
+            executeCommand(command);
+        } catch (IllegalArgumentException excp) {
+            reportError("Error: %s%n", excp.getMessage());
+        }
+    }
+
+    /**
+     * Record every change to my game in JOURNAL, from which play()
+     * first continues the game it recorded, if it was recovered.  To be
+     * called before play().
+     */
+    void setJournal(GameJournal journal) {
+        _journal = journal;
+    }
+
+    /**
+     * Also accept commands matching PATN (a regular expression, matched
+     * against the command trimmed and in lower case, without its
+     * comment), processing each with PROCESSOR on my game loop, after
+     * any search in progress has finished.  To be called before
+     * play().
+     */
+    void addCommand(String patn, Consumer<Matcher> processor) {
+        _added.add(new Command(patn, processor));
+    }
+
+    /**
+     * Return true iff LINE is one of the commands added by addCommand.
+     * May be called from any thread once play() has started.
+     */
+    boolean isAddedCommand(String line) {
+        String cmnd = line.replaceFirst("#.*", "").trim().toLowerCase();
+        for (Command command : _added) {
+            if (command._matcher.pattern().matcher(cmnd).matches()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * End play, as the command quit does.  To be called only on my game
+     * loop, such as by the processor of a command (see addCommand).
+     */
+    void quit() {
+        _playing = false;
+    }
+
+    /**
+     * Run the searches of the analyze command on ANALYZER, such as the
+     * executor of a session of a SearchScheduler for background work,
+     * rather than where my automated players search.  To be called
+     * before play().
+     */
+    void setAnalyzer(Executor analyzer) {
+        _analyzer = analyzer;
+    }
+
+    /**
+     * Use WHITE and BLACK, rather than the automated player template
+     * given when I was created, as the templates of the automated
+     * players of White and of Black, so that two different engines may
+     * play each other.  To be called before play().
+     */
+    void setAutoPlayers(Player white, Player black) {
+        _autoWhiteTemplate = white;
+        _autoBlackTemplate = black;
+    }
+
+    /**
+     * Return a new automated player for SIDE, created from its
+     * template.
+     */
+    private Player autoPlayer(Piece side) {
+        return (side == WHITE ? _autoWhiteTemplate : _autoBlackTemplate)
+            .create(side, this);
+    }
+
     /**
      * Return the current board.  The value returned should not be
      * modified by the caller.
@@ -185,8 +565,8 @@ final class Controller {
      * leading and trailing whitespace.
      */
     String readLine() {
-        System.out.print("> ");
-        System.out.flush();
+        _output.print("> ");
+        _output.flush();
         if (_input.hasNextLine()) {
             return _input.nextLine().trim();
         } else {
@@ -220,13 +600,8 @@ final class Controller {
      * so, raising an IllegalArgumentException otherwise.
      */
     private void executeCommand(String cmnd) {
-        if (_logFile != null) {
-            _logFile.println(cmnd);
-            _logFile.flush();
-        }
-
-        _comment.reset(cmnd);
-        cmnd = _comment.replaceFirst("").trim().toLowerCase();
+        log(cmnd);
+        cmnd = normalize(cmnd);
 
         if (cmnd.isEmpty()) {
             return;
@@ -238,9 +613,35 @@ final class Controller {
                 return;
             }
         }
+        for (Command parser : _added) {
+            parser._matcher.reset(cmnd);
+            if (parser._matcher.matches()) {
+                parser._processor.accept(parser._matcher);
+                return;
+            }
+        }
         throw error("Bad command: %s", cmnd);
     }
 
+    /**
+     * Copy CMND to the log file, if any.  The log is not flushed line
+     * by line: surviving a crash is the business of the journal.
+     */
+    private void log(String cmnd) {
+        if (_logFile != null) {
+            _logFile.println(cmnd);
+        }
+    }
+
+    /**
+     * Return CMND without its comment, if any, trimmed and in lower
+     * case.
+     */
+    private String normalize(String cmnd) {
+        _comment.reset(cmnd);
+        return _comment.replaceFirst("").trim().toLowerCase();
+    }
+
     /**
      * Command "new".
      */
@@ -248,14 +649,17 @@ final class Controller {
         _board.init();
         _winner = null;
         _white = _manualPlayerTemplate.create(WHITE, this);
-        _black = _autoPlayerTemplate.create(BLACK, this);
+        _black = autoPlayer(BLACK);
+        if (_journal != null) {
+            _journal.recordNew();
+        }
     }
 
     /**
      * Command "quit".
      */
     private void doQuit(Matcher unused) {
-        _playing = false;
+        quit();
     }
 
     /**
@@ -273,7 +677,7 @@ final class Controller {
      * Dump the contents of the board on standard output.
      */
     private void doDump(Matcher unused) {
-        System.out.printf("===%n%s===%n", _board);
+        _output.printf("===%n%s===%n", _board);
     }
 
     /**
@@ -281,7 +685,8 @@ final class Controller {
      * @param player input player.
      */
     private void autoWhite(Matcher player) {
-        _white = _autoPlayerTemplate.create(WHITE, this);
+        _white = autoPlayer(WHITE);
+        recordPlayer(WHITE, true);
     }
 
     /**
@@ -289,7 +694,8 @@ final class Controller {
      * @param player input player.
      */
     private void autoBlack(Matcher player) {
-        _black = _autoPlayerTemplate.create(BLACK, this);
+        _black = autoPlayer(BLACK);
+        recordPlayer(BLACK, true);
     }
 
     /**
@@ -298,6 +704,7 @@ final class Controller {
      */
     private void manualWhite(Matcher player) {
         _white = _manualPlayerTemplate.create(WHITE, this);
+        recordPlayer(WHITE, false);
     }
 
     /**
@@ -306,7 +713,17 @@ final class Controller {
      */
     private void manualBlack(Matcher player) {
         _black = _manualPlayerTemplate.create(BLACK, this);
+        recordPlayer(BLACK, false);
+    }
 
+    /**
+     * Record in my journal, if any, that SIDE is now played
+     * automatically iff AUTOMATED.
+     */
+    private void recordPlayer(Piece side, boolean automated) {
+        if (_journal != null) {
+            _journal.recordPlayer(side, automated);
+        }
     }
 
     /** Execute move command by the user.
@@ -325,6 +742,9 @@ final class Controller {
 
         } else if (_board.isLegal(myMove)) {
             _board.makeMove(myMove);
+            if (_journal != null) {
+                _journal.recordMove(myMove);
+            }
             _winner = _board.winner();
             if (_winner != null) {
                 reportNote(_winner.toName() + " wins.");
@@ -334,10 +754,125 @@ final class Controller {
         }
 
     }
+    /**
+     * Report the best moves for the side to move, as many as given by
+     * the matched group of MAT, as each depth of an analysing search
+     * completes.  The search runs on my analyzer, if I have one, or
+     * else on the search thread, as the search for a move does, by an AI
+     * created from the automated player template for the side to move,
+     * with whose table it shares its results.
+     */
+    private void doAnalyze(Matcher mat) {
+        int count = Integer.parseInt(mat.group(1));
+        if (count < 1) {
+            throw error("Analysis must report at least one move");
+        }
+        if (_board.winner() != null) {
+            throw error("Game is over");
+        }
+        Player analyst = autoPlayer(_board.turn());
+        if (!(analyst instanceof AI)) {
+            throw error("No automated player to analyze with");
+        }
+        Board position = new Board(_board);
+        _epoch += 1;
+        int epoch = _epoch;
+        _searching = analyst;
+        _analyzing = true;
+        Reporter reporter = new PostingReporter(epoch);
+        (_analyzer == null ? _searcher : _analyzer).execute(() -> {
+            if (epoch != _epoch) {
+                return;
+            }
+            try {
+                ((AI) analyst).analyze(position, count, reporter);
+                _events.add(() -> finishAnalysis(epoch));
+            } catch (RuntimeException excp) {
+                _events.add(() -> {
+                    throw excp;
+                });
+            }
+        });
+    }
+
+    /**
+     * End analysis number EPOCH, unless it has been cancelled.
+     */
+    private void finishAnalysis(int epoch) {
+        if (epoch == _epoch) {
+            _searching = null;
+            _analyzing = false;
+        }
+    }
+
     /**Excute undo command. */
     private void doUndo(Matcher unused) {
         _board.undo();
         _board.undo();
+        if (_journal != null) {
+            _journal.recordUndo();
+            _journal.recordUndo();
+        }
+    }
+
+    /**
+     * Command "takeback": take back the last move only.
+     */
+    private void doTakeback(Matcher unused) {
+        _board.undo();
+        if (_journal != null) {
+            _journal.recordUndo();
+        }
+    }
+
+    /**
+     * A Reporter for work done off the event loop, which hands each
+     * report to the loop, to be made by my reporter unless the work has
+     * been cancelled by then.
+     */
+    private final class PostingReporter implements Reporter {
+        /**
+         * The epoch of the work reporting.
+         */
+        private final int _workEpoch;
+
+        /**
+         * A reporter for the work numbered EPOCH.
+         */
+        PostingReporter(int epoch) {
+            _workEpoch = epoch;
+        }
+
+        @Override
+        public void reportError(String format, Object... args) {
+            post(() -> _reporter.reportError(format, args));
+        }
+
+        @Override
+        public void reportNote(String format, Object... args) {
+            post(() -> _reporter.reportNote(format, args));
+        }
+
+        @Override
+        public void reportMove(Move move) {
+            post(() -> _reporter.reportMove(move));
+        }
+
+        @Override
+        public void reportAnalysis(List<Variation> lines) {
+            post(() -> _reporter.reportAnalysis(lines));
+        }
+
+        /**
+         * Have the event loop make REPORT, if my work is still current.
+         */
+        private void post(Runnable report) {
+            _events.add(() -> {
+                if (_workEpoch == _epoch) {
+                    report.run();
+                }
+            });
+        }
     }
 
     /**
@@ -0,0 +1,208 @@
+package amazons;
+
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static amazons.Utils.error;
+
+/**
+ * The AI as a service that other code in the same process can call,
+ * independent of any Controller or Player.  Each call to search takes
+ * a snapshot of a position and some limits, and returns at once a
+ * future that completes with the SearchResult.  Any number of searches
+ * may be requested at once from any threads: they are run by a fixed
+ * pool of worker threads and all share one transposition table and
+ * evaluation cache.  Each search borrows an AI that no other search is
+ * using, made when none is idle and kept by the engine for later
+ * searches, whatever threads run them; so an AI's memos and proof
+ * table, which take some time to fill, are not lost with a thread.
+ * Cancelling a future stops its search, which then completes the
+ * future no further.
+ *
+ * <p>An engine may instead run its searches as the jobs of one session
+ * of a SearchScheduler, typically with BACKGROUND priority, so that
+ * analysis shares the processors with interactive games without
+ * delaying them.
+ *
+ * @author Shichao Han
+ */
+final class Engine implements AutoCloseable {
+
+    /**
+     * The depth of a search given no depth limit.
+     */
+    static final int MAX_DEPTH = 100;
+
+    /**
+     * Runs my searches.
+     */
+    private final Executor _workers;
+    /**
+     * The pool of my own workers, or null if my searches are scheduled
+     * by a SearchScheduler.
+     */
+    private final ExecutorService _pool;
+    /**
+     * The results of all my searches.
+     */
+    private final TranspositionTable _table;
+    /**
+     * The static values of positions found by all my searches.
+     */
+    private final EvalCache _cache = new EvalCache();
+    /**
+     * The AIs made by my searches and not in use by one now.
+     */
+    private final Deque<AI> _idle = new ConcurrentLinkedDeque<>();
+    /**
+     * The futures of my searches that have not completed.
+     */
+    private final Set<CompletableFuture<SearchResult>> _pending =
+            ConcurrentHashMap.newKeySet();
+
+    /**
+     * An engine with one worker per available processor and a
+     * transposition table of the default size.
+     */
+    Engine() {
+        this(Runtime.getRuntime().availableProcessors(),
+             new TranspositionTable());
+    }
+
+    /**
+     * An engine with WORKERS workers, sharing TABLE.
+     */
+    Engine(int workers, TranspositionTable table) {
+        AtomicInteger count = new AtomicInteger();
+        _pool = Executors.newFixedThreadPool(workers, runnable -> {
+            Thread thread = new Thread(runnable,
+                    "engine-" + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        _workers = _pool;
+        _table = table;
+    }
+
+    /**
+     * An engine whose searches, sharing TABLE, are run by SCHEDULER as
+     * jobs of SESSION with priority PRIORITY.
+     */
+    Engine(SearchScheduler scheduler, String session,
+           SearchScheduler.Priority priority, TranspositionTable table) {
+        _pool = null;
+        _workers = scheduler.executor(session, priority);
+        _table = table;
+    }
+
+    /**
+     * Return a future result of searching POSITION, as for
+     * search(POSITION, DEPTH, MILLIS, NODES, 1).
+     */
+    CompletableFuture<SearchResult> search(Board position, int depth,
+                                           long millis, long nodes) {
+        return search(position, depth, millis, nodes, 1);
+    }
+
+    /**
+     * Return a future result of searching POSITION for its best COUNT
+     * moves, to DEPTH plies, stopping after MILLIS milliseconds or
+     * about NODES nodes.  Each limit may be 0, meaning none, but a
+     * search with no limit at all runs until cancelled.  POSITION is
+     * copied before this returns, and may then be changed freely.
+     */
+    CompletableFuture<SearchResult> search(Board position, int depth,
+                                           long millis, long nodes,
+                                           int count) {
+        if (depth < 0 || millis < 0 || nodes < 0 || count < 1) {
+            throw error("invalid search limits");
+        }
+        Board board = new Board(position);
+        int maxDepth = depth == 0 ? MAX_DEPTH : depth;
+        CompletableFuture<SearchResult> result = new CompletableFuture<>();
+        SearchToken token = new SearchToken(millis, nodes);
+        _pending.add(result);
+        result.whenComplete((value, excp) -> {
+            _pending.remove(result);
+            if (result.isCancelled()) {
+                token.cancel();
+            }
+        });
+        try {
+            _workers.execute(() -> {
+                if (result.isDone()) {
+                    return;
+                }
+                try {
+                    result.complete(run(board, maxDepth, count, token));
+                } catch (RuntimeException | Error excp) {
+                    result.completeExceptionally(excp);
+                }
+            });
+        } catch (RejectedExecutionException excp) {
+            result.completeExceptionally(excp);
+        }
+        return result;
+    }
+
+    /**
+     * Return the result of searching BOARD for its best COUNT moves,
+     * to DEPTH plies, until TOKEN stops the search.  To be called only
+     * by my workers.
+     */
+    private SearchResult run(Board board, int depth, int count,
+                             SearchToken token) {
+        long start = System.nanoTime();
+        AI ai = _idle.poll();
+        if (ai == null) {
+            ai = new AI(_table, _cache);
+        }
+        try {
+            List<Variation> lines =
+                    ai.analyze(board, depth, count, token, null);
+            int reached = lines.isEmpty() ? 0 : lines.get(0).depth();
+            if (lines.isEmpty() && board.winner() == null) {
+                Move move = ai.findMove(board, 1);
+                List<Move> line = new ArrayList<>();
+                line.add(move);
+                lines = new ArrayList<>();
+                lines.add(new Variation(1, ai.lastValue(), line));
+            }
+            return new SearchResult(lines, reached, token.nodes(),
+                    (System.nanoTime() - start) / 1000000);
+        } finally {
+            _idle.push(ai);
+        }
+    }
+
+    /**
+     * Return the number of AIs my searches have made so far.  To be
+     * called only when no search is running.
+     */
+    int ais() {
+        return _idle.size();
+    }
+
+    /**
+     * Cancel all searches not yet finished and release my workers.
+     */
+    @Override
+    public void close() {
+        if (_pool != null) {
+            _pool.shutdown();
+        }
+        for (CompletableFuture<SearchResult> result : _pending) {
+            result.cancel(false);
+        }
+    }
+}
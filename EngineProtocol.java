@@ -0,0 +1,381 @@
+package amazons;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.List;
+
+import static amazons.Piece.WHITE;
+import static amazons.Utils.error;
+
+/**
+ * A line-based protocol, in the spirit of UCI, through which another
+ * program (a tournament manager or an analysis pipeline) drives the AI
+ * without a human in the loop.  It is selected by Main's --engine
+ * option.  Commands, one per line, are
+ *
+ * <pre>
+ *   engine          Identify the engine: replies with "id" lines, one
+ *                   "option" line per option, and "engineok".
+ *   isready         Replies "readyok".
+ *   newgame         Forget the results of earlier searches.
+ *   setoption name NAME value VALUE
+ *                   Set option NAME: Threads (searching threads), Hash
+ *                   (transposition table size in megabytes), or MultiPV
+ *                   (number of best moves reported).
+ *   position start [moves MOVE...]
+ *                   Set up the initial position followed by MOVEs, which
+ *                   are written as in play (e.g. d1-d7(g7)).
+ *   go [depth N] [movetime MILLIS] [nodes N] [infinite]
+ *                   Search the current position until the first of the
+ *                   given limits is reached (or until "stop" if none is
+ *                   given), then reply "bestmove MOVE", or "bestmove
+ *                   none" if the game is over.
+ *   stop            Stop the search in progress.
+ *   quit            Stop any search and exit.
+ * </pre>
+ *
+ * <p>After each depth of a search is completed, one line is written
+ * for each of the MultiPV best moves:
+ *
+ * <pre>
+ *   info depth D multipv K score S nodes N nps R time T pv MOVE...
+ * </pre>
+ *
+ * where S is the value of the line for the side to move, N is the
+ * number of nodes searched so far, R is nodes per second, and T is the
+ * time used in milliseconds.  Errors are reported as "info string"
+ * lines, and otherwise ignored.
+ *
+ * <p>Commands are read while a search runs, so "stop", "isready", and
+ * "quit" are answered at once; any command that changes the position
+ * or the options first stops the search.
+ *
+ * @author Shichao Han
+ */
+final class EngineProtocol implements Reporter {
+
+    /**
+     * The name reported by the engine command.
+     */
+    static final String NAME = "Amazons 61B 1.0";
+    /**
+     * The search depth used when go gives none.  No search gets there.
+     */
+    static final int MAX_DEPTH = 100;
+    /**
+     * The largest values allowed for the Threads, Hash, and MultiPV
+     * options.
+     */
+    static final int MAX_THREADS = 256, MAX_HASH = 4096, MAX_MULTI_PV = 64;
+    /**
+     * The number of bytes in one transposition table slot.
+     */
+    private static final int SLOT_BYTES = 16;
+
+    /**
+     * The source of commands.
+     */
+    private final BufferedReader _input;
+    /**
+     * The destination of replies.
+     */
+    private final PrintStream _output;
+    /**
+     * The current position.
+     */
+    private Board _board = new Board();
+    /**
+     * The number of searching threads.
+     */
+    private int _threads = 1;
+    /**
+     * The size of the transposition table in megabytes.
+     */
+    private int _hash = TranspositionTable.DEFAULT_SIZE * SLOT_BYTES >> 20;
+    /**
+     * The number of best moves reported.
+     */
+    private int _multiPV = 1;
+    /**
+     * The AI doing my searches, or null if it must be created afresh
+     * (after newgame or a change of size of its table).
+     */
+    private AI _ai;
+    /**
+     * The thread and token of the search in progress, or null.
+     */
+    private Thread _searchThread;
+    private SearchToken _token;
+    /**
+     * The value of System.nanoTime() when the search in progress
+     * started.
+     */
+    private long _start;
+    /**
+     * 1 if White is to move in the position being searched, else -1.
+     */
+    private int _sense;
+
+    /**
+     * A protocol reading commands from INPUT and writing replies to
+     * OUTPUT.
+     */
+    EngineProtocol(BufferedReader input, PrintStream output) {
+        _input = input;
+        _output = output;
+    }
+
+    /**
+     * Process commands until quit or the end of the input.
+     */
+    void run() throws IOException {
+        while (true) {
+            String line = _input.readLine();
+            if (line == null) {
+                break;
+            }
+            String[] words = line.trim().split("\\s+");
+            if (words[0].equals("quit")) {
+                break;
+            }
+            try {
+                execute(words);
+            } catch (IllegalArgumentException excp) {
+                reportError("%s", excp.getMessage());
+            }
+        }
+        stop();
+    }
+
+    /**
+     * Perform the command whose words are WORDS.
+     */
+    private void execute(String[] words) {
+        switch (words[0]) {
+        case "":
+            break;
+        case "engine":
+            send("id name %s", NAME);
+            send("id author Shichao Han");
+            send("option name Threads type spin default 1 min 1 max %d",
+                    MAX_THREADS);
+            send("option name Hash type spin default %d min 1 max %d",
+                    _hash, MAX_HASH);
+            send("option name MultiPV type spin default 1 min 1 max %d",
+                    MAX_MULTI_PV);
+            send("engineok");
+            break;
+        case "isready":
+            send("readyok");
+            break;
+        case "newgame":
+            stop();
+            _ai = null;
+            _board = new Board();
+            break;
+        case "setoption":
+            stop();
+            setOption(words);
+            break;
+        case "position":
+            stop();
+            setPosition(words);
+            break;
+        case "go":
+            go(words);
+            break;
+        case "stop":
+            stop();
+            break;
+        default:
+            throw error("unknown command: %s", words[0]);
+        }
+    }
+
+    /**
+     * Perform "setoption name NAME value VALUE", whose words are WORDS.
+     */
+    private void setOption(String[] words) {
+        if (words.length != 5 || !words[1].equals("name")
+                || !words[3].equals("value")) {
+            throw error("usage: setoption name NAME value VALUE");
+        }
+        switch (words[2].toLowerCase()) {
+        case "threads":
+            _threads = number(words[4], MAX_THREADS);
+            break;
+        case "hash":
+            _hash = number(words[4], MAX_HASH);
+            _ai = null;
+            break;
+        case "multipv":
+            _multiPV = number(words[4], MAX_MULTI_PV);
+            break;
+        default:
+            throw error("unknown option: %s", words[2]);
+        }
+    }
+
+    /**
+     * Perform "position start [moves MOVE...]", whose words are WORDS.
+     * The position is unchanged if any move is malformed or illegal.
+     */
+    private void setPosition(String[] words) {
+        if (words.length < 2 || !words[1].equals("start")
+                || words.length > 2 && !words[2].equals("moves")) {
+            throw error("usage: position start [moves MOVE...]");
+        }
+        Board board = new Board();
+        for (int i = 3; i < words.length; i += 1) {
+            Move move = Move.mv(words[i]);
+            if (move == null || !board.isLegal(move)) {
+                throw error("illegal move: %s", words[i]);
+            }
+            board.makeMove(move);
+        }
+        _board = board;
+    }
+
+    /**
+     * Perform "go [depth N] [movetime MILLIS] [nodes N] [infinite]",
+     * whose words are WORDS, starting a search in the background.
+     */
+    private void go(String[] words) {
+        if (_searchThread != null && _searchThread.isAlive()) {
+            throw error("already searching");
+        }
+        stop();
+        int depth = MAX_DEPTH;
+        long millis = 0, nodes = 0;
+        for (int i = 1; i < words.length; i += 1) {
+            if (words[i].equals("infinite")) {
+                continue;
+            } else if (i + 1 == words.length) {
+                throw error("missing value for %s", words[i]);
+            }
+            switch (words[i]) {
+            case "depth":
+                depth = number(words[i + 1], MAX_DEPTH);
+                break;
+            case "movetime":
+                millis = number(words[i + 1], Integer.MAX_VALUE);
+                break;
+            case "nodes":
+                nodes = number(words[i + 1], Integer.MAX_VALUE);
+                break;
+            default:
+                throw error("unknown limit: %s", words[i]);
+            }
+            i += 1;
+        }
+        if (_board.winner() != null) {
+            send("bestmove none");
+            return;
+        }
+        if (_ai == null) {
+            _ai = new AI(new TranspositionTable(Integer.highestOneBit(
+                    (int) (((long) _hash << 20) / SLOT_BYTES))));
+        }
+        _ai.setThreads(_threads);
+        AI ai = _ai;
+        Board position = new Board(_board);
+        int searchDepth = depth, count = _multiPV;
+        _token = new SearchToken(millis, nodes);
+        SearchToken token = _token;
+        _sense = position.turn() == WHITE ? 1 : -1;
+        _start = System.nanoTime();
+        _searchThread = new Thread(() -> {
+            List<Variation> lines =
+                    ai.analyze(position, searchDepth, count, token, this);
+            Move best = lines.isEmpty()
+                    ? ai.findMove(position, 1) : lines.get(0).move();
+            send("bestmove %s", best);
+        }, "search");
+        _searchThread.setDaemon(true);
+        _searchThread.start();
+    }
+
+    /**
+     * Stop the search in progress, if any, and wait for it to report
+     * its move.
+     */
+    private void stop() {
+        if (_searchThread == null) {
+            return;
+        }
+        _token.cancel();
+        boolean interrupted = false;
+        while (_searchThread.isAlive()) {
+            try {
+                _searchThread.join();
+            } catch (InterruptedException excp) {
+                interrupted = true;
+            }
+        }
+        _searchThread = null;
+        _token = null;
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Return the positive integer denoted by WORD, which must be at
+     * most MAX.
+     */
+    private static int number(String word, int max) {
+        try {
+            int result = Integer.parseInt(word);
+            if (result >= 1 && result <= max) {
+                return result;
+            }
+        } catch (NumberFormatException excp) {
+            /* Fall through. */
+        }
+        throw error("expected a number from 1 to %d: %s", max, word);
+    }
+
+    /**
+     * Write the line formatted from FORMAT and ARGS, as for
+     * String.format.
+     */
+    private void send(String format, Object... args) {
+        _output.println(String.format(format, args));
+    }
+
+    @Override
+    public void reportError(String format, Object... args) {
+        send("info string error: %s", String.format(format, args));
+    }
+
+    @Override
+    public void reportNote(String format, Object... args) {
+        send("info string %s", String.format(format, args));
+    }
+
+    @Override
+    public void reportMove(Move unused) {
+    }
+
+    /**
+     * Write one info line for each of LINES.  Called by the searching
+     * thread, which alone reads the node count of its token.
+     */
+    @Override
+    public void reportAnalysis(List<Variation> lines) {
+        long nodes = _token.nodes();
+        long millis = (System.nanoTime() - _start) / 1000000;
+        long nps = nodes * 1000 / Math.max(1, millis);
+        for (int i = 0; i < lines.size(); i += 1) {
+            Variation line = lines.get(i);
+            StringBuilder pv = new StringBuilder();
+            for (Move move : line.line()) {
+                pv.append(' ').append(move);
+            }
+            send("info depth %d multipv %d score %d nodes %d nps %d"
+                    + " time %d pv%s", line.depth(), i + 1,
+                    _sense * line.value(), nodes, nps, millis, pv);
+        }
+    }
+}
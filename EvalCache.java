@@ -0,0 +1,81 @@
+package amazons;
+
+import java.util.Arrays;
+
+/**
+ * A fixed-size cache of static position values, indexed by canonical
+ * hash (see Board.canonicalHash()), so that a position and all its
+ * mirror images share one entry.  Each slot holds the most recent
+ * position stored there; the keys and values live in parallel
+ * primitive arrays, so lookups allocate nothing.
+ *
+ * <p>Several threads may share a cache without locking.  As in
+ * TranspositionTable, each slot stores its key XORed with its value,
+ * so a slot torn by two threads writing it at once reads as absent.
+ *
+ * @author Shichao Han
+ */
+final class EvalCache {
+
+    /**
+     * The value returned by get for positions not in the cache.  No
+     * static value is this small.
+     */
+    static final int MISSING = Integer.MIN_VALUE;
+    /**
+     * The default number of slots.
+     */
+    static final int DEFAULT_SIZE = 1 << 16;
+
+    /**
+     * The canonical hash of the position in each slot, XORed with its
+     * value.
+     */
+    private final long[] _keys;
+    /**
+     * The value of the position in each slot, or MISSING.
+     */
+    private final int[] _values;
+
+    /**
+     * A cache of DEFAULT_SIZE slots.
+     */
+    EvalCache() {
+        this(DEFAULT_SIZE);
+    }
+
+    /**
+     * A cache of SIZE slots (a power of 2).
+     */
+    EvalCache(int size) {
+        _keys = new long[size];
+        _values = new int[size];
+        Arrays.fill(_values, MISSING);
+    }
+
+    /**
+     * Return the value stored for the position whose canonical hash is
+     * KEY, or MISSING if there is none.
+     */
+    int get(long key) {
+        int slot = slot(key);
+        int value = _values[slot];
+        return (_keys[slot] ^ value) == key ? value : MISSING;
+    }
+
+    /**
+     * Record VALUE for the position whose canonical hash is KEY.
+     */
+    void put(long key, int value) {
+        int slot = slot(key);
+        _keys[slot] = key ^ value;
+        _values[slot] = value;
+    }
+
+    /**
+     * Return the slot for KEY.
+     */
+    private int slot(long key) {
+        return (int) (key ^ (key >>> 32)) & (_keys.length - 1);
+    }
+}
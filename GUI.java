@@ -3,7 +3,9 @@ package amazons;
 import ucb.gui2.LayoutSpec;
 import ucb.gui2.TopLevel;
 
-import java.util.concurrent.ArrayBlockingQueue;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -33,9 +35,11 @@ class GUI extends TopLevel implements View, Reporter {
      * board.  We use a blocking queue because the responses to clicks
      * on the board and on menus happen in parallel to the methods that
      * call readCommand, which therefore needs to wait for clicks to happen.
+     * It is unbounded, so that no click is lost while the controller is
+     * busy.
      */
-    private ArrayBlockingQueue<String> _pendingCommands =
-            new ArrayBlockingQueue<>(5);
+    private BlockingQueue<String> _pendingCommands =
+            new LinkedBlockingQueue<>();
 
     /**
      * A new window with given TITLE providing a view of an Amazons board.
@@ -64,33 +68,33 @@ class GUI extends TopLevel implements View, Reporter {
 
     /** Response to "New" button click. */
     private void doNew(String dummy) {
-        _pendingCommands.offer("new");
+        _pendingCommands.add("new");
     }
     /** Response to "Manual Black" button click. */
     private void manualBlack(String dummy) {
-        _pendingCommands.offer("manual black");
+        _pendingCommands.add("manual black");
     }
 
     /** Response to "Manual White" button click. */
     private void manualWhite(String dummy) {
-        _pendingCommands.offer("manual white");
+        _pendingCommands.add("manual white");
     }
 
     /** Response to "Auto White" button click. */
     private void autoWhite(String dummy) {
-        _pendingCommands.offer("auto white");
+        _pendingCommands.add("auto white");
     }
 
     /** Response to "Auto Black" button click. */
     private void autoBlack(String dummy) {
-        _pendingCommands.offer("auto black");
+        _pendingCommands.add("auto black");
     }
 
     /**
      * Response to "Quit" button click.
      */
     private void quit(String dummy) {
-        _pendingCommands.offer("quit");
+        _pendingCommands.add("quit");
     }
 
     /**
@@ -103,7 +107,7 @@ class GUI extends TopLevel implements View, Reporter {
         if (response != null) {
             Matcher mat = SEED_PATN.matcher(response);
             if (mat.matches()) {
-                _pendingCommands.offer(String.format("seed %s", mat.group(1)));
+                _pendingCommands.add(String.format("seed %s", mat.group(1)));
             } else {
                 showMessage("Enter an integral seed value.", "Error", "error");
             }
@@ -112,7 +116,7 @@ class GUI extends TopLevel implements View, Reporter {
 
     /**Excute undo command. */
     private void doUndo(String dummy) {
-        _pendingCommands.offer("undo");
+        _pendingCommands.add("undo");
     }
     /**
      * Return the next command from our widget, waiting for it as necessary.
@@ -150,4 +154,8 @@ class GUI extends TopLevel implements View, Reporter {
     public void reportMove(Move unused) {
     }
 
+    @Override
+    public void reportAnalysis(List<Variation> unused) {
+    }
+
 }
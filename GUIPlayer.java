@@ -1,5 +1,6 @@
 package amazons;
 
+import java.util.List;
 import java.util.regex.Pattern;
 
 /**
@@ -35,6 +36,11 @@ class GUIPlayer extends Player implements Reporter {
         return new GUIPlayer(piece, controller, _gui);
     }
 
+    @Override
+    boolean isInteractive() {
+        return true;
+    }
+
     @Override
     String myMove() {
         while (true) {
@@ -62,6 +68,7 @@ class GUIPlayer extends Player implements Reporter {
                     || Pattern.matches("([a-j]([1-9]|10)-[a-j]"
                     + "([1-9]|10)\\([a-j]([1-9]|10)\\))$", line)
                     || Pattern.matches("undo$", line)
+                    || Pattern.matches("analyze\\s+(\\d+)$", line)
             ) {
                 return line;
             } else {
@@ -86,4 +93,9 @@ class GUIPlayer extends Player implements Reporter {
     @Override
     public void reportMove(Move unused) {
     }
+
+    @Override
+    public void reportAnalysis(List<Variation> lines) {
+        _gui.reportAnalysis(lines);
+    }
 }
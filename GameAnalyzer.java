@@ -0,0 +1,323 @@
+package amazons;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static amazons.Piece.WHITE;
+
+/**
+ * The offline reviewer of played games: it reads the command logs that
+ * a Controller writes (see Main's --log option and GameLog), searches
+ * every position of every game to a fixed depth, and reports, for each
+ * move, its value, the best move and its value, and how much the move
+ * lost, marking those that lost at least a given amount as blunders.
+ *
+ * <p>Each position before a move is searched to DEPTH plies for the
+ * best move, and then the position after it to DEPTH - 1 plies, which
+ * values the move played as the first search would have.  Each game is
+ * analyzed by an AI of its own, with a transposition table of its own,
+ * searching its positions one after another in the order played, so
+ * that the second search of each move finds the results of the first,
+ * and the report is the same from run to run however the games are
+ * spread over threads.  A move played that is also the best move takes
+ * the value of the first search, and so loses nothing.  Games are
+ * analyzed in parallel, one per thread; a bounded number of them are
+ * in progress at once, and the report is written game by game, in the
+ * order of the logs, as each game is finished.  Values favor White when
+ * positive.  Moves in a log that cannot be replayed (see GameLog) are
+ * skipped, and noted in the report before the log's games.
+ *
+ * <p>Usage: java amazons.GameAnalyzer REPORT DEPTH LOG....
+ *
+ * @author Shichao Han
+ */
+public class GameAnalyzer implements AutoCloseable {
+
+    /**
+     * The least loss of a move marked as a blunder.
+     */
+    static final int DEFAULT_BLUNDER = 10;
+
+    /**
+     * Analyzes my games, one to a thread.
+     */
+    private final ExecutorService _pool;
+    /**
+     * The static values of positions, shared by all my games.
+     */
+    private final EvalCache _cache = new EvalCache();
+    /**
+     * The depth of the search for the best move.
+     */
+    private final int _depth;
+    /**
+     * The least loss of a blunder.
+     */
+    private final int _blunder;
+    /**
+     * The most games in progress (or notes of skipped moves) awaiting
+     * their report at once.
+     */
+    private final int _window;
+
+    /**
+     * An analyzer running THREADS searches at once, searching DEPTH
+     * plies (at least 2) for the best moves, and marking moves that lose
+     * at least BLUNDER as blunders.
+     */
+    GameAnalyzer(int threads, int depth, int blunder) {
+        if (depth < 2) {
+            throw Utils.error("analysis depth must be at least 2");
+        }
+        _pool = Executors.newFixedThreadPool(threads, task -> {
+            Thread thread = new Thread(task, "analyze");
+            thread.setDaemon(true);
+            return thread;
+        });
+        _depth = depth;
+        _blunder = blunder;
+        _window = 2 * threads;
+    }
+
+    /**
+     * Analyze the logs named by ARGS (see the class comment).
+     */
+    public static void main(String... args) {
+        int depth = -1;
+        try {
+            if (args.length >= 3) {
+                depth = Integer.parseInt(args[1]);
+            }
+        } catch (NumberFormatException excp) {
+            depth = -1;
+        }
+        if (depth < 2) {
+            System.err.println("Usage: java amazons.GameAnalyzer REPORT"
+                    + " DEPTH LOG..., with DEPTH at least 2");
+            System.exit(1);
+        }
+        List<String> logs = Arrays.asList(args).subList(2, args.length);
+        try (PrintStream report = new PrintStream(args[0]);
+             GameAnalyzer analyzer = new GameAnalyzer(
+                 Runtime.getRuntime().availableProcessors(), depth,
+                 DEFAULT_BLUNDER)) {
+            Summary summary = analyzer.analyze(logs, report);
+            report.println(summary);
+            System.out.println(summary);
+        } catch (FileNotFoundException excp) {
+            System.err.printf("Could not write %s: %s%n", args[0],
+                    excp.getMessage());
+            System.exit(1);
+        } catch (IOException excp) {
+            System.err.printf("Could not read logs: %s%n",
+                    excp.getMessage());
+            System.exit(1);
+        }
+    }
+
+    /**
+     * Analyze every game in the log files LOGS, writing the report to
+     * REPORT.  Return a summary.
+     */
+    Summary analyze(List<String> logs, PrintStream report)
+        throws IOException {
+        long start = System.nanoTime();
+        Summary summary = new Summary();
+        Deque<Runnable> writes = new ArrayDeque<>();
+        for (String log : logs) {
+            List<String> skipped = new ArrayList<>();
+            List<Board> games = GameLog.read(log, skipped);
+            writes.add(() -> {
+                for (String note : skipped) {
+                    report.printf("%s: %s%n", log, note);
+                }
+                summary._skipped += skipped.size();
+            });
+            for (int g = 0; g < games.size(); g += 1) {
+                if (writes.size() >= _window) {
+                    writes.remove().run();
+                }
+                Review review = new Review(log, g, games.get(g));
+                writes.add(() -> review.write(report, summary));
+            }
+        }
+        while (!writes.isEmpty()) {
+            writes.remove().run();
+        }
+        summary._millis = (System.nanoTime() - start) / 1000000;
+        return summary;
+    }
+
+    @Override
+    public void close() {
+        _pool.shutdownNow();
+    }
+
+    /**
+     * The analysis of one game, in progress.
+     */
+    private final class Review {
+        /**
+         * The log and number of the game within it.
+         */
+        private final String _log;
+        private final int _number;
+        /**
+         * The moves of the game.
+         */
+        private final List<Move> _moves;
+        /**
+         * The side to move before each move.
+         */
+        private final List<Piece> _movers = new ArrayList<>();
+        /**
+         * The best move before each move, with its value.
+         */
+        private final List<Variation> _best = new ArrayList<>();
+        /**
+         * The value of the position after each move.
+         */
+        private final List<Integer> _played = new ArrayList<>();
+        /**
+         * Completes once all my searches are done.
+         */
+        private final CompletableFuture<Void> _done;
+
+        /**
+         * Start analyzing game number NUMBER of LOG, which was played on
+         * GAME.
+         */
+        Review(String log, int number, Board game) {
+            _log = log;
+            _number = number;
+            _moves = new ArrayList<>(game.getMyMoves());
+            _done = CompletableFuture.runAsync(this::search, _pool);
+        }
+
+        /**
+         * Search each position of my game in turn, with an AI of its
+         * own.
+         */
+        private void search() {
+            AI ai = new AI(new TranspositionTable(), _cache);
+            Board board = new Board();
+            for (Move move : _moves) {
+                _movers.add(board.turn());
+                _best.add(ai.analyze(board, _depth, 1, new SearchToken(),
+                                     null).get(0));
+                board.makeMove(move);
+                Piece winner = board.winner();
+                if (winner == null) {
+                    _played.add(ai.analyze(board, _depth - 1, 1,
+                                           new SearchToken(), null)
+                                .get(0).value());
+                } else {
+                    _played.add(winner == WHITE ? AI.WINNING_VALUE
+                                : -AI.WINNING_VALUE);
+                }
+            }
+        }
+
+        /**
+         * Wait for my searches, and write my report to REPORT, adding
+         * my counts to SUMMARY.
+         */
+        void write(PrintStream report, Summary summary) {
+            int[] blunders = new int[2];
+            try {
+                _done.get();
+            } catch (InterruptedException | ExecutionException excp) {
+                throw new IllegalStateException(excp);
+            }
+            for (int ply = 0; ply < _moves.size(); ply += 1) {
+                Variation best = _best.get(ply);
+                int played = _played.get(ply);
+                if (best.move() == _moves.get(ply)) {
+                    played = best.value();
+                }
+                Piece mover = _movers.get(ply);
+                long sense = mover == WHITE ? 1 : -1;
+                long loss = Math.max(0, sense * ((long) best.value()
+                                                 - played));
+                boolean blunder = loss >= _blunder;
+                if (blunder) {
+                    blunders[mover == WHITE ? 0 : 1] += 1;
+                }
+                report.printf("%s %d %d %s %s %d best %s %d loss %d%s%n",
+                              _log, _number, ply, mover.toName(),
+                              _moves.get(ply), played, best.move(),
+                              best.value(), loss,
+                              blunder ? " blunder" : "");
+            }
+            report.printf("%s %d: %d moves, blunders White %d Black %d%n",
+                          _log, _number, _moves.size(), blunders[0],
+                          blunders[1]);
+            summary._games += 1;
+            summary._moves += _moves.size();
+            summary._blunders += blunders[0] + blunders[1];
+        }
+    }
+
+    /**
+     * The totals of an analysis.
+     */
+    static final class Summary {
+        /**
+         * The number of games, moves, and blunders analyzed.
+         */
+        private long _games, _moves, _blunders;
+        /**
+         * The number of moves skipped in the logs.
+         */
+        private long _skipped;
+        /**
+         * The time taken, in milliseconds.
+         */
+        private long _millis;
+
+        /**
+         * Return the number of games analyzed.
+         */
+        long games() {
+            return _games;
+        }
+
+        /**
+         * Return the number of moves analyzed.
+         */
+        long moves() {
+            return _moves;
+        }
+
+        /**
+         * Return the number of blunders found.
+         */
+        long blunders() {
+            return _blunders;
+        }
+
+        /**
+         * Return the number of moves in the logs that were skipped.
+         */
+        long skipped() {
+            return _skipped;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%d games, %d moves, %d blunders, %d moves"
+                                 + " skipped in %d ms", _games, _moves,
+                                 _blunders, _skipped, _millis);
+        }
+    }
+}
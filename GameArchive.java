@@ -0,0 +1,311 @@
+package amazons;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.List;
+
+import static amazons.Piece.BLACK;
+import static amazons.Piece.EMPTY;
+import static amazons.Piece.WHITE;
+import static amazons.Utils.error;
+
+/**
+ * A read-only archive of complete games, as written by its Writer.
+ * Each move takes three bytes, the indices of its squares, against the
+ * dozen or so of its text in a command log, and reading one needs no
+ * parsing.  We map the file into memory rather than read it, so that
+ * going through millions of games copies nothing, and touches only the
+ * pages of the games looked at.
+ *
+ * <p>The layout is a header (MAGIC, VERSION, and the number of games,
+ * as ints, and the offset of the index, as a long), followed by the
+ * games, each a game header of GAME_HEADER_BYTES bytes (the number of
+ * moves as an unsigned short, the winner as a byte: 0 if none, 1 for
+ * White, 2 for Black, and a byte of 0) and then its moves, and then
+ * the index, which gives the offset of each game as a long.  A file
+ * must be smaller than 2GB, the limit of one mapping.
+ *
+ * @author Shichao Han
+ */
+final class GameArchive {
+
+    /**
+     * The first int of every archive file.
+     */
+    static final int MAGIC = 0x414d4741;
+    /**
+     * The format version written by this code.
+     */
+    static final int VERSION = 1;
+    /**
+     * The number of bytes in the file header.
+     */
+    static final int HEADER_BYTES = 3 * Integer.BYTES + Long.BYTES;
+    /**
+     * The number of bytes in a game header.
+     */
+    static final int GAME_HEADER_BYTES = 4;
+    /**
+     * The number of bytes in a move.
+     */
+    static final int MOVE_BYTES = 3;
+
+    /**
+     * The mapped contents of the file.
+     */
+    private final ByteBuffer _data;
+    /**
+     * The number of games.
+     */
+    private final int _count;
+    /**
+     * The offset of the index.
+     */
+    private final int _index;
+
+    /**
+     * An archive whose contents are DATA.
+     */
+    private GameArchive(ByteBuffer data) {
+        _data = data;
+        if (data.capacity() < HEADER_BYTES || data.getInt(0) != MAGIC
+                || data.getInt(Integer.BYTES) != VERSION) {
+            throw error("not a game archive file");
+        }
+        _count = data.getInt(2 * Integer.BYTES);
+        long index = data.getLong(3 * Integer.BYTES);
+        if (_count < 0 || index < HEADER_BYTES
+                || index + (long) _count * Long.BYTES > data.capacity()) {
+            throw error("truncated game archive file");
+        }
+        _index = (int) index;
+    }
+
+    /**
+     * Return the archive in the file NAME.
+     */
+    static GameArchive open(String name) throws IOException {
+        try (RandomAccessFile file = new RandomAccessFile(name, "r")) {
+            if (file.length() > Integer.MAX_VALUE) {
+                throw error("game archive %s is too large to map", name);
+            }
+            return new GameArchive(file.getChannel().map(
+                    FileChannel.MapMode.READ_ONLY, 0, file.length()));
+        }
+    }
+
+    /**
+     * Return the number of games in me.
+     */
+    int size() {
+        return _count;
+    }
+
+    /**
+     * Return the number of moves of game number GAME.
+     */
+    int length(int game) {
+        return _data.getShort(offset(game)) & 0xffff;
+    }
+
+    /**
+     * Return the winner of game number GAME, or EMPTY if it was not
+     * played to the end.
+     */
+    Piece winner(int game) {
+        switch (_data.get(offset(game) + 2)) {
+        case 1:
+            return WHITE;
+        case 2:
+            return BLACK;
+        default:
+            return EMPTY;
+        }
+    }
+
+    /**
+     * Return move number PLY (from 0) of game number GAME.
+     */
+    Move move(int game, int ply) {
+        if (ply < 0 || ply >= length(game)) {
+            throw error("no move %d in game %d", ply, game);
+        }
+        int k = offset(game) + GAME_HEADER_BYTES + ply * MOVE_BYTES;
+        return Move.mv(Square.sq(_data.get(k) & 0xff),
+                       Square.sq(_data.get(k + 1) & 0xff),
+                       Square.sq(_data.get(k + 2) & 0xff));
+    }
+
+    /**
+     * Return the moves of game number GAME, as a list that reads them
+     * from me as needed.
+     */
+    List<Move> moves(int game) {
+        int length = length(game);
+        return new AbstractList<Move>() {
+            @Override
+            public Move get(int ply) {
+                return move(game, ply);
+            }
+
+            @Override
+            public int size() {
+                return length;
+            }
+        };
+    }
+
+    /**
+     * Return the position of game number GAME after its first PLIES
+     * moves.
+     */
+    Board position(int game, int plies) {
+        Board board = new Board();
+        for (int ply = 0; ply < plies; ply += 1) {
+            board.makeMove(move(game, ply));
+        }
+        return board;
+    }
+
+    /**
+     * Return the offset of game number GAME.
+     */
+    private int offset(int game) {
+        if (game < 0 || game >= _count) {
+            throw error("no game %d", game);
+        }
+        return (int) _data.getLong(_index + game * Long.BYTES);
+    }
+
+    /**
+     * Writes an archive file, one game at a time.
+     */
+    static final class Writer implements AutoCloseable {
+
+        /**
+         * The size of my output buffer.
+         */
+        private static final int BUFFER_BYTES = 1 << 16;
+
+        /**
+         * The file written.
+         */
+        private final FileChannel _file;
+        /**
+         * Bytes not yet written to _file.
+         */
+        private final ByteBuffer _buffer =
+            ByteBuffer.allocate(BUFFER_BYTES);
+        /**
+         * The offset of the end of what has been added so far.
+         */
+        private long _end = HEADER_BYTES;
+        /**
+         * The offsets of the games added so far.
+         */
+        private long[] _offsets = new long[1024];
+        /**
+         * The number of games added so far.
+         */
+        private int _count;
+
+        /**
+         * A writer of a new archive in the file NAME, which is replaced
+         * if it exists.
+         */
+        Writer(String name) throws IOException {
+            _file = FileChannel.open(Paths.get(name),
+                    StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                    StandardOpenOption.TRUNCATE_EXISTING);
+            _file.position(HEADER_BYTES);
+        }
+
+        /**
+         * Add the game played on BOARD, as of its last move.
+         */
+        void add(Board board) throws IOException {
+            add(board.getMyMoves(), board.winner());
+        }
+
+        /**
+         * Add the game whose moves are MOVES and whose winner is WINNER
+         * (EMPTY or null if none).
+         */
+        void add(List<Move> moves, Piece winner) throws IOException {
+            if (moves.size() > 0xffff) {
+                throw error("game too long to archive");
+            }
+            if (_count == _offsets.length) {
+                _offsets = Arrays.copyOf(_offsets, 2 * _count);
+            }
+            _offsets[_count] = _end;
+            _count += 1;
+            reserve(GAME_HEADER_BYTES);
+            _buffer.putShort((short) moves.size())
+                .put((byte) (winner == WHITE ? 1 : winner == BLACK ? 2 : 0))
+                .put((byte) 0);
+            for (Move move : moves) {
+                reserve(MOVE_BYTES);
+                _buffer.put((byte) move.from().index())
+                    .put((byte) move.to().index())
+                    .put((byte) move.spear().index());
+            }
+            _end += GAME_HEADER_BYTES + (long) moves.size() * MOVE_BYTES;
+        }
+
+        /**
+         * Return the number of games added so far.
+         */
+        int size() {
+            return _count;
+        }
+
+        /**
+         * Write the index and header, completing the archive.
+         */
+        @Override
+        public void close() throws IOException {
+            try {
+                for (int i = 0; i < _count; i += 1) {
+                    reserve(Long.BYTES);
+                    _buffer.putLong(_offsets[i]);
+                }
+                drain();
+                ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES);
+                header.putInt(MAGIC).putInt(VERSION).putInt(_count)
+                    .putLong(_end).flip();
+                while (header.hasRemaining()) {
+                    _file.write(header, header.position());
+                }
+            } finally {
+                _file.close();
+            }
+        }
+
+        /**
+         * Make room for N more bytes in _buffer.
+         */
+        private void reserve(int n) throws IOException {
+            if (_buffer.remaining() < n) {
+                drain();
+            }
+        }
+
+        /**
+         * Write the contents of _buffer to _file.
+         */
+        private void drain() throws IOException {
+            _buffer.flip();
+            while (_buffer.hasRemaining()) {
+                _file.write(_buffer);
+            }
+            _buffer.clear();
+        }
+    }
+}
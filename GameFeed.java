@@ -0,0 +1,251 @@
+package amazons;
+
+import static amazons.Piece.WHITE;
+
+/**
+ * A live feed of one game for any number of spectators.  As a View of
+ * the game, it turns each change of the board into a compact event,
+ * one line of text: "move SEQ MOVE" or "undo SEQ" for a single move
+ * made or taken back, and otherwise "snapshot SEQ TURN NUMMOVES CELLS",
+ * where TURN is W or B and CELLS gives the contents of all squares
+ * (W, B, S, or -) in order of Square index.  A snapshot is also sent
+ * after every SNAPSHOT_INTERVAL events, and "over SEQ", always the
+ * last event, when the game ends.  SEQ numbers the events from 0.
+ *
+ * <p>Events go into a ring buffer of CAPACITY entries, which the game
+ * thread fills without ever waiting for spectators.  Each spectator
+ * reads through a Subscription at its own pace.  One that falls so far
+ * behind that the events it has yet to read have been overwritten is
+ * resynchronized: it next receives the latest snapshot, and continues
+ * from there.  A slow spectator thus misses moves, but never holds up
+ * the game or the other spectators.
+ *
+ * @author Shichao Han
+ */
+final class GameFeed implements View {
+
+    /**
+     * The number of events kept (a power of 2).
+     */
+    static final int CAPACITY = 64;
+    /**
+     * The number of events between snapshots.  Less than CAPACITY, so
+     * that a snapshot is always followed by events still kept.
+     */
+    static final int SNAPSHOT_INTERVAL = 16;
+
+    /**
+     * The most recent events, event number SEQ being in slot SEQ modulo
+     * CAPACITY.
+     */
+    private final Event[] _ring = new Event[CAPACITY];
+    /**
+     * The number of events published so far.
+     */
+    private volatile long _head;
+    /**
+     * The most recent snapshot.
+     */
+    private volatile Event _snapshot;
+    /**
+     * True once the game is over.
+     */
+    private volatile boolean _over;
+    /**
+     * The board as of the last event, for finding what has changed.
+     */
+    private Board _last = new Board();
+
+    /**
+     * A feed whose first event is a snapshot of the initial board.
+     */
+    GameFeed() {
+        publishSnapshot();
+    }
+
+    /**
+     * Publish the change from the last board seen to BOARD, if any.
+     * To be called only by the game thread.
+     */
+    @Override
+    public void update(Board board) {
+        if (_over || board.numMoves() == _last.numMoves()
+                && board.hash() == _last.hash()) {
+            return;
+        }
+        if (board.numMoves() == _last.numMoves() + 1
+                && !board.getMyMoves().isEmpty()) {
+            Move move = board.getMyMoves().peek();
+            if (_last.isLegal(move)) {
+                _last.makeMove(move);
+                if (_last.hash() == board.hash()) {
+                    publish(String.format("move %d %s", _head, move),
+                            false);
+                    return;
+                }
+            }
+        } else if (board.numMoves() == _last.numMoves() - 1) {
+            _last.undo();
+            if (_last.hash() == board.hash()) {
+                publish(String.format("undo %d", _head), false);
+                return;
+            }
+        }
+        _last = new Board(board);
+        publishSnapshot();
+    }
+
+    /**
+     * Announce that the game is over, ending every subscription once
+     * its spectator has read this far.
+     */
+    void close() {
+        if (!_over) {
+            append(String.format("over %d", _head), false);
+            _over = true;
+            wakeSpectators();
+        }
+    }
+
+    /**
+     * Return a subscription whose first event is the latest snapshot.
+     */
+    Subscription subscribe() {
+        return new Subscription();
+    }
+
+    /**
+     * Return the number of events published so far.
+     */
+    long published() {
+        return _head;
+    }
+
+    /**
+     * Publish a snapshot of _last.
+     */
+    private void publishSnapshot() {
+        StringBuilder cells = new StringBuilder();
+        for (int k = 0; k < Board.SIZE * Board.SIZE; k += 1) {
+            cells.append(_last.get(Square.sq(k)));
+        }
+        publish(String.format("snapshot %d %s %d %s", _head,
+                _last.turn() == WHITE ? "W" : "B", _last.numMoves(),
+                cells), true);
+    }
+
+    /**
+     * Add the event whose text is TEXT, which is a snapshot iff
+     * SNAPSHOT, following it with a snapshot if one is due.
+     */
+    private void publish(String text, boolean snapshot) {
+        long seq = append(text, snapshot);
+        if (!snapshot && seq - _snapshot._seq >= SNAPSHOT_INTERVAL) {
+            publishSnapshot();
+        }
+    }
+
+    /**
+     * Add the event whose text is TEXT, which is a snapshot iff
+     * SNAPSHOT, and return its number.  Unlike publish, never follows
+     * it with a snapshot, so that the event that ends the game is the
+     * last.
+     */
+    private long append(String text, boolean snapshot) {
+        long seq = _head;
+        Event event = new Event(seq, text);
+        _ring[(int) seq & (CAPACITY - 1)] = event;
+        if (snapshot) {
+            _snapshot = event;
+        }
+        _head = seq + 1;
+        wakeSpectators();
+        return seq;
+    }
+
+    /**
+     * Wake the spectators waiting for events.
+     */
+    private synchronized void wakeSpectators() {
+        notifyAll();
+    }
+
+    /**
+     * One published event.
+     */
+    private static final class Event {
+        /**
+         * The number of the event.
+         */
+        private final long _seq;
+        /**
+         * The text sent to spectators.
+         */
+        private final String _text;
+
+        /**
+         * Event number SEQ, with text TEXT.
+         */
+        Event(long seq, String text) {
+            _seq = seq;
+            _text = text;
+        }
+    }
+
+    /**
+     * One spectator's position in the feed.  To be used by one thread.
+     */
+    final class Subscription {
+
+        /**
+         * The number of the next event to read.
+         */
+        private long _next = -1;
+        /**
+         * The number of times I have been resynchronized.
+         */
+        private int _resyncs;
+
+        /**
+         * Return the text of the next event, waiting for it if need be,
+         * or null once the game is over and all its events have been
+         * read.
+         */
+        String next() throws InterruptedException {
+            while (true) {
+                if (_next < 0) {
+                    Event snapshot = _snapshot;
+                    _next = snapshot._seq + 1;
+                    return snapshot._text;
+                }
+                if (_next >= _head) {
+                    if (_over && _next >= _head) {
+                        return null;
+                    }
+                    synchronized (GameFeed.this) {
+                        while (_next >= _head && !_over) {
+                            GameFeed.this.wait();
+                        }
+                    }
+                    continue;
+                }
+                Event event = _ring[(int) _next & (CAPACITY - 1)];
+                if (event == null || event._seq != _next) {
+                    _resyncs += 1;
+                    _next = -1;
+                    continue;
+                }
+                _next += 1;
+                return event._text;
+            }
+        }
+
+        /**
+         * Return the number of times I have fallen behind and been
+         * resynchronized.
+         */
+        int resyncs() {
+            return _resyncs;
+        }
+    }
+}
@@ -0,0 +1,423 @@
+package amazons;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.zip.CRC32;
+
+import static amazons.Piece.WHITE;
+
+/**
+ * The append-only journal of one game session, kept in a file of a
+ * JournalStore.  A Controller records every change to its game as a
+ * small binary record: a new game (in which, as in a new Controller,
+ * only Black is automated), a move, an undo, or a change of which
+ * sides are played automatically.  After every SNAPSHOT_INTERVAL
+ * records it also records a snapshot, holding the sides played
+ * automatically and all moves of the current game, from which the
+ * game can be rebuilt without what came before.  Recording a change
+ * only adds it to a buffer in memory: the store writes the buffers of
+ * all its journals, and forces them to disk, in batches (see
+ * JournalStore), so that recording costs no I/O of its own.
+ *
+ * <p>The file is a header (MAGIC and VERSION, as ints), followed by
+ * records, each of which is a type byte, the length of its payload as
+ * a short, the payload, and the CRC-32 of all of these as an int.  A
+ * move is three bytes, the indices of its squares.  To recover a game,
+ * we read the records in order, restarting from each snapshot and
+ * applying the records after it, and stop at the end of the file or at
+ * the first record that is incomplete or corrupt (one whose batch was
+ * being written during a crash), which is cut off.
+ *
+ * @author Shichao Han
+ */
+final class GameJournal {
+
+    /**
+     * The first int of every journal file.
+     */
+    static final int MAGIC = 0x414d4a4e;
+    /**
+     * The format version written by this code.
+     */
+    static final int VERSION = 1;
+    /**
+     * The number of records between snapshots.
+     */
+    static final int SNAPSHOT_INTERVAL = 32;
+
+    /**
+     * The types of record.
+     */
+    private static final byte NEW = 0, MOVE = 1, UNDO = 2, PLAYERS = 3,
+        SNAPSHOT = 4;
+    /**
+     * The number of bytes in the header, and in a record other than its
+     * payload.
+     */
+    private static final int HEADER_BYTES = 2 * Integer.BYTES,
+        FRAME_BYTES = 1 + Short.BYTES + Integer.BYTES;
+    /**
+     * The bits of the PLAYERS payload for automated White and Black.
+     */
+    private static final int AUTO_WHITE = 1, AUTO_BLACK = 2;
+
+    /**
+     * The store that commits me.
+     */
+    private final JournalStore _store;
+    /**
+     * The number of my game.
+     */
+    private final int _id;
+    /**
+     * My file.
+     */
+    private final File _file;
+    /**
+     * The channel to my file, once opened.
+     */
+    private FileChannel _channel;
+    /**
+     * The game as of my last record.
+     */
+    private final Board _board = new Board();
+    /**
+     * The sides played automatically (AUTO_WHITE and AUTO_BLACK bits)
+     * as of my last record.
+     */
+    private int _players;
+    /**
+     * True iff my game was recovered from an existing file.
+     */
+    private boolean _recovered;
+    /**
+     * The records since my last snapshot.
+     */
+    private int _sinceSnapshot;
+    /**
+     * Records not yet committed.
+     */
+    private ByteBuffer _pending = ByteBuffer.allocate(256);
+    /**
+     * True once I have been discarded.
+     */
+    private boolean _discarded;
+    /**
+     * Computes checksums.
+     */
+    private final CRC32 _crc = new CRC32();
+    /**
+     * Held while reading or writing my file.  Recording holds the lock
+     * on me instead, so that it need not wait for the disk.
+     */
+    private final Object _io = new Object();
+
+    /**
+     * The journal of game number ID, in FILE, committed by STORE.  It
+     * has no records until it is recovered or a change is recorded.
+     */
+    GameJournal(JournalStore store, int id, File file) {
+        _store = store;
+        _id = id;
+        _file = file;
+        _players = AUTO_BLACK;
+    }
+
+    /**
+     * Return the number of my game.
+     */
+    int id() {
+        return _id;
+    }
+
+    /**
+     * Return true iff my game was recovered from an existing file.
+     */
+    boolean recovered() {
+        return _recovered;
+    }
+
+    /**
+     * Return a copy of the board of my game as of my last record.
+     */
+    Board board() {
+        return new Board(_board);
+    }
+
+    /**
+     * Return true iff SIDE is played automatically as of my last
+     * record.  Initially, only Black is.
+     */
+    boolean isAutomated(Piece side) {
+        return (_players & (side == WHITE ? AUTO_WHITE : AUTO_BLACK)) != 0;
+    }
+
+    /**
+     * Record the start of a new game.
+     */
+    void recordNew() {
+        record(NEW, new byte[0]);
+    }
+
+    /**
+     * Record MOVE.
+     */
+    void recordMove(Move move) {
+        ByteBuffer payload = ByteBuffer.allocate(3);
+        putMove(payload, move);
+        record(MOVE, payload.array());
+    }
+
+    /**
+     * Record the undoing of the last move.
+     */
+    void recordUndo() {
+        record(UNDO, new byte[0]);
+    }
+
+    /**
+     * Record that SIDE is now played automatically iff AUTOMATED.
+     */
+    synchronized void recordPlayer(Piece side, boolean automated) {
+        int bit = side == WHITE ? AUTO_WHITE : AUTO_BLACK;
+        int players = automated ? _players | bit : _players & ~bit;
+        if (players != _players) {
+            record(PLAYERS, new byte[] { (byte) players });
+        }
+    }
+
+    /**
+     * Record a snapshot of my game, from which it can be rebuilt
+     * without the records before it.
+     */
+    synchronized void recordSnapshot() {
+        ByteBuffer payload =
+            ByteBuffer.allocate(1 + 3 * _board.getMyMoves().size());
+        payload.put((byte) _players);
+        for (Move move : _board.getMyMoves()) {
+            putMove(payload, move);
+        }
+        record(SNAPSHOT, payload.array());
+    }
+
+    /**
+     * Read my file, if it exists, rebuilding the game it records from
+     * its latest snapshot, and cutting off any incomplete or corrupt
+     * tail.  Return true iff it held a game.
+     */
+    boolean recover() throws IOException {
+        synchronized (_io) {
+            synchronized (this) {
+                return recoverFile();
+            }
+        }
+    }
+
+    /**
+     * Do the work of recover, holding both locks.
+     */
+    private boolean recoverFile() throws IOException {
+        if (!_file.exists()) {
+            return false;
+        }
+        ByteBuffer data;
+        try (RandomAccessFile file = new RandomAccessFile(_file, "r")) {
+            data = ByteBuffer.allocate((int) file.length());
+            file.getChannel().read(data, 0);
+        }
+        data.flip();
+        if (data.remaining() < HEADER_BYTES || data.getInt() != MAGIC
+                || data.getInt() != VERSION) {
+            return false;
+        }
+        int snapshot = -1;
+        int end = data.position();
+        while (data.remaining() >= FRAME_BYTES) {
+            int start = data.position();
+            int length = data.getShort(start + 1) & 0xffff;
+            if (data.remaining() < FRAME_BYTES + length) {
+                break;
+            }
+            _crc.reset();
+            _crc.update(data.array(), start, 1 + Short.BYTES + length);
+            int check = data.getInt(start + 1 + Short.BYTES + length);
+            if ((int) _crc.getValue() != check) {
+                break;
+            }
+            if (data.get(start) == SNAPSHOT) {
+                snapshot = start;
+            }
+            end = start + FRAME_BYTES + length;
+            data.position(end);
+        }
+        data.position(snapshot >= 0 ? snapshot : HEADER_BYTES);
+        _sinceSnapshot = 0;
+        while (data.position() < end) {
+            byte type = data.get();
+            int length = data.getShort() & 0xffff;
+            ByteBuffer payload = data.slice();
+            payload.limit(length);
+            apply(type, payload);
+            data.position(data.position() + length + Integer.BYTES);
+            _sinceSnapshot += 1;
+        }
+        _channel = FileChannel.open(_file.toPath(),
+                StandardOpenOption.WRITE);
+        _channel.truncate(end);
+        _channel.position(end);
+        _recovered = true;
+        return true;
+    }
+
+    /**
+     * Write my uncommitted records to my file, and force them to disk
+     * iff FORCE.  Return true iff I had any.  Called by my store.  Only
+     * taking the records holds up recording more.
+     */
+    boolean commit(boolean force) throws IOException {
+        synchronized (_io) {
+            ByteBuffer batch;
+            synchronized (this) {
+                if (_discarded || _pending.position() == 0) {
+                    return false;
+                }
+                batch = _pending;
+                _pending = ByteBuffer.allocate(batch.capacity());
+            }
+            batch.flip();
+            if (_channel == null) {
+                _channel = FileChannel.open(_file.toPath(),
+                        StandardOpenOption.CREATE,
+                        StandardOpenOption.WRITE,
+                        StandardOpenOption.TRUNCATE_EXISTING);
+                ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES);
+                header.putInt(MAGIC).putInt(VERSION).flip();
+                _channel.write(header);
+            }
+            while (batch.hasRemaining()) {
+                _channel.write(batch);
+            }
+            if (force) {
+                _channel.force(false);
+            }
+            return true;
+        }
+    }
+
+    /**
+     * Close my file and delete it: my game is over, and need not be
+     * recovered.
+     */
+    void discard() throws IOException {
+        synchronized (this) {
+            _discarded = true;
+        }
+        synchronized (_io) {
+            if (_channel != null) {
+                _channel.close();
+                _channel = null;
+            }
+            _file.delete();
+        }
+        _store.forget(this);
+    }
+
+    /**
+     * Close my file, leaving it to be recovered.  Called by my store.
+     */
+    void close() throws IOException {
+        synchronized (_io) {
+            if (_channel != null) {
+                _channel.close();
+                _channel = null;
+            }
+        }
+    }
+
+    /**
+     * Add the record of type TYPE with PAYLOAD to my uncommitted
+     * records, apply it to my game, and add a snapshot if one is due.
+     */
+    private synchronized void record(byte type, byte[] payload) {
+        if (_discarded) {
+            return;
+        }
+        int needed = FRAME_BYTES + payload.length;
+        if (_pending.remaining() < needed) {
+            ByteBuffer bigger =
+                ByteBuffer.allocate(2 * _pending.capacity() + needed);
+            _pending.flip();
+            bigger.put(_pending);
+            _pending = bigger;
+        }
+        int start = _pending.position();
+        _pending.put(type).putShort((short) payload.length).put(payload);
+        _crc.reset();
+        _crc.update(_pending.array(), start, 1 + Short.BYTES
+                    + payload.length);
+        _pending.putInt((int) _crc.getValue());
+        if (type == SNAPSHOT) {
+            _sinceSnapshot = 0;
+        } else {
+            apply(type, ByteBuffer.wrap(payload));
+            _sinceSnapshot += 1;
+            if (_sinceSnapshot >= SNAPSHOT_INTERVAL) {
+                recordSnapshot();
+            }
+        }
+        _store.changed(this);
+    }
+
+    /**
+     * Apply the record of type TYPE whose payload is PAYLOAD to my
+     * game.
+     */
+    private void apply(byte type, ByteBuffer payload) {
+        switch (type) {
+        case NEW:
+            _board.init();
+            _players = AUTO_BLACK;
+            break;
+        case MOVE:
+            _board.makeMove(getMove(payload));
+            break;
+        case UNDO:
+            _board.undo();
+            break;
+        case PLAYERS:
+            _players = payload.get() & (AUTO_WHITE | AUTO_BLACK);
+            break;
+        case SNAPSHOT:
+            _players = payload.get() & (AUTO_WHITE | AUTO_BLACK);
+            _board.init();
+            while (payload.hasRemaining()) {
+                _board.makeMove(getMove(payload));
+            }
+            break;
+        default:
+            break;
+        }
+    }
+
+    /**
+     * Put MOVE into BUF as three square indices.
+     */
+    private static void putMove(ByteBuffer buf, Move move) {
+        buf.put((byte) move.from().index()).put((byte) move.to().index())
+            .put((byte) move.spear().index());
+    }
+
+    /**
+     * Return the move whose square indices are the next three bytes of
+     * BUF.
+     */
+    private static Move getMove(ByteBuffer buf) {
+        int code = (buf.get() & 0xff) << 16 | (buf.get() & 0xff) << 8
+            | buf.get() & 0xff;
+        return OpeningBook.decode(code);
+    }
+}
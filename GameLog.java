@@ -0,0 +1,108 @@
+package amazons;
+
+import java.io.BufferedReader;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * A reader of the command logs written by a Controller (see Main's
+ * --log option), which recovers the games played from them.  The log
+ * holds every command as it was entered, including moves that were
+ * rejected, so we replay the commands on a Board as the Controller
+ * did: a legal move is made, an illegal one skipped (and noted, if the
+ * caller asks), "undo" takes back two moves, "takeback" (an undo
+ * entered during a search) takes back one, and "new" (or the end of the
+ * log) ends the game in progress and starts another.  Other commands
+ * do not affect the game.
+ *
+ * @author Shichao Han
+ */
+final class GameLog {
+
+    /**
+     * Matches comments.
+     */
+    private static final Pattern COMMENT = Pattern.compile("#.*");
+
+    /**
+     * Not instantiable.
+     */
+    private GameLog() {
+    }
+
+    /**
+     * Return the games recorded in the log file NAME, as in read.
+     */
+    static List<Board> read(String name) throws IOException {
+        return read(name, null);
+    }
+
+    /**
+     * Return the games recorded in the log file NAME, noting skipped
+     * moves in SKIPPED, as in read.
+     */
+    static List<Board> read(String name, List<String> skipped)
+        throws IOException {
+        try (Reader file = new FileReader(name)) {
+            return read(file, skipped);
+        }
+    }
+
+    /**
+     * Return the games recorded in the log read from INPUT, as in
+     * read(INPUT, null).
+     */
+    static List<Board> read(Reader input) throws IOException {
+        return read(input, null);
+    }
+
+    /**
+     * Return the games recorded in the log read from INPUT, each as
+     * the board at its end, in order, omitting games with no moves.
+     * Unless SKIPPED is null, add to it a note of the form
+     * "line N: illegal move M" for each move skipped.
+     */
+    static List<Board> read(Reader input, List<String> skipped)
+        throws IOException {
+        BufferedReader lines = new BufferedReader(input);
+        List<Board> games = new ArrayList<>();
+        Board board = new Board();
+        Matcher comment = COMMENT.matcher("");
+        String line;
+        int number = 0;
+        while ((line = lines.readLine()) != null) {
+            number += 1;
+            String cmnd =
+                comment.reset(line).replaceFirst("").trim().toLowerCase();
+            if (cmnd.equals("new")) {
+                if (board.numMoves() > 0) {
+                    games.add(board);
+                }
+                board = new Board();
+            } else if (cmnd.equals("undo")) {
+                board.undo();
+                board.undo();
+            } else if (cmnd.equals("takeback")) {
+                board.undo();
+            } else {
+                Move move = Move.mv(cmnd);
+                if (move != null && board.isLegal(move)) {
+                    board.makeMove(move);
+                } else if (skipped != null
+                           && Move.isGrammaticalMove(cmnd)) {
+                    skipped.add(String.format("line %d: illegal move %s",
+                                              number, cmnd));
+                }
+            }
+        }
+        if (board.numMoves() > 0) {
+            games.add(board);
+        }
+        return games;
+    }
+}
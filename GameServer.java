@@ -0,0 +1,357 @@
+package amazons;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.util.Map;
+import java.util.Scanner;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * A server hosting many games of Amazons at once over TCP.  Each
+ * connection is a session with a Controller and Board of its own,
+ * speaking exactly the text commands and replies of the console
+ * program: the client sends lines such as "auto white" or
+ * "d1-d7(g7)", and receives the prompts, move reports, dumps, and
+ * error messages that the console would print.  The server speaks
+ * first: as soon as a client connects, it sends "* Game N", giving the
+ * number of the client's game, or "error all games taken".
+ *
+ * <p>A client that sends "watch N" ends its own game and becomes a
+ * spectator of game N, receiving its GameFeed, one event per line,
+ * until that game ends or the client disconnects.  A client turned
+ * away because all games are taken may still send "watch N" as its
+ * first line.  Spectators are served each by a thread of their own, so
+ * a slow one falls behind (and is resynchronized by the feed) without
+ * delaying anyone else.
+ *
+ * <p>The server is a simultaneous exhibition: one engine plays every
+ * game.  The AIs of all sessions are created from one template, and so
+ * share its transposition table and evaluation cache (see AI), and
+ * they do not ponder.  Their searches are run by one SearchScheduler
+ * with a fixed number of slots, as interactive work of the session's
+ * game, so that a burst of games queues up for the processors rather
+ * than oversubscribing them, and the games take turns fairly: a long
+ * search is paused for a while when other games are waiting.  The
+ * number of games at once may be limited.
+ *
+ * <p>Given a directory for journals, the server records each game in a
+ * GameJournal of a JournalStore there, so that if the server is killed
+ * or closed, the next server using that directory recovers every game
+ * in progress.  A client that sends "resume N" ends its own game and
+ * continues game N from where it stood, after a line "* Game N".  A
+ * game's journal is discarded once its client quits or disconnects
+ * while the server is running.
+ *
+ * <p>Each session runs on a thread of its own, which is a virtual
+ * thread when the Java runtime provides them, so that thousands of
+ * mostly idle sessions cost little.
+ *
+ * @author Shichao Han
+ */
+final class GameServer implements AutoCloseable {
+
+    /**
+     * The commands with which a client leaves its game for another, or
+     * to watch one.
+     */
+    private static final Pattern SWITCH =
+        Pattern.compile("(watch|resume)\\s+(\\d+)$");
+
+    /**
+     * The socket on which I accept connections.
+     */
+    private final ServerSocket _socket;
+    /**
+     * Runs the searches of every session.
+     */
+    private final SearchScheduler _scheduler;
+    /**
+     * Creates the threads of sessions.
+     */
+    private final ThreadFactory _sessions;
+    /**
+     * The template for every session's automated players.
+     */
+    private final AI _template;
+    /**
+     * The connections of sessions in progress.
+     */
+    private final Set<Socket> _connections = ConcurrentHashMap.newKeySet();
+    /**
+     * The feeds of games in progress, by game number.
+     */
+    private final Map<Integer, GameFeed> _feeds = new ConcurrentHashMap<>();
+    /**
+     * The number of the next game.
+     */
+    private final AtomicInteger _nextGame = new AtomicInteger();
+    /**
+     * The most games in progress at once, or 0 for no limit.
+     */
+    private final int _maxGames;
+    /**
+     * The store of my games' journals, or null if they are not
+     * journaled.
+     */
+    private final JournalStore _journals;
+    /**
+     * The journals of recovered games not yet resumed, by game number.
+     */
+    private final Map<Integer, GameJournal> _recovered =
+        new ConcurrentHashMap<>();
+
+    /**
+     * A server accepting connections on PORT of the loopback address
+     * (any free port if 0), running at most SEARCHTHREADS searches at
+     * once, with no limit on the number of games.
+     */
+    GameServer(int port, int searchThreads) throws IOException {
+        this(port, searchThreads, 0);
+    }
+
+    /**
+     * A server accepting connections on PORT of the loopback address
+     * (any free port if 0), running at most SEARCHTHREADS searches at
+     * once, and at most MAXGAMES games (no limit if 0).
+     */
+    GameServer(int port, int searchThreads, int maxGames)
+        throws IOException {
+        this(port, searchThreads, maxGames, null);
+    }
+
+    /**
+     * A server accepting connections on PORT of the loopback address
+     * (any free port if 0), running at most SEARCHTHREADS searches at
+     * once, and at most MAXGAMES games (no limit if 0), and journaling
+     * its games in directory JOURNALDIR (not at all if null), after
+     * recovering the games in progress there.
+     */
+    GameServer(int port, int searchThreads, int maxGames, File journalDir)
+        throws IOException {
+        _maxGames = maxGames;
+        if (journalDir == null) {
+            _journals = null;
+        } else {
+            _journals = new JournalStore(journalDir);
+            for (GameJournal journal : _journals.recover()) {
+                _recovered.put(journal.id(), journal);
+                _nextGame.set(Math.max(_nextGame.get(), journal.id() + 1));
+            }
+        }
+        _socket = new ServerSocket(port, 0, InetAddress.getLoopbackAddress());
+        _scheduler = new SearchScheduler(searchThreads);
+        _sessions = Utils.lightThreads("session");
+        _template = new AI();
+        _template.setPondering(false);
+    }
+
+    /**
+     * Return the port on which I accept connections.
+     */
+    int port() {
+        return _socket.getLocalPort();
+    }
+
+    /**
+     * Return the number of sessions in progress.
+     */
+    int sessions() {
+        return _connections.size();
+    }
+
+    /**
+     * Return the numbers of the recovered games not yet resumed.
+     */
+    Set<Integer> recovered() {
+        return _recovered.keySet();
+    }
+
+    /**
+     * Return the scheduler of my searches.
+     */
+    SearchScheduler scheduler() {
+        return _scheduler;
+    }
+
+    /**
+     * Accept connections, starting a session for each, until closed.
+     */
+    void serve() throws IOException {
+        while (true) {
+            Socket connection;
+            try {
+                connection = _socket.accept();
+            } catch (SocketException excp) {
+                if (_socket.isClosed()) {
+                    return;
+                }
+                throw excp;
+            }
+            _connections.add(connection);
+            _sessions.newThread(() -> session(connection)).start();
+        }
+    }
+
+    /**
+     * Stop accepting connections and end every session.
+     */
+    @Override
+    public void close() throws IOException {
+        _socket.close();
+        for (Socket connection : _connections) {
+            connection.close();
+        }
+        _scheduler.shutdown();
+        if (_journals != null) {
+            _journals.close();
+        }
+    }
+
+    /**
+     * Play games with the client on CONNECTION until it quits or
+     * disconnects.
+     */
+    private void session(Socket connection) {
+        try (Socket socket = connection) {
+            PrintStream output =
+                    new PrintStream(socket.getOutputStream(), true);
+            Scanner input = new Scanner(socket.getInputStream());
+            String next = play(input, output);
+            while (next != null) {
+                Matcher mat = SWITCH.matcher(next);
+                if (!mat.matches()) {
+                    break;
+                }
+                int id = Integer.parseInt(mat.group(2));
+                if (mat.group(1).equals("watch")) {
+                    watch(id, output);
+                    next = null;
+                } else {
+                    next = resume(id, input, output);
+                }
+            }
+        } catch (IOException excp) {
+            /* The client has gone; there is no one to tell. */
+        } finally {
+            _connections.remove(connection);
+        }
+    }
+
+    /**
+     * Play games with the client that sends INPUT and receives OUTPUT,
+     * publishing them to spectators.  Return the command with which the
+     * client left for another game or to watch one, if it did, or else
+     * null.
+     */
+    private String play(Scanner input, PrintStream output)
+        throws IOException {
+        return play(_nextGame.getAndIncrement(), null, input, output);
+    }
+
+    /**
+     * Continue recovered game number ID with the client that sends
+     * INPUT and receives OUTPUT, returning as for play.
+     */
+    private String resume(int id, Scanner input, PrintStream output)
+        throws IOException {
+        GameJournal journal = _recovered.remove(id);
+        if (journal == null) {
+            output.println("error no such game");
+            return null;
+        }
+        return play(id, journal, input, output);
+    }
+
+    /**
+     * Play game number ID, and any after it, with the client that sends
+     * INPUT and receives OUTPUT, publishing them to spectators, and
+     * return as for play.  The game continues the one recorded in
+     * JOURNAL, if it is not null.  A client turned away because all
+     * games are taken is still heard, and may watch a game.
+     */
+    private String play(int id, GameJournal journal, Scanner input,
+                        PrintStream output) throws IOException {
+        GameFeed feed = new GameFeed();
+        synchronized (_feeds) {
+            if (_maxGames > 0 && _feeds.size() >= _maxGames) {
+                if (journal != null) {
+                    _recovered.put(id, journal);
+                }
+                output.println("error all games taken");
+                String line = input.hasNextLine() ? input.nextLine() : "";
+                return line.trim().startsWith("watch") ? line.trim() : null;
+            }
+            _feeds.put(id, feed);
+        }
+        if (journal == null && _journals != null) {
+            journal = _journals.open(id);
+        }
+        String session = "game-" + id;
+        String[] next = new String[1];
+        try {
+            output.printf("* Game %d%n", id);
+            Controller controller =
+                new Controller(feed, null, new TextReporter(output, output),
+                               new TextPlayer(true), _template, input,
+                               output, _scheduler.executor(session,
+                                   SearchScheduler.Priority.INTERACTIVE),
+                               _sessions);
+            controller.setJournal(journal);
+            controller.setAnalyzer(_scheduler.executor(session,
+                SearchScheduler.Priority.BACKGROUND));
+            controller.addCommand(SWITCH.pattern(), mat -> {
+                int other = Integer.parseInt(mat.group(2));
+                if (mat.group(1).equals("watch")
+                    ? !_feeds.containsKey(other) || other == id
+                    : !_recovered.containsKey(other)) {
+                    throw Utils.error("no such game");
+                }
+                next[0] = mat.group();
+                controller.quit();
+            });
+            controller.play();
+        } finally {
+            feed.close();
+            _feeds.remove(id);
+            _scheduler.endSession(session);
+            if (journal != null && !_socket.isClosed()) {
+                journal.discard();
+            }
+        }
+        return next[0];
+    }
+
+    /**
+     * Send the feed of game number ID to OUTPUT until the game is over
+     * or the spectator disconnects.
+     */
+    private void watch(int id, PrintStream output) {
+        GameFeed feed = _feeds.get(id);
+        if (feed == null) {
+            output.println("error no such game");
+            return;
+        }
+        GameFeed.Subscription subscription = feed.subscribe();
+        try {
+            String event;
+            while ((event = subscription.next()) != null) {
+                output.println(event);
+                if (output.checkError()) {
+                    return;
+                }
+            }
+        } catch (InterruptedException excp) {
+            return;
+        }
+    }
+}
@@ -0,0 +1,355 @@
+package amazons;
+
+import java.io.BufferedReader;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.FileInputStream;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.UncheckedIOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.function.Function;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+
+/**
+ * The bulk validator for imported game records, which checks that every
+ * move of every game is legal.  Games are read as a stream and checked
+ * in batches of BATCH games, each batch by one task of a fork-join
+ * pool, which replays its games on a Board of its thread's own,
+ * checking each move with Board.isLegal.  A bounded number of batches
+ * are in progress at once, so that memory stays small however many
+ * games there are, and the report lists the invalid games in the order
+ * read, each with its first illegal ply: an illegal move, if the ply is
+ * written as a move, even one whose piece or spear does not move as a
+ * queen, or else an unreadable one.
+ *
+ * <p>Games come either from a GameArchive or from a text file with one
+ * game per line, its moves in the form FROM-TO(SPEAR) separated by
+ * spaces or commas.  Blank lines and comments (from # on) are ignored.
+ * Games are numbered from 0, in order.
+ *
+ * <p>Usage: java amazons.GameValidator FILE [THREADS].
+ *
+ * @author Shichao Han
+ */
+public class GameValidator {
+
+    /**
+     * The number of games checked by one task.
+     */
+    static final int BATCH = 512;
+
+    /**
+     * Matches the separators of the moves of a game.
+     */
+    private static final Pattern SEPARATOR = Pattern.compile("[\\s,]+");
+    /**
+     * Matches comments.
+     */
+    private static final Pattern COMMENT = Pattern.compile("#.*");
+
+    /**
+     * The pool that checks my games.
+     */
+    private final ForkJoinPool _pool;
+    /**
+     * The board of each thread of _pool.
+     */
+    private final ThreadLocal<Board> _boards =
+        ThreadLocal.withInitial(Board::new);
+
+    /**
+     * A validator checking games with THREADS threads.
+     */
+    GameValidator(int threads) {
+        _pool = new ForkJoinPool(threads);
+    }
+
+    /**
+     * Check the games in FILE as directed by ARGS (see the class
+     * comment), and report the invalid ones on the standard output.
+     */
+    public static void main(String... args) {
+        int threads = Runtime.getRuntime().availableProcessors();
+        try {
+            if (args.length == 2) {
+                threads = Integer.parseInt(args[1]);
+            }
+        } catch (NumberFormatException excp) {
+            threads = 0;
+        }
+        if (args.length < 1 || args.length > 2 || threads < 1) {
+            System.err.println("Usage: java amazons.GameValidator FILE"
+                    + " [THREADS]");
+            System.exit(1);
+        }
+        GameValidator validator = new GameValidator(threads);
+        try {
+            Summary summary;
+            if (isArchive(args[0])) {
+                summary = validator.validate(GameArchive.open(args[0]),
+                                             System.out);
+            } else {
+                try (BufferedReader input =
+                         new BufferedReader(new FileReader(args[0]))) {
+                    summary = validator.validate(input, System.out);
+                }
+            }
+            System.out.println(summary);
+            System.exit(summary.invalid() == 0 ? 0 : 2);
+        } catch (IOException | IllegalArgumentException excp) {
+            System.err.printf("Could not check %s: %s%n", args[0],
+                    excp.getMessage());
+            System.exit(1);
+        }
+    }
+
+    /**
+     * Return true iff the file NAME starts as a GameArchive does.
+     */
+    static boolean isArchive(String name) throws IOException {
+        try (DataInputStream file =
+                 new DataInputStream(new FileInputStream(name))) {
+            return file.readInt() == GameArchive.MAGIC;
+        } catch (EOFException excp) {
+            return false;
+        }
+    }
+
+    /**
+     * Check the games of ARCHIVE, reporting the invalid ones on REPORT.
+     * Return a summary.
+     */
+    Summary validate(GameArchive archive, PrintStream report) {
+        Iterator<Integer> games = new Iterator<Integer>() {
+            private int _next;
+
+            @Override
+            public boolean hasNext() {
+                return _next < archive.size();
+            }
+
+            @Override
+            public Integer next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                _next += 1;
+                return _next - 1;
+            }
+        };
+        return validate(games, archive::moves,
+                        game -> archive.moves(game).stream()
+                            .map(Move::toString)
+                            .collect(Collectors.toList()),
+                        report);
+    }
+
+    /**
+     * Check the games read from INPUT, one per line, reporting the
+     * invalid ones on REPORT.  Return a summary.
+     */
+    Summary validate(BufferedReader input, PrintStream report)
+        throws IOException {
+        Iterator<String> lines = new Iterator<String>() {
+            private String _next;
+            private final Matcher _comment = COMMENT.matcher("");
+
+            @Override
+            public boolean hasNext() {
+                try {
+                    while (_next == null) {
+                        String line = input.readLine();
+                        if (line == null) {
+                            return false;
+                        }
+                        line = _comment.reset(line).replaceFirst("").trim();
+                        if (!line.isEmpty()) {
+                            _next = line;
+                        }
+                    }
+                    return true;
+                } catch (IOException excp) {
+                    throw new UncheckedIOException(excp);
+                }
+            }
+
+            @Override
+            public String next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                String line = _next;
+                _next = null;
+                return line;
+            }
+        };
+        try {
+            return validate(lines, GameValidator::parse,
+                            GameValidator::words, report);
+        } catch (UncheckedIOException excp) {
+            throw excp.getCause();
+        }
+    }
+
+    /**
+     * Check the games of RECORDS, each of whose moves are given by
+     * MOVES (null for a move that could not be read), and written as
+     * given by WORDS, reporting the invalid ones on REPORT.  Return a
+     * summary.
+     */
+    <T> Summary validate(Iterator<T> records,
+                         Function<T, List<Move>> moves,
+                         Function<T, List<String>> words,
+                         PrintStream report) {
+        long start = System.nanoTime();
+        int maxBatches = 2 * _pool.getParallelism();
+        Deque<ForkJoinTask<int[]>> batches = new ArrayDeque<>();
+        Deque<List<T>> pendingRecords = new ArrayDeque<>();
+        long games = 0, invalid = 0, plies = 0;
+        int first = 0;
+        while (records.hasNext() || !batches.isEmpty()) {
+            while (records.hasNext() && batches.size() < maxBatches) {
+                List<T> batch = new ArrayList<>(BATCH);
+                while (records.hasNext() && batch.size() < BATCH) {
+                    batch.add(records.next());
+                }
+                pendingRecords.add(batch);
+                batches.add(_pool.submit(() -> check(batch, moves)));
+            }
+            int[] results = batches.remove().join();
+            List<T> batch = pendingRecords.remove();
+            for (int i = 0; i < batch.size(); i += 1) {
+                games += 1;
+                plies += results[2 * i + 1];
+                if (results[2 * i] >= 0) {
+                    invalid += 1;
+                    int ply = results[2 * i];
+                    Move move = moves.apply(batch.get(i)).get(ply);
+                    String word = move == null
+                        ? words.apply(batch.get(i)).get(ply).toLowerCase()
+                        : move.toString();
+                    report.printf("game %d ply %d: %s%n", first + i, ply,
+                                  Move.isGrammaticalMove(word)
+                                  ? "illegal move " + word
+                                  : "unreadable move");
+                }
+            }
+            first += batch.size();
+        }
+        return new Summary(games, invalid, plies,
+                           (System.nanoTime() - start) / 1000000);
+    }
+
+    /**
+     * Return, for each game of BATCH, whose moves are given by MOVES,
+     * the number of its first illegal ply (or -1 if none) followed by
+     * the number of plies checked.  To be run by my pool.
+     */
+    private <T> int[] check(List<T> batch, Function<T, List<Move>> moves) {
+        Board board = _boards.get();
+        int[] results = new int[2 * batch.size()];
+        for (int i = 0; i < batch.size(); i += 1) {
+            board.init();
+            results[2 * i] = -1;
+            int ply = 0;
+            for (Move move : moves.apply(batch.get(i))) {
+                if (move == null || !board.isLegal(move)) {
+                    results[2 * i] = ply;
+                    break;
+                }
+                board.makeMove(move);
+                ply += 1;
+            }
+            results[2 * i + 1] = ply;
+        }
+        return results;
+    }
+
+    /**
+     * Return the moves of the game on LINE, null standing for text that
+     * is not a move.
+     */
+    static List<Move> parse(String line) {
+        List<Move> result = new ArrayList<>();
+        for (String word : words(line)) {
+            result.add(Move.mv(word.toLowerCase()));
+        }
+        return result;
+    }
+
+    /**
+     * Return the words of the game on LINE, one per move.
+     */
+    static List<String> words(String line) {
+        if (line.isEmpty()) {
+            return Collections.emptyList();
+        }
+        return Arrays.asList(SEPARATOR.split(line));
+    }
+
+    /**
+     * The outcome of checking a stream of games.
+     */
+    static final class Summary {
+        /**
+         * The number of games, of invalid games, and of legal moves.
+         */
+        private final long _games, _invalid, _plies;
+        /**
+         * The time taken, in milliseconds.
+         */
+        private final long _millis;
+
+        /**
+         * A summary of checking GAMES games, INVALID of them invalid,
+         * finding PLIES legal moves, in MILLIS milliseconds.
+         */
+        Summary(long games, long invalid, long plies, long millis) {
+            _games = games;
+            _invalid = invalid;
+            _plies = plies;
+            _millis = millis;
+        }
+
+        /**
+         * Return the number of games checked.
+         */
+        long games() {
+            return _games;
+        }
+
+        /**
+         * Return the number of games with an illegal move.
+         */
+        long invalid() {
+            return _invalid;
+        }
+
+        /**
+         * Return the number of legal moves found.
+         */
+        long plies() {
+            return _plies;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%d games, %d invalid, %d moves in %d ms"
+                    + " (%d moves/s)", _games, _invalid, _plies, _millis,
+                    _plies * 1000 / Math.max(1, _millis));
+        }
+    }
+}
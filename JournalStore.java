@@ -0,0 +1,265 @@
+package amazons;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import static amazons.Utils.error;
+
+/**
+ * A directory of GameJournals, one file per game session, with group
+ * commit.  Recording in a journal only marks it changed; a committer
+ * thread of mine repeatedly takes every journal changed since its last
+ * batch, writes their new records, and forces them to disk.  Records
+ * that arrive while a batch is being written go into the next one, so
+ * that the more games are busy, the more records each batch carries,
+ * and no game ever waits for the disk.  A record is thus durable soon
+ * after it is made, but not at once: a crash may lose the records of
+ * the batch in progress, and recovery cuts them off.
+ *
+ * <p>After a restart, recover() rebuilds every game whose journal was
+ * never discarded, that is, every game still in progress.
+ *
+ * @author Shichao Han
+ */
+final class JournalStore implements AutoCloseable {
+
+    /**
+     * The names of journal files, whose first group is the game number.
+     */
+    private static final Pattern FILE_NAME =
+        Pattern.compile("game-(\\d+)\\.journal");
+
+    /**
+     * My directory.
+     */
+    private final File _dir;
+    /**
+     * True iff batches are forced to disk, rather than left to the
+     * operating system.
+     */
+    private final boolean _force;
+    /**
+     * My open journals, by game number.
+     */
+    private final Map<Integer, GameJournal> _open = new ConcurrentHashMap<>();
+    /**
+     * The journals changed since the current batch was taken.
+     */
+    private Set<GameJournal> _changed = new LinkedHashSet<>();
+    /**
+     * The number of batches committed so far.
+     */
+    private long _batches;
+    /**
+     * The first failure to commit a batch, if any.
+     */
+    private IOException _failure;
+    /**
+     * True once I have been closed.
+     */
+    private boolean _closed;
+    /**
+     * Held while a batch is taken and committed.
+     */
+    private final Object _committing = new Object();
+    /**
+     * Commits my batches.
+     */
+    private final Thread _committer;
+
+    /**
+     * A store keeping its journals in directory DIR, which is created if
+     * need be, and forcing every batch to disk.
+     */
+    JournalStore(File dir) throws IOException {
+        this(dir, true);
+    }
+
+    /**
+     * A store keeping its journals in directory DIR, which is created if
+     * need be, and forcing every batch to disk iff FORCE.
+     */
+    JournalStore(File dir, boolean force) throws IOException {
+        if (!dir.isDirectory() && !dir.mkdirs()) {
+            throw new IOException("cannot create " + dir);
+        }
+        _dir = dir;
+        _force = force;
+        _committer = new Thread(this::commitLoop, "journal");
+        _committer.setDaemon(true);
+        _committer.start();
+    }
+
+    /**
+     * Return the journals of all games in progress, by rebuilding each
+     * from its file, in order of game number.
+     */
+    List<GameJournal> recover() throws IOException {
+        List<GameJournal> result = new ArrayList<>();
+        String[] names = _dir.list();
+        if (names == null) {
+            throw new IOException("cannot read " + _dir);
+        }
+        Matcher mat = FILE_NAME.matcher("");
+        List<Integer> ids = new ArrayList<>();
+        for (String name : names) {
+            if (mat.reset(name).matches()) {
+                ids.add(Integer.parseInt(mat.group(1)));
+            }
+        }
+        ids.sort(null);
+        for (int id : ids) {
+            GameJournal journal = new GameJournal(this, id, file(id));
+            if (journal.recover()) {
+                _open.put(id, journal);
+                result.add(journal);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Return a new, empty journal for game number ID, which must not be
+     * open already.
+     */
+    GameJournal open(int id) {
+        GameJournal journal = new GameJournal(this, id, file(id));
+        if (_open.putIfAbsent(id, journal) != null) {
+            throw error("game %d already has a journal", id);
+        }
+        return journal;
+    }
+
+    /**
+     * Write and force every uncommitted record now, in the calling
+     * thread, throwing the first failure to commit so far, if any.
+     */
+    void sync() throws IOException {
+        synchronized (_committing) {
+            commit(takeChanged());
+        }
+        synchronized (this) {
+            if (_failure != null) {
+                throw _failure;
+            }
+        }
+    }
+
+    /**
+     * Return the number of batches committed so far.
+     */
+    synchronized long batches() {
+        return _batches;
+    }
+
+    /**
+     * Commit every uncommitted record and close every journal, leaving
+     * their games to be recovered.
+     */
+    @Override
+    public void close() throws IOException {
+        synchronized (this) {
+            _closed = true;
+            notifyAll();
+        }
+        try {
+            _committer.join();
+        } catch (InterruptedException excp) {
+            Thread.currentThread().interrupt();
+        }
+        try {
+            sync();
+        } finally {
+            for (GameJournal journal : _open.values()) {
+                journal.close();
+            }
+        }
+    }
+
+    /**
+     * Note that JOURNAL has uncommitted records.  Called by JOURNAL.
+     */
+    synchronized void changed(GameJournal journal) {
+        if (_changed.add(journal) && _changed.size() == 1) {
+            notifyAll();
+        }
+    }
+
+    /**
+     * Forget JOURNAL, which has been discarded.  Called by JOURNAL.
+     */
+    void forget(GameJournal journal) {
+        _open.remove(journal.id(), journal);
+    }
+
+    /**
+     * Return the file of the journal of game number ID.
+     */
+    private File file(int id) {
+        return new File(_dir, String.format("game-%d.journal", id));
+    }
+
+    /**
+     * Commit batches until I am closed.
+     */
+    private void commitLoop() {
+        while (true) {
+            synchronized (this) {
+                while (_changed.isEmpty() && !_closed) {
+                    try {
+                        wait();
+                    } catch (InterruptedException excp) {
+                        return;
+                    }
+                }
+                if (_closed) {
+                    return;
+                }
+            }
+            synchronized (_committing) {
+                commit(takeChanged());
+            }
+        }
+    }
+
+    /**
+     * Return the journals changed since the last batch was taken,
+     * starting a new batch.
+     */
+    private synchronized Set<GameJournal> takeChanged() {
+        Set<GameJournal> batch = _changed;
+        _changed = new LinkedHashSet<>();
+        return batch;
+    }
+
+    /**
+     * Commit the records of every journal in BATCH, noting the first
+     * failure.
+     */
+    private void commit(Set<GameJournal> batch) {
+        for (GameJournal journal : batch) {
+            try {
+                journal.commit(_force);
+            } catch (IOException excp) {
+                synchronized (this) {
+                    if (_failure == null) {
+                        _failure = excp;
+                    }
+                }
+            }
+        }
+        if (!batch.isEmpty()) {
+            synchronized (this) {
+                _batches += 1;
+            }
+        }
+    }
+}
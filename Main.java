@@ -2,9 +2,12 @@ package amazons;
 
 import ucb.util.CommandArgs;
 
+import java.io.BufferedReader;
+import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InputStreamReader;
 import java.io.PrintStream;
 import java.util.List;
 
@@ -18,18 +21,49 @@ import static amazons.Utils.error;
 public class Main {
 
     /**
-     * The main program.  ARGS may contain the option --display.
+     * The main program.  ARGS may contain the option --display, or
+     * --engine to serve the engine protocol instead of playing, or
+     * --server=PORT to host games over TCP, or --selfplay=GAMES to play
+     * a match between two engines (see Tournament).
      */
     public static void main(String... args) {
 
         CommandArgs options =
-                new CommandArgs("--display --log={0,1} --={0,2}", args);
+                new CommandArgs("--display --engine --server={0,1}"
+                                + " --simul={0,1} --journal={0,1}"
+                                + " --log={0,1} --selfplay={0,1}"
+                                + " --challenger={0,1} --baseline={0,1}"
+                                + " --random={0,1} --seed={0,1}"
+                                + " --={0,2}",
+                                args);
         if (!options.ok()) {
             System.err.println("Usage: java amazons.Main [--display]"
                     + " [--log=FILE] [INPUT [OUTPUT]]");
+            System.err.println("   or: java amazons.Main --engine");
+            System.err.println("   or: java amazons.Main --server=PORT"
+                    + " [--simul=GAMES] [--journal=DIR]");
+            System.err.println("   or: java amazons.Main --selfplay=GAMES"
+                    + " [--challenger=SPEC] [--baseline=SPEC]");
+            System.err.println("           [--random=PLIES] [--seed=SEED]"
+                    + " [--simul=GAMES]");
             System.exit(1);
         }
 
+        if (options.contains("--engine")) {
+            runEngine();
+        }
+        if (options.contains("--server")) {
+            runServer(options.getFirst("--server"),
+                      options.contains("--simul")
+                      ? options.getFirst("--simul") : "0",
+                      options.contains("--journal")
+                      ? options.getFirst("--journal") : null);
+        }
+
+        if (options.contains("--selfplay")) {
+            runTournament(options);
+        }
+
         List<String> files = options.get("--");
         if (!files.isEmpty()) {
             try {
@@ -58,6 +92,89 @@ public class Main {
 
     }
 
+    /**
+     * Serve the engine protocol (see EngineProtocol) on the standard
+     * input and output, and exit.
+     */
+    private static void runEngine() {
+        BufferedReader input =
+                new BufferedReader(new InputStreamReader(System.in));
+        PrintStream output = new PrintStream(System.out, true);
+        try {
+            new EngineProtocol(input, output).run();
+            System.exit(0);
+        } catch (IOException excp) {
+            System.err.printf("Could not read input: %s%n",
+                    excp.getMessage());
+            System.exit(1);
+        }
+    }
+
+    /**
+     * Serve at most GAMES games at once (any number if "0"; see
+     * GameServer) on the loopback port whose number is PORT until
+     * killed, journaling them in directory JOURNAL unless it is null.
+     */
+    private static void runServer(String port, String games,
+                                  String journal) {
+        try (GameServer server = new GameServer(Integer.parseInt(port),
+                Runtime.getRuntime().availableProcessors(),
+                Integer.parseInt(games),
+                journal == null ? null : new File(journal))) {
+            if (!server.recovered().isEmpty()) {
+                System.out.printf("Recovered games %s%n",
+                                  server.recovered());
+            }
+            System.out.printf("Serving games on port %d%n", server.port());
+            server.serve();
+        } catch (NumberFormatException excp) {
+            System.err.printf("Bad port or number of games: %s %s%n",
+                    port, games);
+            System.exit(1);
+        } catch (IOException excp) {
+            System.err.printf("Could not serve: %s%n", excp.getMessage());
+            System.exit(1);
+        }
+        System.exit(0);
+    }
+
+    /**
+     * Play a match between two engines as directed by OPTIONS, printing
+     * only its progress and result, and exit.  The match plays
+     * --selfplay games, --simul of them at once (by default, one per
+     * processor), the engines having the settings --challenger and
+     * --baseline (see Tournament.engine), each game opening with
+     * --random random plies, seeded from --seed (by default, from the
+     * clock).
+     */
+    private static void runTournament(CommandArgs options) {
+        try {
+            int games = Integer.parseInt(options.getFirst("--selfplay"));
+            int simul = options.contains("--simul")
+                ? Integer.parseInt(options.getFirst("--simul"))
+                : Runtime.getRuntime().availableProcessors();
+            int randomPlies = options.contains("--random")
+                ? Integer.parseInt(options.getFirst("--random"))
+                : Tournament.DEFAULT_RANDOM_PLIES;
+            long seed = options.contains("--seed")
+                ? Long.parseLong(options.getFirst("--seed"))
+                : System.currentTimeMillis();
+            Tournament match = new Tournament(
+                Tournament.engine(options.getFirst("--challenger")),
+                Tournament.engine(options.getFirst("--baseline")),
+                randomPlies, seed, Tournament.DEFAULT_ELO);
+            System.out.printf("Seed %d%n", seed);
+            System.out.println(match.run(games, simul, System.out));
+        } catch (NumberFormatException excp) {
+            System.err.printf("Bad number: %s%n", excp.getMessage());
+            System.exit(1);
+        } catch (IllegalArgumentException excp) {
+            System.err.println(excp.getMessage());
+            System.exit(1);
+        }
+        System.exit(0);
+    }
+
     /**
      * Return an appropriate Controller as indicated by OPTIONS.
      */
@@ -77,7 +194,8 @@ public class Main {
         } else {
             gui = null;
             reporter = new TextReporter();
-            manualPlayer = new TextPlayer();
+            manualPlayer = new TextPlayer(options.get("--").isEmpty()
+                    && System.console() != null);
             view = new NullView();
         }
         log = null;
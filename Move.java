@@ -10,7 +10,8 @@ import static amazons.Square.sq;
  * A move in the game of Amazons. As for Squares, Moves are immutable
  * and unique: there is only one move object for each possible move
  * (generated by the factory method  mv, the constructor being private).
- * As for Squares, you can freely use == to compare Moves.
+ * As for Squares, you can freely use == to compare Moves.  The factory
+ * methods may be called from several threads at once.
  *
  * @author P. N. Hilfinger
  */
@@ -29,10 +30,6 @@ final class Move {
      * The cache of all Moves created.
      */
     private static final Move[][][] MOVES = new Move[100][100][100];
-    /**
-     * A utility Matcher for moves, using MOVE_PATTERN.
-     */
-    private static Matcher _moveMatcher = MOVE_PATTERN.matcher("");
     /**
      * The components of a Move.
      */
@@ -40,7 +37,7 @@ final class Move {
     /**
      * The printed form of a Move.
      */
-    private String _str;
+    private final String _str;
 
     /**
      * Construct the Move FROM-TO(SPEAR).
@@ -56,11 +53,17 @@ final class Move {
      * Return the unique Move FROM-TO(SPEAR).
      */
     static Move mv(Square from, Square to, Square spear) {
-        if (MOVES[from.index()][to.index()][spear.index()] == null) {
-            MOVES[from.index()][to.index()][spear.index()] =
-                    new Move(from, to, spear);
+        Move result = MOVES[from.index()][to.index()][spear.index()];
+        if (result != null) {
+            return result;
+        }
+        synchronized (MOVES) {
+            if (MOVES[from.index()][to.index()][spear.index()] == null) {
+                MOVES[from.index()][to.index()][spear.index()] =
+                        new Move(from, to, spear);
+            }
+            return MOVES[from.index()][to.index()][spear.index()];
         }
-        return MOVES[from.index()][to.index()][spear.index()];
     }
 
     /**
@@ -69,12 +72,12 @@ final class Move {
      * queen moves, and null otherwise.
      */
     static Move mv(String str) {
-        _moveMatcher.reset(str);
-        if (_moveMatcher.matches()) {
-            int k = _moveMatcher.group(1) != null ? 1 : 4;
-            Square from = sq(_moveMatcher.group(k)),
-                    to = sq(_moveMatcher.group(k + 1)),
-                    spear = sq(_moveMatcher.group(k + 2));
+        Matcher moveMatcher = MOVE_PATTERN.matcher(str);
+        if (moveMatcher.matches()) {
+            int k = moveMatcher.group(1) != null ? 1 : 4;
+            Square from = sq(moveMatcher.group(k)),
+                    to = sq(moveMatcher.group(k + 1)),
+                    spear = sq(moveMatcher.group(k + 2));
             if (from.isQueenMove(to) && to.isQueenMove(spear)) {
                 return mv(from, to, spear);
             }
@@ -87,8 +90,7 @@ final class Move {
      * its piece-move and spear-throw are valid queen moves.
      */
     static boolean isGrammaticalMove(String str) {
-        _moveMatcher.reset(str);
-        return _moveMatcher.matches();
+        return MOVE_PATTERN.matcher(str).matches();
     }
 
     /**
@@ -112,6 +114,15 @@ final class Move {
         return _spear;
     }
 
+    /**
+     * Return my image under symmetry SYM (see Square.SYMMETRIES), which
+     * is legal in the image of any position in which I am legal.
+     */
+    Move transform(int sym) {
+        return mv(_from.transform(sym), _to.transform(sym),
+                _spear.transform(sym));
+    }
+
     @Override
     public String toString() {
         return _str;
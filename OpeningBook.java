@@ -0,0 +1,250 @@
+package amazons;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+
+import static amazons.Utils.error;
+
+/**
+ * A read-only opening book, as written by BookGenerator: for each of a
+ * set of early positions, the move that a deep search chose there and
+ * its value.  Early in the game our search is shallow, yet every root
+ * move must still be scored, so answering from the book is both faster
+ * and stronger.
+ *
+ * <p>Entries are keyed by the canonical hash of the position (see
+ * Board.canonicalHash()), so one entry serves a position and all its
+ * mirror images, and its move is stored as played in the canonical
+ * orientation.  Entries are sorted by key, so a lookup is a binary
+ * search over the file, which we map into memory rather than read.
+ * The layout is a header of HEADER_INTS ints (MAGIC, VERSION, and the
+ * entry count), followed by entries of ENTRY_BYTES bytes: the key (a
+ * long), the move (an int, as from encode), and the value (an int,
+ * positive values favoring White).
+ *
+ * @author Shichao Han
+ */
+final class OpeningBook {
+
+    /**
+     * The first int of every book file.
+     */
+    static final int MAGIC = 0x414d4f42;
+    /**
+     * The format version written by this code.
+     */
+    static final int VERSION = 2;
+    /**
+     * The number of ints in a file header.
+     */
+    static final int HEADER_INTS = 3;
+    /**
+     * The number of bytes in an entry.
+     */
+    static final int ENTRY_BYTES = Long.BYTES + 2 * Integer.BYTES;
+    /**
+     * The file consulted by standard(), unless the system property
+     * amazons.book names another.
+     */
+    private static final String DEFAULT_FILE = "amazons.book";
+
+    /**
+     * The mapped contents of the file.
+     */
+    private final ByteBuffer _data;
+    /**
+     * The number of entries.
+     */
+    private final int _count;
+
+    /**
+     * A book whose contents are DATA.
+     */
+    private OpeningBook(ByteBuffer data) {
+        _data = data;
+        if (data.capacity() < HEADER_INTS * Integer.BYTES
+                || data.getInt(0) != MAGIC
+                || data.getInt(Integer.BYTES) != VERSION) {
+            throw error("not an opening book file");
+        }
+        _count = data.getInt(2 * Integer.BYTES);
+        if (data.capacity() < offset(_count)) {
+            throw error("truncated opening book file");
+        }
+    }
+
+    /**
+     * Return the book in the file NAME, mapped read-only.
+     */
+    static OpeningBook open(String name) throws IOException {
+        try (RandomAccessFile file = new RandomAccessFile(name, "r")) {
+            MappedByteBuffer data =
+                    file.getChannel().map(FileChannel.MapMode.READ_ONLY, 0,
+                            file.length());
+            return new OpeningBook(data);
+        }
+    }
+
+    /**
+     * Return the book shared by all players in this program, or null if
+     * its file does not exist or cannot be read.
+     */
+    static OpeningBook standard() {
+        return Standard.BOOK;
+    }
+
+    /**
+     * Return the number of positions in me.
+     */
+    int size() {
+        return _count;
+    }
+
+    /**
+     * Return my move for the position on BOARD, or null if I have none
+     * (or if my move is not legal there, as when two positions share a
+     * hash).
+     */
+    Move lookup(Board board) {
+        int i = find(board.canonicalHash());
+        if (i < 0) {
+            return null;
+        }
+        Move move = decode(_data.getInt(offset(i) + Long.BYTES));
+        if (move == null) {
+            return null;
+        }
+        move = move.transform(Square.inverse(board.canonicalSymmetry()));
+        return board.isLegal(move) ? move : null;
+    }
+
+    /**
+     * Return the value of my move for the position on BOARD, as stored
+     * with it, or 0 if I have none.
+     */
+    int value(Board board) {
+        int i = find(board.canonicalHash());
+        if (i < 0) {
+            return 0;
+        }
+        return _data.getInt(offset(i) + Long.BYTES + Integer.BYTES);
+    }
+
+    /**
+     * Return the index of the entry with key KEY, or -1 if there is
+     * none.
+     */
+    private int find(long key) {
+        int low = 0, high = _count - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            long probe = _data.getLong(offset(mid));
+            if (probe < key) {
+                low = mid + 1;
+            } else if (probe > key) {
+                high = mid - 1;
+            } else {
+                return mid;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Return the byte offset of entry I.
+     */
+    private static int offset(int i) {
+        return HEADER_INTS * Integer.BYTES + i * ENTRY_BYTES;
+    }
+
+    /**
+     * Return MOVE encoded as an int: its from, to, and spear square
+     * indices, one per byte.
+     */
+    static int encode(Move move) {
+        return move.from().index() << 16 | move.to().index() << 8
+                | move.spear().index();
+    }
+
+    /**
+     * Return the move encoded as CODE by encode, or null if CODE does
+     * not denote a move.
+     */
+    static Move decode(int code) {
+        int from = code >>> 16 & 0xff, to = code >>> 8 & 0xff,
+            spear = code & 0xff;
+        int squares = Board.SIZE * Board.SIZE;
+        if (from >= squares || to >= squares || spear >= squares) {
+            return null;
+        }
+        Square f = Square.sq(from), t = Square.sq(to), s = Square.sq(spear);
+        if (!f.isQueenMove(t) || !t.isQueenMove(s)) {
+            return null;
+        }
+        return Move.mv(f, t, s);
+    }
+
+    /**
+     * Write a book to the file NAME, with the moves MOVES[i] and values
+     * VALUES[i] for the positions whose canonical hashes are KEYS[i].
+     * Each move must be given as played in the canonical orientation
+     * of its position (see Board.canonicalSymmetry()).
+     */
+    static void write(String name, long[] keys, Move[] moves, int[] values)
+        throws IOException {
+        Integer[] order = new Integer[keys.length];
+        for (int i = 0; i < order.length; i += 1) {
+            order[i] = i;
+        }
+        Arrays.sort(order, (i, j) -> Long.compare(keys[i], keys[j]));
+        new File(name).delete();
+        try (RandomAccessFile file = new RandomAccessFile(name, "rw")) {
+            MappedByteBuffer data =
+                    file.getChannel().map(FileChannel.MapMode.READ_WRITE, 0,
+                            offset(keys.length));
+            data.putInt(0, MAGIC);
+            data.putInt(Integer.BYTES, VERSION);
+            data.putInt(2 * Integer.BYTES, keys.length);
+            for (int i = 0; i < order.length; i += 1) {
+                int k = order[i];
+                data.putLong(offset(i), keys[k]);
+                data.putInt(offset(i) + Long.BYTES, encode(moves[k]));
+                data.putInt(offset(i) + Long.BYTES + Integer.BYTES,
+                        values[k]);
+            }
+            data.force();
+        }
+    }
+
+    /**
+     * Holder for the shared book, opened when first needed.
+     */
+    private static final class Standard {
+        /**
+         * The shared book, or null.
+         */
+        static final OpeningBook BOOK = load();
+
+        /**
+         * Return the book in the standard file, or null.
+         */
+        private static OpeningBook load() {
+            String name = System.getProperty("amazons.book", DEFAULT_FILE);
+            if (!new File(name).isFile()) {
+                return null;
+            }
+            try {
+                return open(name);
+            } catch (IOException | IllegalArgumentException excp) {
+                System.err.printf("Ignoring opening book %s: %s%n", name,
+                        excp.getMessage());
+                return null;
+            }
+        }
+    }
+}
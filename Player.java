@@ -54,4 +54,53 @@ abstract class Player {
      * is not null.
      */
     abstract String myMove();
+
+    /**
+     * Return a command for my move in POSITION, as for myMove, but
+     * without reporting the move, so that the caller can report it
+     * when it is made.  POSITION is my own copy of the board, which no
+     * other thread changes, so automated players may call this on any
+     * thread.  By default, returns myMove().
+     */
+    String myMove(Board position) {
+        return myMove();
+    }
+
+    /**
+     * Return true iff my commands come from a person as they type them,
+     * so that my input may be read while the other player is thinking.
+     */
+    boolean isInteractive() {
+        return false;
+    }
+
+    /**
+     * Stop choosing a move as soon as possible, if I am doing so on
+     * another thread.  Does nothing unless overridden.
+     */
+    void cancel() {
+    }
+
+    /**
+     * Return true iff my moves are chosen by the program rather than
+     * by a person.
+     */
+    boolean isAutomated() {
+        return false;
+    }
+
+    /**
+     * Begin using idle time, while my opponent chooses a move in the
+     * current position, to prepare my own reply.  Does nothing unless
+     * overridden.
+     */
+    void startPondering() {
+    }
+
+    /**
+     * Stop any work begun by startPondering, returning once it has
+     * stopped.
+     */
+    void stopPondering() {
+    }
 }
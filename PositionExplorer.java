@@ -0,0 +1,83 @@
+package amazons;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * The offline browser of a GameArchive through its PositionIndex.  The
+ * command "index" builds the index of ARCHIVE and writes it to INDEX.
+ * The commands "lookup" and "explore" open INDEX (building and writing
+ * it first if it does not exist), play MOVEs from the initial
+ * position, and print the places in the archive's games where the
+ * resulting position occurs, as GAME:PLY, or the moves played from it,
+ * most often played first, with the number of games and of those won
+ * by White (+) and by Black (-).
+ *
+ * <p>Usage: java amazons.PositionExplorer index ARCHIVE INDEX, or
+ * java amazons.PositionExplorer lookup|explore ARCHIVE INDEX MOVE....
+ *
+ * @author Shichao Han
+ */
+public class PositionExplorer {
+
+    /**
+     * Not instantiable.
+     */
+    private PositionExplorer() {
+    }
+
+    /**
+     * Browse an archive as directed by ARGS (see the class comment).
+     */
+    public static void main(String... args) {
+        if (args.length < 3 || !args[0].matches("index|lookup|explore")
+                || args[0].equals("index") && args.length > 3) {
+            System.err.println("Usage: java amazons.PositionExplorer"
+                    + " index ARCHIVE INDEX, or"
+                    + " lookup|explore ARCHIVE INDEX MOVE...");
+            System.exit(1);
+        }
+        try {
+            GameArchive archive = GameArchive.open(args[1]);
+            PositionIndex index;
+            if (args[0].equals("index") || !new File(args[2]).isFile()) {
+                index = new PositionIndex(archive);
+                index.write(args[2]);
+                System.out.printf("Wrote %d positions to %s%n",
+                                  index.size(), args[2]);
+            } else {
+                index = PositionIndex.open(args[2], archive);
+            }
+            if (args[0].equals("index")) {
+                return;
+            }
+            Board position = new Board();
+            for (int i = 3; i < args.length; i += 1) {
+                Move move = Move.mv(args[i]);
+                if (move == null || !position.isLegal(move)) {
+                    System.err.printf("Illegal move: %s%n", args[i]);
+                    System.exit(1);
+                }
+                position.makeMove(move);
+            }
+            if (args[0].equals("lookup")) {
+                List<PositionIndex.Occurrence> places =
+                    index.lookup(position);
+                System.out.printf("%d occurrences%n", places.size());
+                for (PositionIndex.Occurrence where : places) {
+                    System.out.println(where);
+                }
+            } else {
+                for (PositionIndex.MoveStats stats
+                         : index.explore(position)) {
+                    System.out.println(stats);
+                }
+            }
+        } catch (IOException | IllegalArgumentException excp) {
+            System.err.printf("Could not explore %s: %s%n", args[1],
+                    excp.getMessage());
+            System.exit(1);
+        }
+    }
+}
@@ -0,0 +1,561 @@
+package amazons;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.LongBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.RecursiveAction;
+import java.util.stream.IntStream;
+
+import static amazons.Piece.BLACK;
+import static amazons.Piece.WHITE;
+import static amazons.Utils.error;
+
+/**
+ * An index of the positions reached in the games of a GameArchive:
+ * given a position, it finds at once every game and ply at which the
+ * position occurs, and the moves played from it, with how often each
+ * was played and how the games went on.  The index is two arrays of
+ * primitives in step, one of the hashes of every position of every
+ * game, sorted, and one of the places where each occurs, so that a
+ * lookup is a binary search.  A place is numbered by counting the
+ * positions of all earlier games (each game having one more position
+ * than moves), and the first place of each game is kept, so that the
+ * game and ply of a place are another binary search away.
+ *
+ * <p>Positions are identified by their hashes (see Board.hash()), so
+ * two positions reached by different orders of moves are one.  As in
+ * the transposition table, two positions with the same hash are
+ * assumed to be the same.  The index is built in parallel: the games
+ * are replayed by the threads of the common fork-join pool, and then
+ * sorted by a parallel quicksort.
+ *
+ * <p>An index may be written to a file and opened again for the same
+ * archive, mapped into memory like the archive itself, so that it is
+ * built once.  The layout is a header of HEADER_INTS ints (MAGIC,
+ * VERSION, the number of games, and the number of places), followed by
+ * the sorted keys, as longs, the first place of each game and the
+ * number of places, as ints, and the places in step with the keys, as
+ * ints.  A file must be smaller than 2GB, the limit of one mapping.
+ *
+ * @author Shichao Han
+ */
+final class PositionIndex {
+
+    /**
+     * The first int of every index file.
+     */
+    static final int MAGIC = 0x414d5049;
+    /**
+     * The format version written by this code.
+     */
+    static final int VERSION = 1;
+    /**
+     * The number of ints in a file header.
+     */
+    static final int HEADER_INTS = 4;
+
+    /**
+     * The size of a range of entries sorted by one task.
+     */
+    private static final int SORT_THRESHOLD = 1 << 13;
+    /**
+     * The size of a range of entries sorted by insertion sort.
+     */
+    private static final int INSERTION_THRESHOLD = 16;
+
+    /**
+     * The archive indexed.
+     */
+    private final GameArchive _archive;
+    /**
+     * The place of the first position of each game, and the number of
+     * places at the end.
+     */
+    private final IntBuffer _firsts;
+    /**
+     * The hashes of the positions, in increasing order.
+     */
+    private final LongBuffer _keys;
+    /**
+     * The place where the position whose hash is _keys.get(i) occurs is
+     * _places.get(i).
+     */
+    private final IntBuffer _places;
+
+    /**
+     * An index of the positions of the games of ARCHIVE.
+     */
+    PositionIndex(GameArchive archive) {
+        _archive = archive;
+        int games = archive.size();
+        int[] firsts = new int[games + 1];
+        long count = 0;
+        for (int g = 0; g < games; g += 1) {
+            firsts[g] = (int) count;
+            count += archive.length(g) + 1;
+            if (count > Integer.MAX_VALUE) {
+                throw error("too many positions to index");
+            }
+        }
+        firsts[games] = (int) count;
+        long[] keys = new long[(int) count];
+        int[] places = new int[(int) count];
+        IntStream.range(0, games).parallel().forEach(g -> {
+            Board board = new Board();
+            int place = firsts[g];
+            int length = archive.length(g);
+            keys[place] = board.hash();
+            places[place] = place;
+            for (int ply = 0; ply < length; ply += 1) {
+                board.makeMove(archive.move(g, ply));
+                keys[place + ply + 1] = board.hash();
+                places[place + ply + 1] = place + ply + 1;
+            }
+        });
+        new Sorter(keys, places, 0, keys.length - 1).invoke();
+        _firsts = IntBuffer.wrap(firsts);
+        _keys = LongBuffer.wrap(keys);
+        _places = IntBuffer.wrap(places);
+    }
+
+    /**
+     * An index of the positions of the games of ARCHIVE, whose
+     * contents, as written by write, are DATA.
+     */
+    private PositionIndex(GameArchive archive, ByteBuffer data) {
+        _archive = archive;
+        if (data.capacity() < HEADER_INTS * Integer.BYTES
+                || data.getInt(0) != MAGIC
+                || data.getInt(Integer.BYTES) != VERSION) {
+            throw error("not a position index file");
+        }
+        int games = data.getInt(2 * Integer.BYTES);
+        int count = data.getInt(3 * Integer.BYTES);
+        if (games < 0 || count < 0
+                || data.capacity() < fileBytes(games, count)) {
+            throw error("truncated position index file");
+        }
+        _keys = data.slice(keysOffset(), count * Long.BYTES)
+            .asLongBuffer();
+        _firsts = data.slice(firstsOffset(count),
+                             (games + 1) * Integer.BYTES).asIntBuffer();
+        _places = data.slice(placesOffset(games, count),
+                             count * Integer.BYTES).asIntBuffer();
+        if (games != archive.size() || _firsts.get(games) != count) {
+            throw error("position index is not of this archive");
+        }
+    }
+
+    /**
+     * Return the index in the file NAME of the positions of the games
+     * of ARCHIVE, mapped read-only.
+     */
+    static PositionIndex open(String name, GameArchive archive)
+        throws IOException {
+        try (RandomAccessFile file = new RandomAccessFile(name, "r")) {
+            if (file.length() > Integer.MAX_VALUE) {
+                throw error("position index %s is too large to map", name);
+            }
+            return new PositionIndex(archive, file.getChannel().map(
+                    FileChannel.MapMode.READ_ONLY, 0, file.length()));
+        }
+    }
+
+    /**
+     * Write me to the file NAME, which is replaced if it exists, to be
+     * opened again with my archive.
+     */
+    void write(String name) throws IOException {
+        int games = _firsts.capacity() - 1, count = size();
+        long bytes = fileBytes(games, count);
+        if (bytes > Integer.MAX_VALUE) {
+            throw error("position index too large to write");
+        }
+        new File(name).delete();
+        try (RandomAccessFile file = new RandomAccessFile(name, "rw")) {
+            MappedByteBuffer data =
+                    file.getChannel().map(FileChannel.MapMode.READ_WRITE, 0,
+                            bytes);
+            data.putInt(0, MAGIC);
+            data.putInt(Integer.BYTES, VERSION);
+            data.putInt(2 * Integer.BYTES, games);
+            data.putInt(3 * Integer.BYTES, count);
+            data.slice(keysOffset(), count * Long.BYTES).asLongBuffer()
+                .put(_keys.duplicate().clear());
+            data.slice(firstsOffset(count), (games + 1) * Integer.BYTES)
+                .asIntBuffer().put(_firsts.duplicate().clear());
+            data.slice(placesOffset(games, count), count * Integer.BYTES)
+                .asIntBuffer().put(_places.duplicate().clear());
+            data.force();
+        }
+    }
+
+    /**
+     * Return the archive I index.
+     */
+    GameArchive archive() {
+        return _archive;
+    }
+
+    /**
+     * Return the number of positions in the games I index, counting
+     * each occurrence.
+     */
+    int size() {
+        return _keys.capacity();
+    }
+
+    /**
+     * Return the number of times POSITION occurs in my games.
+     */
+    int count(Board position) {
+        long key = position.hash();
+        return upperBound(key) - lowerBound(key);
+    }
+
+    /**
+     * Return every occurrence of POSITION in my games, in no particular
+     * order.
+     */
+    List<Occurrence> lookup(Board position) {
+        long key = position.hash();
+        int start = lowerBound(key), end = upperBound(key);
+        return new AbstractList<Occurrence>() {
+            @Override
+            public Occurrence get(int k) {
+                if (k < 0 || k >= end - start) {
+                    throw new IndexOutOfBoundsException();
+                }
+                return occurrence(_places.get(start + k));
+            }
+
+            @Override
+            public int size() {
+                return end - start;
+            }
+        };
+    }
+
+    /**
+     * Return the moves played from POSITION in my games, with their
+     * statistics, most often played first.
+     */
+    List<MoveStats> explore(Board position) {
+        Map<Move, MoveStats> stats = new HashMap<>();
+        for (Occurrence where : lookup(position)) {
+            if (where.ply() < _archive.length(where.game())) {
+                Move move = _archive.move(where.game(), where.ply());
+                stats.computeIfAbsent(move, MoveStats::new)
+                    .add(_archive.winner(where.game()));
+            }
+        }
+        List<MoveStats> result = new ArrayList<>(stats.values());
+        result.sort((a, b) -> a.games() != b.games()
+                    ? Integer.compare(b.games(), a.games())
+                    : a.move().toString().compareTo(b.move().toString()));
+        return result;
+    }
+
+    /**
+     * Return the occurrence at PLACE.
+     */
+    private Occurrence occurrence(int place) {
+        int lo = 0, hi = _firsts.capacity() - 1;
+        while (hi - lo > 1) {
+            int mid = (lo + hi) >>> 1;
+            if (_firsts.get(mid) <= place) {
+                lo = mid;
+            } else {
+                hi = mid;
+            }
+        }
+        return new Occurrence(lo, place - _firsts.get(lo));
+    }
+
+    /**
+     * Return the index of the first of my keys not less than KEY.
+     */
+    private int lowerBound(long key) {
+        int lo = 0, hi = size();
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (_keys.get(mid) < key) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        return lo;
+    }
+
+    /**
+     * Return the index of the first of my keys greater than KEY.
+     */
+    private int upperBound(long key) {
+        int lo = 0, hi = size();
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (_keys.get(mid) <= key) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        return lo;
+    }
+
+    /**
+     * Return the offset of the keys in a file.
+     */
+    private static int keysOffset() {
+        return HEADER_INTS * Integer.BYTES;
+    }
+
+    /**
+     * Return the offset of the first places of the games in a file of
+     * COUNT places.
+     */
+    private static int firstsOffset(int count) {
+        return keysOffset() + count * Long.BYTES;
+    }
+
+    /**
+     * Return the offset of the places in a file of GAMES games and
+     * COUNT places.
+     */
+    private static int placesOffset(int games, int count) {
+        return firstsOffset(count) + (games + 1) * Integer.BYTES;
+    }
+
+    /**
+     * Return the size of a file of GAMES games and COUNT places.
+     */
+    private static long fileBytes(int games, int count) {
+        return keysOffset() + (long) count * Long.BYTES
+            + (games + 1L) * Integer.BYTES + (long) count * Integer.BYTES;
+    }
+
+    /**
+     * One place where a position occurs: the position of game number
+     * game() after its first ply() moves.
+     */
+    static final class Occurrence {
+        /**
+         * The game and ply.
+         */
+        private final int _game, _ply;
+
+        /**
+         * The place after PLY moves of game GAME.
+         */
+        Occurrence(int game, int ply) {
+            _game = game;
+            _ply = ply;
+        }
+
+        /**
+         * Return the number of the game.
+         */
+        int game() {
+            return _game;
+        }
+
+        /**
+         * Return the number of moves made in the game before the
+         * position.
+         */
+        int ply() {
+            return _ply;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            return obj instanceof Occurrence
+                && ((Occurrence) obj)._game == _game
+                && ((Occurrence) obj)._ply == _ply;
+        }
+
+        @Override
+        public int hashCode() {
+            return _game * 31 + _ply;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%d:%d", _game, _ply);
+        }
+    }
+
+    /**
+     * How often one move was played from a position, and how the games
+     * in which it was played ended.
+     */
+    static final class MoveStats {
+        /**
+         * The move.
+         */
+        private final Move _move;
+        /**
+         * The number of games in which it was played, and of those won
+         * by White and by Black.
+         */
+        private int _games, _whiteWins, _blackWins;
+
+        /**
+         * Statistics for MOVE, not yet played.
+         */
+        MoveStats(Move move) {
+            _move = move;
+        }
+
+        /**
+         * Count one more game in which my move was played, won by
+         * WINNER (EMPTY if none).
+         */
+        void add(Piece winner) {
+            _games += 1;
+            if (winner == WHITE) {
+                _whiteWins += 1;
+            } else if (winner == BLACK) {
+                _blackWins += 1;
+            }
+        }
+
+        /**
+         * Return my move.
+         */
+        Move move() {
+            return _move;
+        }
+
+        /**
+         * Return the number of games in which my move was played.
+         */
+        int games() {
+            return _games;
+        }
+
+        /**
+         * Return the number of those games that White won.
+         */
+        int whiteWins() {
+            return _whiteWins;
+        }
+
+        /**
+         * Return the number of those games that Black won.
+         */
+        int blackWins() {
+            return _blackWins;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%s %d +%d -%d", _move, _games,
+                                 _whiteWins, _blackWins);
+        }
+    }
+
+    /**
+     * A task sorting a range of keys, with the places in step.
+     */
+    private static final class Sorter extends RecursiveAction {
+        /**
+         * The keys and places.
+         */
+        private final long[] _keys;
+        private final int[] _places;
+        /**
+         * The bounds of my range, inclusive.
+         */
+        private final int _lo, _hi;
+
+        /**
+         * A task sorting KEYS[LO .. HI] (inclusive), with PLACES in
+         * step.
+         */
+        Sorter(long[] keys, int[] places, int lo, int hi) {
+            _keys = keys;
+            _places = places;
+            _lo = lo;
+            _hi = hi;
+        }
+
+        @Override
+        protected void compute() {
+            int lo = _lo, hi = _hi;
+            if (hi - lo < SORT_THRESHOLD) {
+                sort(lo, hi);
+                return;
+            }
+            int split = partition(lo, hi);
+            invokeAll(new Sorter(_keys, _places, lo, split),
+                      new Sorter(_keys, _places, split + 1, hi));
+        }
+
+        /**
+         * Sort my range LO .. HI (inclusive) in this thread.
+         */
+        private void sort(int lo, int hi) {
+            while (hi - lo >= INSERTION_THRESHOLD) {
+                int split = partition(lo, hi);
+                if (split - lo < hi - split) {
+                    sort(lo, split);
+                    lo = split + 1;
+                } else {
+                    sort(split + 1, hi);
+                    hi = split;
+                }
+            }
+            for (int i = lo + 1; i <= hi; i += 1) {
+                long key = _keys[i];
+                int place = _places[i];
+                int j = i - 1;
+                while (j >= lo && _keys[j] > key) {
+                    _keys[j + 1] = _keys[j];
+                    _places[j + 1] = _places[j];
+                    j -= 1;
+                }
+                _keys[j + 1] = key;
+                _places[j + 1] = place;
+            }
+        }
+
+        /**
+         * Partition LO .. HI (inclusive) about the key in its middle, as
+         * in Hoare's scheme, and return the index J such that no key in
+         * LO .. J exceeds any key in J + 1 .. HI, where LO <= J < HI.
+         */
+        private int partition(int lo, int hi) {
+            long pivot = _keys[(lo + hi) >>> 1];
+            int i = lo - 1, j = hi + 1;
+            while (true) {
+                do {
+                    i += 1;
+                } while (_keys[i] < pivot);
+                do {
+                    j -= 1;
+                } while (_keys[j] > pivot);
+                if (i >= j) {
+                    return j;
+                }
+                long key = _keys[i];
+                _keys[i] = _keys[j];
+                _keys[j] = key;
+                int place = _places[i];
+                _places[i] = _places[j];
+                _places[j] = place;
+            }
+        }
+    }
+}
@@ -0,0 +1,321 @@
+package amazons;
+
+import java.io.BufferedReader;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import static amazons.Utils.error;
+import static amazons.Utils.iterable;
+
+/**
+ * A depth-first proof-number (df-pn) search that decides whether the
+ * side to move in a position can force a win.  Unlike alpha-beta with a
+ * heuristic evaluation, it never spends effort telling good positions
+ * from slightly better ones: each node only carries a proof number (how
+ * many leaves must still be shown won) and a disproof number (how many
+ * must be shown lost), and the search always extends the most promising
+ * proof.  A position in which every region is sealed and small enough
+ * to solve exactly counts as a leaf.
+ *
+ * <p>Proof and disproof numbers live in a transposition table of
+ * parallel primitive arrays indexed by Zobrist hash, so transposed
+ * positions share their work and no node objects are ever allocated.
+ *
+ * <p>Usage: java amazons.ProofSearch FILE [NODES], where FILE holds the
+ * moves leading to the position, one per line, in the command syntax.
+ *
+ * @author Shichao Han
+ */
+public class ProofSearch {
+
+    /**
+     * A proof or disproof number standing for infinity: a node whose
+     * proof number is INFINITY is lost for the side to move.
+     */
+    static final int INFINITY = 1 << 30;
+    /**
+     * The default number of transposition-table entries.
+     */
+    static final int DEFAULT_TABLE_SIZE = 1 << 18;
+    /**
+     * The default limit on nodes for the standalone solver.
+     */
+    static final long DEFAULT_NODES = 1000000;
+
+    /**
+     * Transposition table: the hash, proof number, and disproof number
+     * of the position stored in each slot.
+     */
+    private final long[] _keys;
+    /**
+     * Proof numbers, parallel to _keys.
+     */
+    private final int[] _proof;
+    /**
+     * Disproof numbers, parallel to _keys.
+     */
+    private final int[] _disproof;
+    /**
+     * Solver used to score positions in which every region is sealed.
+     */
+    private final RegionSolver _solver;
+    /**
+     * The number of nodes expanded by the current search.
+     */
+    private long _nodes;
+    /**
+     * The most nodes the current search may expand.
+     */
+    private long _maxNodes;
+    /**
+     * The token that may stop the current search early.
+     */
+    private SearchToken _token;
+    /**
+     * The hash of the position given to the current search.
+     */
+    private long _rootHash;
+    /**
+     * The winning move found by the last successful call to prove, or
+     * null.
+     */
+    private Move _winningMove;
+
+    /**
+     * A search with a table of DEFAULT_TABLE_SIZE entries, scoring
+     * sealed positions with SOLVER.
+     */
+    ProofSearch(RegionSolver solver) {
+        this(solver, DEFAULT_TABLE_SIZE);
+    }
+
+    /**
+     * A search with a table of SIZE entries (a power of 2), scoring
+     * sealed positions with SOLVER.
+     */
+    ProofSearch(RegionSolver solver, int size) {
+        _solver = solver;
+        _keys = new long[size];
+        _proof = new int[size];
+        _disproof = new int[size];
+    }
+
+    /**
+     * Try to decide the game from BOARD, expanding at most MAXNODES
+     * nodes.  Return the winner if the search succeeds, and otherwise
+     * null.  BOARD is left as it was.  If the side to move wins, and
+     * BOARD was not already decided without search, winningMove()
+     * returns the first move of the proof.
+     */
+    Piece prove(Board board, long maxNodes) {
+        return prove(board, maxNodes, new SearchToken());
+    }
+
+    /**
+     * As for prove(BOARD, MAXNODES), but giving up early if TOKEN
+     * stops the search, in which case the result is null unless the
+     * position was decided by then.
+     */
+    Piece prove(Board board, long maxNodes, SearchToken token) {
+        _nodes = 0;
+        _maxNodes = maxNodes;
+        _token = token;
+        _winningMove = null;
+        _rootHash = board.hash();
+        search(board, INFINITY, INFINITY);
+        int slot = slot(board.hash());
+        if (_keys[slot] != board.hash()) {
+            return null;
+        } else if (_proof[slot] == 0) {
+            return board.turn();
+        } else if (_disproof[slot] == 0) {
+            return board.turn().opponent();
+        }
+        return null;
+    }
+
+    /**
+     * Return a move that wins for the side to move, as found by the
+     * last call to prove, or null if it did not prove a win.
+     */
+    Move winningMove() {
+        return _winningMove;
+    }
+
+    /**
+     * Return the number of nodes expanded by the last call to prove.
+     */
+    long nodes() {
+        return _nodes;
+    }
+
+    /**
+     * Expand BOARD until its proof number reaches PROOFLIMIT or its
+     * disproof number reaches DISPROOFLIMIT, or the node limit is
+     * reached, and record its numbers in the table.
+     */
+    private void search(Board board, int proofLimit, int disproofLimit) {
+        _nodes += 1;
+        long hash = board.hash();
+        int sealed = sealedOutcome(board);
+        if (sealed > 0) {
+            store(hash, 0, INFINITY);
+            return;
+        } else if (sealed < 0) {
+            store(hash, INFINITY, 0);
+            return;
+        }
+        List<Move> moves = new ArrayList<>();
+        List<Long> hashes = new ArrayList<>();
+        for (Move move : iterable(board.legalMoves())) {
+            moves.add(move);
+            hashes.add(board.hashAfter(move));
+        }
+        if (moves.isEmpty()) {
+            store(hash, INFINITY, 0);
+            return;
+        }
+        while (true) {
+            int proof = INFINITY, disproof = 0, second = INFINITY;
+            int best = -1, bestProof = 0;
+            for (int i = 0; i < moves.size(); i += 1) {
+                int slot = slot(hashes.get(i));
+                boolean known = _keys[slot] == hashes.get(i);
+                int childProof = known ? _proof[slot] : 1,
+                    childDisproof = known ? _disproof[slot] : 1;
+                disproof = (int) Math.min(INFINITY,
+                        (long) disproof + childProof);
+                if (childDisproof < proof) {
+                    second = proof;
+                    proof = childDisproof;
+                    best = i;
+                    bestProof = childProof;
+                } else if (childDisproof < second) {
+                    second = childDisproof;
+                }
+            }
+            if (proof == 0) {
+                disproof = INFINITY;
+                if (hash == _rootHash) {
+                    _winningMove = moves.get(best);
+                }
+            }
+            if (proof >= proofLimit || disproof >= disproofLimit
+                    || _nodes >= _maxNodes || _token.checkpoint()) {
+                store(hash, proof, disproof);
+                return;
+            }
+            int childProofLimit = (int) Math.min(INFINITY,
+                    (long) disproofLimit - disproof + bestProof);
+            int childDisproofLimit = Math.min(proofLimit, second + 1);
+            board.makeMove(moves.get(best));
+            search(board, childProofLimit, childDisproofLimit);
+            board.undo();
+        }
+    }
+
+    /**
+     * Return 1 if every region of BOARD is sealed and solvable and the
+     * side to move has more moves left than its opponent, -1 if it is
+     * sealed and solvable and the side to move does not, and otherwise
+     * 0.
+     */
+    private int sealedOutcome(Board board) {
+        int mine = 0, theirs = 0;
+        for (Region region : board.regions()) {
+            if (region.isContested()) {
+                return 0;
+            } else if (!region.isDead()) {
+                int moves = _solver.solve(region);
+                if (moves < 0) {
+                    return 0;
+                } else if (region.owner() == board.turn()) {
+                    mine += moves;
+                } else {
+                    theirs += moves;
+                }
+            }
+        }
+        return mine > theirs ? 1 : -1;
+    }
+
+    /**
+     * Return the table slot for positions with hash HASH.
+     */
+    private int slot(long hash) {
+        return (int) (hash ^ (hash >>> 32)) & (_keys.length - 1);
+    }
+
+    /**
+     * Record PROOF and DISPROOF for the position with hash HASH.
+     */
+    private void store(long hash, int proof, int disproof) {
+        int slot = slot(hash);
+        _keys[slot] = hash;
+        _proof[slot] = proof;
+        _disproof[slot] = disproof;
+    }
+
+    /**
+     * Return the board reached by playing the moves in the file NAME
+     * from the initial position.  Blank lines and comments beginning
+     * with # are ignored.
+     */
+    static Board load(String name) throws IOException {
+        Board board = new Board();
+        try (BufferedReader input = new BufferedReader(new FileReader(name))) {
+            int lineNumber = 0;
+            for (String line = input.readLine(); line != null;
+                 line = input.readLine()) {
+                lineNumber += 1;
+                line = line.replaceFirst("#.*", "").trim();
+                if (line.isEmpty()) {
+                    continue;
+                }
+                Move move = Move.mv(line);
+                if (move == null || !board.isLegal(move)) {
+                    throw error("%s:%d: illegal move: %s", name, lineNumber,
+                            line);
+                }
+                board.makeMove(move);
+            }
+        }
+        return board;
+    }
+
+    /**
+     * Solve the position described by ARGS (see the class comment).
+     */
+    public static void main(String... args) {
+        if (args.length < 1 || args.length > 2) {
+            System.err.println("Usage: java amazons.ProofSearch FILE"
+                    + " [NODES]");
+            System.exit(1);
+        }
+        try {
+            Board board = load(args[0]);
+            long nodes = args.length > 1 ? Long.parseLong(args[1])
+                    : DEFAULT_NODES;
+            ProofSearch prover = new ProofSearch(
+                    new RegionSolver(Tablebase.standard()),
+                    DEFAULT_TABLE_SIZE * 4);
+            Piece winner = prover.prove(board, nodes);
+            if (winner == null) {
+                System.out.printf("Unknown after %d nodes.%n",
+                        prover.nodes());
+            } else if (prover.winningMove() != null) {
+                System.out.printf("%s wins with %s (%d nodes).%n",
+                        winner.toName(), prover.winningMove(),
+                        prover.nodes());
+            } else {
+                System.out.printf("%s wins (%d nodes).%n", winner.toName(),
+                        prover.nodes());
+            }
+        } catch (IOException | IllegalArgumentException excp) {
+            System.err.printf("Error: %s%n", excp.getMessage());
+            System.exit(1);
+        }
+    }
+}
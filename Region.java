@@ -0,0 +1,129 @@
+package amazons;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import static amazons.Piece.*;
+
+/**
+ * A connected region of an Amazons board: a maximal set of squares that
+ * hold no spear, any two of which are joined by a chain of king steps
+ * through the set.  No queen move or spear throw can cross a wall of
+ * spears, so play inside one region never affects another.  Once the
+ * board has split up, the game is the sum of the games in its regions.
+ *
+ * @author Shichao Han
+ */
+final class Region {
+
+    /**
+     * The empty squares in me, as a bit set indexed by Square.index().
+     * Bits 0-63 are in _lo and bits 64-99 in _hi.
+     */
+    private final long _lo, _hi;
+    /**
+     * The number of empty squares in me.
+     */
+    private final int _size;
+    /**
+     * The white and black amazons standing in me.
+     */
+    private final List<Square> _white, _black;
+
+    /**
+     * A region whose empty squares are given by the bit sets LO and HI
+     * (as for lo() and hi()), and that holds the amazons WHITEAMAZONS
+     * and BLACKAMAZONS.
+     */
+    Region(long lo, long hi, List<Square> whiteAmazons,
+           List<Square> blackAmazons) {
+        _lo = lo;
+        _hi = hi;
+        _size = Long.bitCount(lo) + Long.bitCount(hi);
+        _white = Collections.unmodifiableList(new ArrayList<>(whiteAmazons));
+        _black = Collections.unmodifiableList(new ArrayList<>(blackAmazons));
+    }
+
+    /**
+     * Return the number of empty squares in me.
+     */
+    int size() {
+        return _size;
+    }
+
+    /**
+     * Return bits 0-63 of my set of empty squares.
+     */
+    long lo() {
+        return _lo;
+    }
+
+    /**
+     * Return bits 64-99 of my set of empty squares, shifted down by 64.
+     */
+    long hi() {
+        return _hi;
+    }
+
+    /**
+     * Return true iff S is one of my empty squares.
+     */
+    boolean contains(Square s) {
+        return contains(_lo, _hi, s.index());
+    }
+
+    /**
+     * Return the amazons of color SIDE in me.
+     */
+    List<Square> amazons(Piece side) {
+        return side == WHITE ? _white : _black;
+    }
+
+    /**
+     * Return true iff both colors have amazons in me, so that the
+     * outcome of play here is still open.
+     */
+    boolean isContested() {
+        return !_white.isEmpty() && !_black.isEmpty();
+    }
+
+    /**
+     * Return true iff no amazon stands in me, so that none of my
+     * squares can ever be used again.
+     */
+    boolean isDead() {
+        return _white.isEmpty() && _black.isEmpty();
+    }
+
+    /**
+     * Return the only color that has amazons in me, or null if I am
+     * dead or contested.
+     */
+    Piece owner() {
+        if (_black.isEmpty() && !_white.isEmpty()) {
+            return WHITE;
+        } else if (_white.isEmpty() && !_black.isEmpty()) {
+            return BLACK;
+        }
+        return null;
+    }
+
+    /**
+     * Return true iff the square with index K is in the bit set LO, HI.
+     */
+    static boolean contains(long lo, long hi, int k) {
+        if (k < Long.SIZE) {
+            return (lo & (1L << k)) != 0;
+        }
+        return (hi & (1L << (k - Long.SIZE))) != 0;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder result = new StringBuilder();
+        result.append(_size).append(" empty, white ").append(_white)
+                .append(", black ").append(_black);
+        return result.toString();
+    }
+}
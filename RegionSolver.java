@@ -0,0 +1,300 @@
+package amazons;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+
+import static amazons.Board.SIZE;
+
+/**
+ * An exact solver for regions that hold amazons of only one color.
+ * Nothing the other side does can affect such a region, so its value
+ * is simply the largest number of moves its amazons can make there, one
+ * after another: a longest-path problem over the positions of the
+ * region.  Results are memoized by the set of empty squares and the
+ * amazon positions, so a region that stays sealed costs one solution
+ * for the rest of the game, and positions small enough to appear in a
+ * Tablebase are looked up there instead.
+ *
+ * @author Shichao Han
+ */
+final class RegionSolver {
+
+    /**
+     * The largest number of empty squares in a region we solve exactly.
+     */
+    static final int EXACT_LIMIT = 14;
+
+    /**
+     * The most positions we keep in the memo table before starting over.
+     */
+    private static final int MAX_MEMO = 1 << 20;
+
+    /**
+     * RAYS[k][dir] lists the indices of the squares 1, 2, ... steps
+     * from the square with index K in direction DIR, as for
+     * Square.queenMove.
+     */
+    private static final int[][][] RAYS = new int[SIZE * SIZE][8][];
+
+    static {
+        for (int k = 0; k < SIZE * SIZE; k += 1) {
+            for (int dir = 0; dir < 8; dir += 1) {
+                int steps = 0;
+                while (Square.sq(k).queenMove(dir, steps + 1) != null) {
+                    steps += 1;
+                }
+                RAYS[k][dir] = new int[steps];
+                for (int i = 0; i < steps; i += 1) {
+                    RAYS[k][dir][i] = Square.sq(k).queenMove(dir, i + 1)
+                            .index();
+                }
+            }
+        }
+    }
+
+    /**
+     * Values of the connected positions solved so far.
+     */
+    private final HashMap<Key, Integer> _memo = new HashMap<>();
+
+    /**
+     * Precomputed values of small positions, or null.
+     */
+    private final Tablebase _table;
+
+    /**
+     * A solver that searches every position itself.
+     */
+    RegionSolver() {
+        this(null);
+    }
+
+    /**
+     * A solver that takes the values of small positions from TABLE, if
+     * it is not null.
+     */
+    RegionSolver(Tablebase table) {
+        _table = table;
+    }
+
+    /**
+     * Return the number of moves that the amazons in REGION can make
+     * there if left alone, or -1 if REGION is contested, or has more
+     * than EXACT_LIMIT empty squares.  A dead region is worth 0.
+     */
+    int solve(Region region) {
+        Piece owner = region.owner();
+        if (region.isDead()) {
+            return 0;
+        } else if (owner == null || region.size() > EXACT_LIMIT) {
+            return -1;
+        }
+        List<Square> amazons = region.amazons(owner);
+        int[] where = new int[amazons.size()];
+        for (int i = 0; i < where.length; i += 1) {
+            where[i] = amazons.get(i).index();
+        }
+        return solve(region.lo(), region.hi(), where);
+    }
+
+    /**
+     * Return the number of moves that amazons at the squares indexed
+     * by AMAZONS can make among the empty squares in the bit set LO, HI
+     * (as for Region.lo() and Region.hi()).
+     */
+    int solve(long lo, long hi, int[] amazons) {
+        int[] group = new int[amazons.length];
+        Arrays.fill(group, -1);
+        int total = 0;
+        for (int i = 0; i < amazons.length; i += 1) {
+            if (group[i] >= 0) {
+                continue;
+            }
+            long[] part = component(lo, hi, amazons, i, group);
+            int count = 0;
+            for (int j = 0; j < amazons.length; j += 1) {
+                if (group[j] == i) {
+                    count += 1;
+                }
+            }
+            int[] members = new int[count];
+            count = 0;
+            for (int j = 0; j < amazons.length; j += 1) {
+                if (group[j] == i) {
+                    members[count++] = amazons[j];
+                }
+            }
+            total += best(part[0], part[1], members);
+        }
+        return total;
+    }
+
+    /**
+     * Return the empty squares among LO, HI that are connected by king
+     * steps to the amazon AMAZONS[START], passing through empty squares
+     * and amazons, and set GROUP[j] to START for every amazon j found.
+     */
+    private static long[] component(long lo, long hi, int[] amazons,
+                                    int start, int[] group) {
+        long[] result = new long[2];
+        int[] queue = new int[SIZE * SIZE];
+        boolean[] seen = new boolean[SIZE * SIZE];
+        int head, tail;
+        head = tail = 0;
+        queue[tail++] = amazons[start];
+        seen[amazons[start]] = true;
+        while (head < tail) {
+            int k = queue[head++];
+            for (int j = 0; j < amazons.length; j += 1) {
+                if (amazons[j] == k) {
+                    group[j] = start;
+                }
+            }
+            if (Region.contains(lo, hi, k)) {
+                result[k / Long.SIZE] |= 1L << (k % Long.SIZE);
+            }
+            for (int dir = 0; dir < 8; dir += 1) {
+                if (RAYS[k][dir].length == 0) {
+                    continue;
+                }
+                int next = RAYS[k][dir][0];
+                if (!seen[next] && (Region.contains(lo, hi, next)
+                        || indexOf(amazons, next) >= 0)) {
+                    seen[next] = true;
+                    queue[tail++] = next;
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Return the number of moves that the amazons at AMAZONS can make
+     * among the empty squares LO, HI, all of which are connected to
+     * them.
+     */
+    private int best(long lo, long hi, int[] amazons) {
+        int bound = Long.bitCount(lo) + Long.bitCount(hi);
+        if (bound == 0) {
+            return 0;
+        }
+        Arrays.sort(amazons);
+        if (_table != null) {
+            int value = _table.lookup(lo, hi, amazons);
+            if (value >= 0) {
+                return value;
+            }
+        }
+        Key key = new Key(lo, hi, amazons);
+        Integer known = _memo.get(key);
+        if (known != null) {
+            return known;
+        }
+        int result = 0;
+        search:
+        for (int i = 0; i < amazons.length; i += 1) {
+            int from = amazons[i];
+            for (int[] path : RAYS[from]) {
+                for (int to : path) {
+                    if (!Region.contains(lo, hi, to)) {
+                        break;
+                    }
+                    long afterLo = flip(flip(lo, 0, from), 0, to),
+                        afterHi = flip(flip(hi, 1, from), 1, to);
+                    int[] moved = amazons.clone();
+                    moved[i] = to;
+                    for (int[] throwPath : RAYS[to]) {
+                        for (int spear : throwPath) {
+                            if (!Region.contains(afterLo, afterHi, spear)) {
+                                break;
+                            }
+                            int value = 1 + solve(flip(afterLo, 0, spear),
+                                    flip(afterHi, 1, spear), moved);
+                            if (value > result) {
+                                result = value;
+                                if (result == bound) {
+                                    break search;
+                                }
+                            }
+                        }
+                    }
+                }
+            }
+        }
+        if (_memo.size() >= MAX_MEMO) {
+            _memo.clear();
+        }
+        _memo.put(key, result);
+        return result;
+    }
+
+    /**
+     * Return BITS, which is word WHICH of a bit set (0 for lo, 1 for
+     * hi), with the bit for the square with index K flipped.
+     */
+    private static long flip(long bits, int which, int k) {
+        if (k / Long.SIZE != which) {
+            return bits;
+        }
+        return bits ^ (1L << (k % Long.SIZE));
+    }
+
+    /**
+     * Return the position of K in A, or -1 if it is absent.
+     */
+    private static int indexOf(int[] a, int k) {
+        for (int i = 0; i < a.length; i += 1) {
+            if (a[i] == k) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * A memo key: a set of empty squares together with the sorted
+     * squares of the amazons moving among them.
+     */
+    private static final class Key {
+        /**
+         * The empty squares, as for Region.lo() and Region.hi().
+         */
+        private final long _lo, _hi;
+        /**
+         * The amazon squares, seven bits each.
+         */
+        private final long _amazons;
+
+        /**
+         * A key for amazons at the sorted indices AMAZONS moving among
+         * the empty squares LO, HI.
+         */
+        Key(long lo, long hi, int[] amazons) {
+            _lo = lo;
+            _hi = hi;
+            long code = 0;
+            for (int k : amazons) {
+                code = (code << 7) | (k + 1);
+            }
+            _amazons = code;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (!(obj instanceof Key)) {
+                return false;
+            }
+            Key other = (Key) obj;
+            return _lo == other._lo && _hi == other._hi
+                    && _amazons == other._amazons;
+        }
+
+        @Override
+        public int hashCode() {
+            long h = _lo * 0x9E3779B97F4A7C15L
+                    ^ _hi * 0xC2B2AE3D27D4EB4FL ^ _amazons;
+            return (int) (h ^ (h >>> 32));
+        }
+    }
+}
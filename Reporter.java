@@ -1,5 +1,7 @@
 package amazons;
 
+import java.util.List;
+
 /**
  * An object that reports errors and other notifications to the user.
  *
@@ -24,5 +26,11 @@ interface Reporter {
      */
     void reportMove(Move move);
 
+    /**
+     * Display LINES, the best moves found so far by an analysing
+     * search, best first.
+     */
+    void reportAnalysis(List<Variation> lines);
+
 }
 
@@ -0,0 +1,108 @@
+package amazons;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The outcome of one search by an Engine: the best moves found, each
+ * with its value and principal variation, and how much work finding
+ * them took.
+ *
+ * @author Shichao Han
+ */
+final class SearchResult {
+
+    /**
+     * The best moves found, best first.
+     */
+    private final List<Variation> _lines;
+    /**
+     * The deepest search completed.
+     */
+    private final int _depth;
+    /**
+     * The number of nodes searched.
+     */
+    private final long _nodes;
+    /**
+     * The time taken, in milliseconds.
+     */
+    private final long _millis;
+
+    /**
+     * A result consisting of LINES, found by searching NODES nodes
+     * DEPTH plies deep in MILLIS milliseconds.
+     */
+    SearchResult(List<Variation> lines, int depth, long nodes,
+                 long millis) {
+        _lines = Collections.unmodifiableList(lines);
+        _depth = depth;
+        _nodes = nodes;
+        _millis = millis;
+    }
+
+    /**
+     * Return the best move found, or null if the game was over.
+     */
+    Move move() {
+        return _lines.isEmpty() ? null : _lines.get(0).move();
+    }
+
+    /**
+     * Return the value of move() (positive values favor White), or 0
+     * if there is none.
+     */
+    int value() {
+        return _lines.isEmpty() ? 0 : _lines.get(0).value();
+    }
+
+    /**
+     * Return the principal variation, starting with move().
+     */
+    List<Move> line() {
+        return _lines.isEmpty() ? Collections.emptyList()
+                : _lines.get(0).line();
+    }
+
+    /**
+     * Return the best moves found, best first.
+     */
+    List<Variation> lines() {
+        return _lines;
+    }
+
+    /**
+     * Return the depth of the deepest search completed, which is 0 if
+     * the search was stopped before completing any.
+     */
+    int depth() {
+        return _depth;
+    }
+
+    /**
+     * Return the number of nodes searched.
+     */
+    long nodes() {
+        return _nodes;
+    }
+
+    /**
+     * Return the time taken, in milliseconds.
+     */
+    long millis() {
+        return _millis;
+    }
+
+    /**
+     * Return the number of nodes searched per second.
+     */
+    long nodesPerSecond() {
+        return _nodes * 1000 / Math.max(1, _millis);
+    }
+
+    @Override
+    public String toString() {
+        return String.format("depth %d nodes %d time %d: %s", _depth,
+                _nodes, _millis, _lines);
+    }
+}
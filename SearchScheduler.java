@@ -0,0 +1,391 @@
+package amazons;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * A fair-share scheduler for search work from many sessions (games and
+ * analyses) sharing one machine.  At most a fixed number of searches
+ * run at once, each holding one of my slots.  Work arrives through the
+ * Executor of a session (see executor), and waits for a slot in order
+ * of priority (INTERACTIVE before BACKGROUND), then of the nodes its
+ * session has used so far (least first), then of arrival.
+ *
+ * <p>Searches are time-sliced.  Every search run by me finds its Grant
+ * through its SearchToken, which reports to it every CHECK_INTERVAL
+ * nodes.  After each slice of SLICE nodes, a search that others are
+ * waiting for gives up its slot and waits its turn again, resuming
+ * where it left off, so that one deep search cannot starve the rest.
+ * A paused search whose token is cancelled wakes at once, and takes a
+ * slot even if none is free, so that it may stop without waiting its
+ * turn; the deadline of its token does not run while it is paused (see
+ * SearchToken).  A session may also have a quota of nodes; once its
+ * searches have used it, they are stopped, returning their best
+ * results so far.
+ *
+ * <p>For each priority, I record the number of jobs finished, the total
+ * and greatest time jobs spent waiting for a slot, and the total time
+ * they spent running.
+ *
+ * @author Shichao Han
+ */
+final class SearchScheduler {
+
+    /**
+     * The priority of a session's work.
+     */
+    enum Priority {
+        /** Work for which someone is waiting, such as an AI move. */
+        INTERACTIVE,
+        /** Work that may wait, such as analysis. */
+        BACKGROUND
+    }
+
+    /**
+     * The default number of nodes in one slice.
+     */
+    static final long DEFAULT_SLICE = 1 << 14;
+
+    /**
+     * The grant of the job running in the current thread, if any.
+     */
+    private static final ThreadLocal<Grant> CURRENT = new ThreadLocal<>();
+
+    /**
+     * The number of searches that may run at once.
+     */
+    private final int _slots;
+    /**
+     * The number of nodes in a slice.
+     */
+    private final long _slice;
+    /**
+     * Creates the threads that run jobs.
+     */
+    private final ThreadFactory _threads;
+    /**
+     * The number of slots in use.
+     */
+    private int _running;
+    /**
+     * The jobs waiting for a slot.
+     */
+    private final List<Grant> _waiting = new ArrayList<>();
+    /**
+     * The nodes used and node quota (or 0) of each session.
+     */
+    private final Map<String, long[]> _sessions = new HashMap<>();
+    /**
+     * The number of jobs, in order of arrival, so far.
+     */
+    private long _arrivals;
+    /**
+     * For each priority, the number of jobs finished, the total and
+     * greatest time (nanoseconds) that they waited for a slot, and the
+     * total time that they ran.
+     */
+    private final long[] _finished = new long[Priority.values().length],
+        _waitTime = new long[Priority.values().length],
+        _maxWait = new long[Priority.values().length],
+        _runTime = new long[Priority.values().length];
+    /**
+     * True once I have been shut down.
+     */
+    private boolean _shutdown;
+
+    /**
+     * A scheduler running at most SLOTS searches at once, with slices
+     * of DEFAULT_SLICE nodes.
+     */
+    SearchScheduler(int slots) {
+        this(slots, DEFAULT_SLICE);
+    }
+
+    /**
+     * A scheduler running at most SLOTS searches at once, with slices
+     * of SLICE nodes.
+     */
+    SearchScheduler(int slots, long slice) {
+        _slots = slots;
+        _slice = slice;
+        _threads = Utils.lightThreads("search");
+    }
+
+    /**
+     * Return an Executor that runs each task on a thread of its own as
+     * a job of SESSION with priority PRIORITY.  Tasks wait for a slot
+     * before they start, and whenever they are paused.  Once I have
+     * been shut down, it rejects all tasks.
+     */
+    Executor executor(String session, Priority priority) {
+        return task -> {
+            Grant grant;
+            synchronized (this) {
+                if (_shutdown) {
+                    throw new RejectedExecutionException("scheduler shut"
+                                                         + " down");
+                }
+                grant = new Grant(session, priority);
+            }
+            _threads.newThread(() -> grant.run(task)).start();
+        };
+    }
+
+    /**
+     * Limit the searches of SESSION to a total of NODES nodes from now
+     * on, or remove its limit if NODES is 0.
+     */
+    synchronized void setQuota(String session, long nodes) {
+        long[] usage = usage(session);
+        usage[1] = nodes == 0 ? 0 : usage[0] + nodes;
+    }
+
+    /**
+     * Return the number of nodes searched so far for SESSION.
+     */
+    synchronized long used(String session) {
+        return usage(session)[0];
+    }
+
+    /**
+     * Forget SESSION, whose work is done.
+     */
+    synchronized void endSession(String session) {
+        _sessions.remove(session);
+    }
+
+    /**
+     * Return the number of jobs of PRIORITY finished so far.
+     */
+    synchronized long finished(Priority priority) {
+        return _finished[priority.ordinal()];
+    }
+
+    /**
+     * Return the total time, in milliseconds, that the finished jobs of
+     * PRIORITY waited for a slot.
+     */
+    synchronized long waitMillis(Priority priority) {
+        return _waitTime[priority.ordinal()] / 1000000;
+    }
+
+    /**
+     * Return the longest time, in milliseconds, that a finished job of
+     * PRIORITY waited for a slot.
+     */
+    synchronized long maxWaitMillis(Priority priority) {
+        return _maxWait[priority.ordinal()] / 1000000;
+    }
+
+    /**
+     * Return the total time, in milliseconds, that the finished jobs of
+     * PRIORITY spent running.
+     */
+    synchronized long runMillis(Priority priority) {
+        return _runTime[priority.ordinal()] / 1000000;
+    }
+
+    /**
+     * Return the number of jobs now waiting for a slot.
+     */
+    synchronized int waiting() {
+        return _waiting.size();
+    }
+
+    /**
+     * Accept no more work.  Jobs already started run to completion.
+     */
+    synchronized void shutdown() {
+        _shutdown = true;
+    }
+
+    /**
+     * Return the grant of the job running in the current thread, or
+     * null if it is not run by a scheduler.
+     */
+    static Grant current() {
+        return CURRENT.get();
+    }
+
+    /**
+     * Return the usage record of SESSION: its nodes used, and its quota,
+     * as a total of nodes used, or 0.
+     */
+    private long[] usage(String session) {
+        return _sessions.computeIfAbsent(session, s -> new long[2]);
+    }
+
+    /**
+     * Return true iff waiting job A should run before waiting job B.
+     */
+    private boolean before(Grant a, Grant b) {
+        if (a._priority != b._priority) {
+            return a._priority.ordinal() < b._priority.ordinal();
+        }
+        long usedA = usage(a._session)[0], usedB = usage(b._session)[0];
+        if (usedA != usedB) {
+            return usedA < usedB;
+        }
+        return a._arrival < b._arrival;
+    }
+
+    /**
+     * Return the waiting job that should run next, if any.
+     */
+    private Grant next() {
+        Grant best = null;
+        for (Grant grant : _waiting) {
+            if (best == null || before(grant, best)) {
+                best = grant;
+            }
+        }
+        return best;
+    }
+
+    /**
+     * One job's claim on my slots, through which its searches report
+     * their progress.
+     */
+    final class Grant {
+
+        /**
+         * The session and priority of my job.
+         */
+        private final String _session;
+        private final Priority _priority;
+        /**
+         * When my job arrived, or last started waiting, as a number in
+         * order of arrival.
+         */
+        private long _arrival;
+        /**
+         * The nodes searched in the current slice.
+         */
+        private long _sliceNodes;
+        /**
+         * The value of System.nanoTime() when I last started waiting or
+         * running.
+         */
+        private long _since;
+        /**
+         * The total time I have waited and run so far, in nanoseconds.
+         */
+        private long _waited, _ran;
+
+        /**
+         * A grant for a job of SESSION, with priority PRIORITY.
+         */
+        Grant(String session, Priority priority) {
+            _session = session;
+            _priority = priority;
+        }
+
+        /**
+         * Run TASK as my job, in the current thread.
+         */
+        private void run(Runnable task) {
+            acquire(null);
+            CURRENT.set(this);
+            try {
+                task.run();
+            } finally {
+                CURRENT.remove();
+                release();
+                synchronized (SearchScheduler.this) {
+                    int p = _priority.ordinal();
+                    _finished[p] += 1;
+                    _waitTime[p] += _waited;
+                    _maxWait[p] = Math.max(_maxWait[p], _waited);
+                    _runTime[p] += _ran;
+                }
+            }
+        }
+
+        /**
+         * Record that a search run by my job with TOKEN has searched
+         * NODES more nodes, and pause it if its slice is over and other
+         * jobs are waiting, until its turn comes again or TOKEN is
+         * cancelled.  Return true iff its session's quota is used up, so
+         * that the search must stop.  To be called only from my job's
+         * thread.
+         */
+        boolean checkpoint(long nodes, SearchToken token) {
+            _sliceNodes += nodes;
+            synchronized (SearchScheduler.this) {
+                long[] usage = usage(_session);
+                usage[0] += nodes;
+                if (usage[1] != 0 && usage[0] >= usage[1]) {
+                    return true;
+                }
+            }
+            if (_sliceNodes >= _slice) {
+                _sliceNodes = 0;
+                boolean others;
+                synchronized (SearchScheduler.this) {
+                    others = !_waiting.isEmpty();
+                }
+                if (others) {
+                    release();
+                    acquire(token);
+                }
+            }
+            return false;
+        }
+
+        /**
+         * Wait for a slot and take it, or take one at once if TOKEN is
+         * not null and is cancelled, whether or not one is free.
+         */
+        private void acquire(SearchToken token) {
+            boolean interrupted = false;
+            synchronized (SearchScheduler.this) {
+                long start = System.nanoTime();
+                _arrival = _arrivals;
+                _arrivals += 1;
+                _waiting.add(this);
+                while ((token == null || !token.isCancelled())
+                       && (_running >= _slots || next() != this)) {
+                    try {
+                        SearchScheduler.this.wait();
+                    } catch (InterruptedException excp) {
+                        interrupted = true;
+                    }
+                }
+                _waiting.remove(this);
+                _running += 1;
+                _since = System.nanoTime();
+                _waited += _since - start;
+                SearchScheduler.this.notifyAll();
+            }
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        /**
+         * Wake my job, if it is paused, to see whether its token has
+         * been cancelled.
+         */
+        void wake() {
+            synchronized (SearchScheduler.this) {
+                SearchScheduler.this.notifyAll();
+            }
+        }
+
+        /**
+         * Give up my slot.
+         */
+        private void release() {
+            synchronized (SearchScheduler.this) {
+                _running -= 1;
+                _ran += System.nanoTime() - _since;
+                SearchScheduler.this.notifyAll();
+            }
+        }
+    }
+}
@@ -0,0 +1,188 @@
+package amazons;
+
+/**
+ * A cooperative stop signal for one search.  Any thread may cancel a
+ * token, and a token may also carry a deadline and a node limit.  The
+ * searching thread calls checkpoint() once per node.  That call is
+ * cheap: only every CHECK_INTERVAL nodes does it look at the clock,
+ * the cancellation flag, and the node count, and once any of them
+ * calls for a stop, it reports the search stopped from then on.  A
+ * stopped search gives up as soon as it can, returning the best result
+ * it has found so far.
+ *
+ * <p>A token used by a job of a SearchScheduler also reports its
+ * progress to the job's grant at each look, which may pause the search
+ * while other jobs take their turn, or stop it once its session's node
+ * quota is used up.  Cancelling the token wakes a paused search, and
+ * the time a search spends paused is added to its deadline, so that
+ * its time limit counts only the time it runs.
+ *
+ * <p>A token may also be made for one part of a search, with limits of
+ * its own (see SearchToken(SearchToken, long)), so that the part cannot
+ * use up the whole search's time, while cancelling either token still
+ * cancels both.
+ *
+ * @author Shichao Han
+ */
+final class SearchToken {
+
+    /**
+     * The number of nodes between looks at the clock and the flag.
+     */
+    static final int CHECK_INTERVAL = 256;
+
+    /**
+     * True once cancel has been called.
+     */
+    private volatile boolean _cancelled;
+    /**
+     * The value of System.nanoTime() after which the search must
+     * stop, if _timed, put off by the time the search has been paused.
+     */
+    private long _deadline;
+    /**
+     * True iff I have a deadline.
+     */
+    private final boolean _timed;
+    /**
+     * The number of nodes after which the search must stop.
+     */
+    private final long _maxNodes;
+    /**
+     * The token of the whole search of which mine is a part, or null.
+     */
+    private final SearchToken _parent;
+    /**
+     * The grant of the scheduler job last searching with me, if any.
+     */
+    private volatile SearchScheduler.Grant _grant;
+    /**
+     * True once the searching thread has seen that it must stop.
+     */
+    private boolean _stopped;
+    /**
+     * The number of calls to checkpoint left before the next look.
+     */
+    private int _countdown = CHECK_INTERVAL;
+    /**
+     * The number of calls to checkpoint so far.
+     */
+    private long _nodes;
+
+    /**
+     * A token with no deadline.
+     */
+    SearchToken() {
+        this(0, 0);
+    }
+
+    /**
+     * A token whose deadline is MILLIS milliseconds from now.
+     */
+    SearchToken(long millis) {
+        this(millis, 0);
+    }
+
+    /**
+     * A token whose deadline is MILLIS milliseconds from now, and which
+     * stops the search after about MAXNODES nodes.  Either limit may be
+     * 0, meaning none.
+     */
+    SearchToken(long millis, long maxNodes) {
+        this(null, millis, maxNodes);
+    }
+
+    /**
+     * A token for part of the search using PARENT, whose deadline is
+     * MILLIS milliseconds from now (none if 0), regardless of PARENT's.
+     * It is cancelled whenever PARENT is, and cancelling it cancels
+     * PARENT too.  The nodes it counts are counted for PARENT as well,
+     * and once it stops for cancellation or for its session's quota,
+     * so does PARENT.
+     */
+    SearchToken(SearchToken parent, long millis) {
+        this(parent, millis, 0);
+    }
+
+    /**
+     * A token for part of the search using PARENT (or for a whole
+     * search if PARENT is null), with limits MILLIS and MAXNODES as for
+     * SearchToken(MILLIS, MAXNODES).
+     */
+    private SearchToken(SearchToken parent, long millis, long maxNodes) {
+        _parent = parent;
+        _timed = millis > 0;
+        _deadline = _timed ? System.nanoTime() + millis * 1000000 : 0;
+        _maxNodes = maxNodes > 0 ? maxNodes : Long.MAX_VALUE;
+    }
+
+    /**
+     * Ask the search using me to stop.  May be called from any thread.
+     */
+    void cancel() {
+        _cancelled = true;
+        if (_parent != null) {
+            _parent.cancel();
+        }
+        SearchScheduler.Grant grant = _grant;
+        if (grant != null) {
+            grant.wake();
+        }
+    }
+
+    /**
+     * Return true iff cancel has been called on me or my parent.
+     */
+    boolean isCancelled() {
+        return _cancelled || _parent != null && _parent.isCancelled();
+    }
+
+    /**
+     * Count one node of the search, and return true iff the search
+     * must stop.  To be called only by the searching thread.
+     */
+    boolean checkpoint() {
+        _nodes += 1;
+        if (_parent != null) {
+            _parent._nodes += 1;
+        }
+        _countdown -= 1;
+        if (_countdown == 0) {
+            _countdown = CHECK_INTERVAL;
+            SearchScheduler.Grant grant = SearchScheduler.current();
+            boolean quota = false;
+            if (grant != null) {
+                _grant = grant;
+                long start = _timed ? System.nanoTime() : 0;
+                quota = grant.checkpoint(CHECK_INTERVAL, this);
+                if (_timed) {
+                    _deadline += System.nanoTime() - start;
+                }
+            }
+            if (quota || isCancelled()) {
+                for (SearchToken t = this; t != null; t = t._parent) {
+                    t._stopped = true;
+                }
+            } else if (_nodes >= _maxNodes
+                    || _timed && System.nanoTime() - _deadline >= 0) {
+                _stopped = true;
+            }
+        }
+        return _stopped;
+    }
+
+    /**
+     * Return true iff the searching thread has seen that it must stop.
+     * To be called only by the searching thread.
+     */
+    boolean isStopped() {
+        return _stopped;
+    }
+
+    /**
+     * Return the number of nodes counted by checkpoint.
+     */
+    long nodes() {
+        return _nodes;
+    }
+}
@@ -46,6 +46,24 @@ final class Square {
      * SQUARES viewed as a List.
      */
     private static final List<Square> SQUARE_LIST = Arrays.asList(SQUARES);
+    /**
+     * The number of symmetries of the board.  Symmetry SYM first
+     * transposes rows and columns if bit 0 of SYM is set, and then
+     * reflects rows (top to bottom) if bit 1 is set and columns (left
+     * to right) if bit 2 is set.  Symmetry 0 is the identity.  All of
+     * them carry queen moves to queen moves.
+     */
+    static final int SYMMETRIES = 8;
+    /**
+     * TRANSFORMS[sym][k] is the index of the image under symmetry SYM
+     * of the square with index K.
+     */
+    private static final int[][] TRANSFORMS =
+            new int[SYMMETRIES][Board.SIZE * Board.SIZE];
+    /**
+     * INVERSES[sym] is the symmetry that undoes symmetry SYM.
+     */
+    private static final int[] INVERSES = new int[SYMMETRIES];
 
     /**Possible col index.*/
     private static String _aToJ = "abcdefghij";
@@ -54,6 +72,32 @@ final class Square {
         for (int i = Board.SIZE * Board.SIZE - 1; i >= 0; i -= 1) {
             SQUARES[i] = new Square(i);
         }
+        int last = Board.SIZE - 1;
+        for (int sym = 0; sym < SYMMETRIES; sym += 1) {
+            for (int k = 0; k < Board.SIZE * Board.SIZE; k += 1) {
+                int row = k / Board.SIZE, col = k % Board.SIZE;
+                if ((sym & 1) != 0) {
+                    int t = row;
+                    row = col;
+                    col = t;
+                }
+                row = (sym & 2) == 0 ? row : last - row;
+                col = (sym & 4) == 0 ? col : last - col;
+                TRANSFORMS[sym][k] = row * Board.SIZE + col;
+            }
+        }
+        for (int sym = 0; sym < SYMMETRIES; sym += 1) {
+            for (int inv = 0; inv < SYMMETRIES; inv += 1) {
+                int k = 0;
+                while (k < Board.SIZE * Board.SIZE
+                        && TRANSFORMS[inv][TRANSFORMS[sym][k]] == k) {
+                    k += 1;
+                }
+                if (k == Board.SIZE * Board.SIZE) {
+                    INVERSES[sym] = inv;
+                }
+            }
+        }
     }
 
     /**
@@ -216,6 +260,28 @@ final class Square {
         return Square.sq(nextCol, nextRow);
     }
 
+    /**
+     * Return my image under symmetry SYM (see SYMMETRIES).
+     */
+    Square transform(int sym) {
+        return SQUARES[TRANSFORMS[sym][_index]];
+    }
+
+    /**
+     * Return the index of the image under symmetry SYM of the square
+     * with index K.
+     */
+    static int transform(int sym, int k) {
+        return TRANSFORMS[sym][k];
+    }
+
+    /**
+     * Return the symmetry that undoes symmetry SYM.
+     */
+    static int inverse(int sym) {
+        return INVERSES[sym];
+    }
+
     /**
      * Return the direction (an int as defined in the documentation
      * for queenMove) of the queen move THIS-TO.
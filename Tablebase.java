@@ -0,0 +1,316 @@
+package amazons;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.List;
+
+import static amazons.Board.SIZE;
+import static amazons.Utils.error;
+
+/**
+ * A read-only table of the exact values of small sealed regions, as
+ * written by TablebaseGenerator.  A position is a region shape of at
+ * most maxSquares() squares holding one or two amazons of the same
+ * color, and its value is the number of moves those amazons can make
+ * there.  Positions are stored in a canonical frame: translated into an
+ * 8x8 box and reduced over the eight symmetries of the square, which
+ * leave queen moves unchanged.
+ *
+ * <p>The file is an open-addressing hash table that we map into memory
+ * rather than read, so a lookup touches one or two slots and every
+ * process using the same file shares one copy of it in the page cache.
+ * Its layout is a header of HEADER_INTS ints (MAGIC, VERSION, the
+ * largest shape size, the slot count, and the entry count), followed by
+ * slots of a long (the shape, 0 in an empty slot) and an int (the
+ * amazons, shifted left 8 bits, plus the value).
+ *
+ * @author Shichao Han
+ */
+final class Tablebase {
+
+    /**
+     * The first int of every tablebase file.
+     */
+    static final int MAGIC = 0x414d5442;
+    /**
+     * The format version written by this code.
+     */
+    static final int VERSION = 1;
+    /**
+     * The number of ints in a file header.
+     */
+    static final int HEADER_INTS = 5;
+    /**
+     * The number of bytes in a slot.
+     */
+    static final int SLOT_BYTES = Long.BYTES + Integer.BYTES;
+    /**
+     * The largest shape size the 8x8 canonical frame can hold in every
+     * orientation.
+     */
+    static final int MAX_SQUARES = 8;
+    /**
+     * The side of the canonical frame.
+     */
+    private static final int FRAME = 8;
+    /**
+     * The number of symmetries of the square: bit 0 of a symmetry
+     * transposes rows and columns, and bits 1 and 2 reflect rows and
+     * columns.
+     */
+    private static final int SYMMETRIES = 8;
+    /**
+     * The file consulted by standard(), unless the system property
+     * amazons.tablebase names another.
+     */
+    private static final String DEFAULT_FILE = "amazons.tb";
+
+    /**
+     * The mapped contents of the file.
+     */
+    private final ByteBuffer _data;
+    /**
+     * The largest shape size in the table.
+     */
+    private final int _maxSquares;
+    /**
+     * The number of slots, a power of 2.
+     */
+    private final int _capacity;
+
+    /**
+     * A tablebase whose contents are DATA, positioned at its start.
+     */
+    private Tablebase(ByteBuffer data) {
+        _data = data;
+        if (data.getInt(0) != MAGIC || data.getInt(Integer.BYTES) != VERSION) {
+            throw error("not a tablebase file");
+        }
+        _maxSquares = data.getInt(2 * Integer.BYTES);
+        _capacity = data.getInt(3 * Integer.BYTES);
+        if (Integer.bitCount(_capacity) != 1
+                || data.capacity() < offset(_capacity)) {
+            throw error("truncated tablebase file");
+        }
+    }
+
+    /**
+     * Return the tablebase in the file NAME, mapped read-only.
+     */
+    static Tablebase open(String name) throws IOException {
+        try (RandomAccessFile file = new RandomAccessFile(name, "r")) {
+            MappedByteBuffer data =
+                    file.getChannel().map(FileChannel.MapMode.READ_ONLY, 0,
+                            file.length());
+            return new Tablebase(data);
+        }
+    }
+
+    /**
+     * Return the tablebase shared by all players in this program, or
+     * null if its file does not exist or cannot be read.
+     */
+    static Tablebase standard() {
+        return Standard.TABLE;
+    }
+
+    /**
+     * Return the largest number of squares (empty or not) in a region
+     * I describe.
+     */
+    int maxSquares() {
+        return _maxSquares;
+    }
+
+    /**
+     * Return the number of moves that the amazons at the squares with
+     * indices AMAZONS can make among the empty squares LO, HI (as for
+     * Region.lo() and Region.hi()), all connected to them, or -1 if I
+     * do not cover that position.
+     */
+    int lookup(long lo, long hi, int[] amazons) {
+        int size = Long.bitCount(lo) + Long.bitCount(hi) + amazons.length;
+        if (amazons.length < 1 || amazons.length > 2 || size > _maxSquares) {
+            return -1;
+        }
+        int[] rows = new int[size], cols = new int[size];
+        boolean[] amazon = new boolean[size];
+        int n = 0;
+        for (int k = 0; k < SIZE * SIZE; k += 1) {
+            boolean isAmazon = k == amazons[0]
+                    || amazons.length > 1 && k == amazons[1];
+            if (isAmazon || Region.contains(lo, hi, k)) {
+                rows[n] = k / SIZE;
+                cols[n] = k % SIZE;
+                amazon[n] = isAmazon;
+                n += 1;
+            }
+        }
+        long[] key = key(rows, cols, amazon, n);
+        return key == null ? -1 : lookup(key[0], (int) key[1]);
+    }
+
+    /**
+     * Return the value stored for the canonical position SHAPE,
+     * AMAZONS, or -1 if there is none.
+     */
+    int lookup(long shape, int amazons) {
+        for (int i = slot(shape, amazons, _capacity); ;
+             i = (i + 1) & (_capacity - 1)) {
+            long stored = _data.getLong(offset(i));
+            if (stored == 0) {
+                return -1;
+            }
+            int rest = _data.getInt(offset(i) + Long.BYTES);
+            if (stored == shape && rest >>> Byte.SIZE == amazons) {
+                return rest & 0xff;
+            }
+        }
+    }
+
+    /**
+     * Return the canonical key of the position whose squares are at
+     * (ROWS[i], COLS[i]) for 0 <= i < N, those with AMAZON[i] holding
+     * the amazons.  The key is a pair: the shape as a bit set over the
+     * 8x8 frame (bit 8 * row + col), and the amazon squares in the same
+     * frame, encoded as by amazonCode.  Of the eight orientations of
+     * the position, we choose the one whose pair is least.  Returns
+     * null if the position does not fit in the frame.
+     */
+    static long[] key(int[] rows, int[] cols, boolean[] amazon, int n) {
+        long[] best = null;
+        int[] r = new int[n], c = new int[n];
+        for (int sym = 0; sym < SYMMETRIES; sym += 1) {
+            int minRow, minCol, maxRow, maxCol;
+            minRow = minCol = Integer.MAX_VALUE;
+            maxRow = maxCol = Integer.MIN_VALUE;
+            for (int i = 0; i < n; i += 1) {
+                r[i] = (sym & 1) == 0 ? rows[i] : cols[i];
+                c[i] = (sym & 1) == 0 ? cols[i] : rows[i];
+                r[i] = (sym & 2) == 0 ? r[i] : -r[i];
+                c[i] = (sym & 4) == 0 ? c[i] : -c[i];
+                minRow = Math.min(minRow, r[i]);
+                maxRow = Math.max(maxRow, r[i]);
+                minCol = Math.min(minCol, c[i]);
+                maxCol = Math.max(maxCol, c[i]);
+            }
+            if (maxRow - minRow >= FRAME || maxCol - minCol >= FRAME) {
+                return null;
+            }
+            long shape = 0;
+            int first, second;
+            first = second = -1;
+            for (int i = 0; i < n; i += 1) {
+                int bit = FRAME * (r[i] - minRow) + c[i] - minCol;
+                shape |= 1L << bit;
+                if (amazon[i]) {
+                    if (first < 0) {
+                        first = bit;
+                    } else {
+                        second = bit;
+                    }
+                }
+            }
+            long code = amazonCode(first, second);
+            if (best == null || shape < best[0]
+                    || shape == best[0] && code < best[1]) {
+                best = new long[] { shape, code };
+            }
+        }
+        return best;
+    }
+
+    /**
+     * Return the code for amazons on the frame squares A and B, either
+     * of which may be -1 for no amazon.
+     */
+    static int amazonCode(int a, int b) {
+        int low = Math.min(a, b), high = Math.max(a, b);
+        if (low < 0) {
+            return high + 1;
+        }
+        return (low + 1) | (high + 1) << 6;
+    }
+
+    /**
+     * Return the first slot to probe for SHAPE, AMAZONS in a table of
+     * CAPACITY slots.
+     */
+    static int slot(long shape, int amazons, int capacity) {
+        long h = shape * 0x9E3779B97F4A7C15L ^ amazons * 0xC2B2AE3D27D4EB4FL;
+        return (int) (h ^ (h >>> 29) ^ (h >>> 47)) & (capacity - 1);
+    }
+
+    /**
+     * Return the byte offset of slot I.
+     */
+    static int offset(int i) {
+        return HEADER_INTS * Integer.BYTES + i * SLOT_BYTES;
+    }
+
+    /**
+     * Write the entries SHAPES[i], AMAZONS[i] with values VALUES[i], for
+     * i < SHAPES.size(), to the file NAME as a tablebase of shapes with
+     * up to MAXSQUARES squares.
+     */
+    static void write(String name, int maxSquares, List<Long> shapes,
+                      List<Integer> amazons, List<Integer> values)
+        throws IOException {
+        int capacity = Integer.highestOneBit(Math.max(1, shapes.size()))
+                * 4;
+        new File(name).delete();
+        try (RandomAccessFile file = new RandomAccessFile(name, "rw")) {
+            MappedByteBuffer data =
+                    file.getChannel().map(FileChannel.MapMode.READ_WRITE, 0,
+                            offset(capacity));
+            data.putInt(0, MAGIC);
+            data.putInt(Integer.BYTES, VERSION);
+            data.putInt(2 * Integer.BYTES, maxSquares);
+            data.putInt(3 * Integer.BYTES, capacity);
+            data.putInt(4 * Integer.BYTES, shapes.size());
+            for (int k = 0; k < shapes.size(); k += 1) {
+                long shape = shapes.get(k);
+                int i = slot(shape, amazons.get(k), capacity);
+                while (data.getLong(offset(i)) != 0) {
+                    i = (i + 1) & (capacity - 1);
+                }
+                data.putLong(offset(i), shape);
+                data.putInt(offset(i) + Long.BYTES,
+                        amazons.get(k) << Byte.SIZE | values.get(k));
+            }
+            data.force();
+        }
+    }
+
+    /**
+     * Holder for the shared tablebase, opened when first needed.
+     */
+    private static final class Standard {
+        /**
+         * The shared tablebase, or null.
+         */
+        static final Tablebase TABLE = load();
+
+        /**
+         * Return the tablebase in the standard file, or null.
+         */
+        private static Tablebase load() {
+            String name = System.getProperty("amazons.tablebase",
+                    DEFAULT_FILE);
+            if (!new File(name).isFile()) {
+                return null;
+            }
+            try {
+                return open(name);
+            } catch (IOException | IllegalArgumentException excp) {
+                System.err.printf("Ignoring tablebase %s: %s%n", name,
+                        excp.getMessage());
+                return null;
+            }
+        }
+    }
+}
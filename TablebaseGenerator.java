@@ -0,0 +1,348 @@
+package amazons;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Collectors;
+
+/**
+ * The offline generator for Tablebase files.  It enumerates every region
+ * shape of up to N squares, connected by king steps, with one or two
+ * amazons of the same color placed on it, and computes the exact number
+ * of moves those amazons can make.  Every move leaves a region one
+ * square smaller, or splits it into smaller ones, so we work backwards
+ * from the smallest shapes: each layer of shapes of one size depends
+ * only on the layers before it, and its positions are evaluated in
+ * parallel.
+ *
+ * <p>Usage: java amazons.TablebaseGenerator [N [FILE]], where N is at
+ * most Tablebase.MAX_SQUARES.
+ *
+ * @author Shichao Han
+ */
+public class TablebaseGenerator {
+
+    /**
+     * The default largest shape size.
+     */
+    static final int DEFAULT_SQUARES = 8;
+    /**
+     * The default output file.
+     */
+    static final String DEFAULT_FILE = "amazons.tb";
+    /**
+     * The side of the canonical frame.
+     */
+    private static final int FRAME = 8;
+    /**
+     * The king steps, as (drow, dcol).
+     */
+    private static final int[][] STEPS = {
+        {1, 0}, {1, 1}, {0, 1}, {-1, 1},
+        {-1, 0}, {-1, -1}, {0, -1}, {1, -1}
+    };
+
+    /**
+     * The largest shape size I generate.
+     */
+    private final int _maxSquares;
+    /**
+     * The values of all positions generated so far.
+     */
+    private final Map<Position, Integer> _values =
+            new ConcurrentHashMap<>();
+
+    /**
+     * A generator for shapes of up to MAXSQUARES squares.
+     */
+    TablebaseGenerator(int maxSquares) {
+        _maxSquares = maxSquares;
+    }
+
+    /**
+     * Generate a tablebase as directed by ARGS (see the class comment).
+     */
+    public static void main(String... args) {
+        int squares = DEFAULT_SQUARES;
+        String file = DEFAULT_FILE;
+        try {
+            if (args.length > 0) {
+                squares = Integer.parseInt(args[0]);
+            }
+            if (args.length > 1) {
+                file = args[1];
+            }
+        } catch (NumberFormatException excp) {
+            squares = -1;
+        }
+        if (args.length > 2 || squares < 1
+                || squares > Tablebase.MAX_SQUARES) {
+            System.err.printf("Usage: java amazons.TablebaseGenerator"
+                    + " [N [FILE]], where 1 <= N <= %d%n",
+                    Tablebase.MAX_SQUARES);
+            System.exit(1);
+        }
+        try {
+            int count = new TablebaseGenerator(squares).generate(file);
+            System.out.printf("Wrote %d positions to %s%n", count, file);
+        } catch (IOException excp) {
+            System.err.printf("Could not write %s: %s%n", file,
+                    excp.getMessage());
+            System.exit(1);
+        }
+    }
+
+    /**
+     * Compute every position and write them to the file NAME.  Return
+     * the number of positions written.
+     */
+    int generate(String name) throws IOException {
+        Set<Long> shapes = new HashSet<>();
+        shapes.add(1L);
+        for (int size = 1; size <= _maxSquares; size += 1) {
+            if (size > 1) {
+                shapes = shapes.parallelStream()
+                        .flatMap(shape -> grow(shape).stream())
+                        .collect(Collectors.toSet());
+            }
+            Set<Position> layer = shapes.parallelStream()
+                    .flatMap(shape -> placements(shape).stream())
+                    .collect(Collectors.toSet());
+            layer.parallelStream()
+                    .forEach(p -> _values.put(p, value(p)));
+        }
+        List<Long> keys = new ArrayList<>();
+        List<Integer> amazons = new ArrayList<>();
+        List<Integer> values = new ArrayList<>();
+        for (Map.Entry<Position, Integer> entry : _values.entrySet()) {
+            keys.add(entry.getKey()._shape);
+            amazons.add(entry.getKey()._amazons);
+            values.add(entry.getValue());
+        }
+        Tablebase.write(name, _maxSquares, keys, amazons, values);
+        return keys.size();
+    }
+
+    /**
+     * Return the canonical shapes made by adding one square to SHAPE,
+     * next to one of its squares.
+     */
+    private static Set<Long> grow(long shape) {
+        Set<Long> result = new HashSet<>();
+        int n = Long.bitCount(shape);
+        int[] rows = new int[n + 1], cols = new int[n + 1];
+        int i = 0;
+        for (long bits = shape; bits != 0; bits &= bits - 1) {
+            int bit = Long.numberOfTrailingZeros(bits);
+            rows[i] = bit / FRAME;
+            cols[i] = bit % FRAME;
+            i += 1;
+        }
+        boolean[] noAmazons = new boolean[n + 1];
+        for (int j = 0; j < n; j += 1) {
+            for (int[] step : STEPS) {
+                int r = rows[j] + step[0], c = cols[j] + step[1];
+                if (!inShape(shape, r, c)) {
+                    rows[n] = r;
+                    cols[n] = c;
+                    long[] key =
+                            Tablebase.key(rows, cols, noAmazons, n + 1);
+                    if (key != null) {
+                        result.add(key[0]);
+                    }
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Return the canonical positions with one or two amazons on SHAPE.
+     */
+    private static List<Position> placements(long shape) {
+        int n = Long.bitCount(shape);
+        int[] rows = new int[n], cols = new int[n];
+        int i = 0;
+        for (long bits = shape; bits != 0; bits &= bits - 1) {
+            int bit = Long.numberOfTrailingZeros(bits);
+            rows[i] = bit / FRAME;
+            cols[i] = bit % FRAME;
+            i += 1;
+        }
+        List<Position> result = new ArrayList<>();
+        boolean[] amazon = new boolean[n];
+        for (int a = 0; a < n; a += 1) {
+            amazon[a] = true;
+            result.add(new Position(Tablebase.key(rows, cols, amazon, n)));
+            for (int b = a + 1; b < n; b += 1) {
+                amazon[b] = true;
+                result.add(new Position(
+                        Tablebase.key(rows, cols, amazon, n)));
+                amazon[b] = false;
+            }
+            amazon[a] = false;
+        }
+        return result;
+    }
+
+    /**
+     * Return the number of moves available in position P, all of whose
+     * successors must already be in _values.
+     */
+    private int value(Position p) {
+        long shape = p._shape;
+        int[] amazons = { (p._amazons & 63) - 1, (p._amazons >> 6) - 1 };
+        int bound = Long.bitCount(shape) - (amazons[1] < 0 ? 1 : 2);
+        int result = 0;
+        for (int i = 0; i < 2 && amazons[i] >= 0; i += 1) {
+            int from = amazons[i], other = amazons[1 - i];
+            for (int[] dir : STEPS) {
+                for (int to = step(from, dir); to >= 0
+                         && isEmpty(shape, to, other);
+                     to = step(to, dir)) {
+                    for (int[] throwDir : STEPS) {
+                        for (int spear = step(to, throwDir); spear >= 0
+                                 && isEmpty(shape, spear, other);
+                             spear = step(spear, throwDir)) {
+                            int value = 1 + split(shape & ~(1L << spear),
+                                    to, other);
+                            if (value > result) {
+                                result = value;
+                                if (result == bound) {
+                                    return result;
+                                }
+                            }
+                        }
+                    }
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Return the total value of the components of SHAPE that hold the
+     * amazons on frame squares A and B (B may be -1).
+     */
+    private int split(long shape, int a, int b) {
+        long first = component(shape, a);
+        if (b < 0) {
+            return lookup(first, a, -1);
+        } else if ((first & (1L << b)) != 0) {
+            return lookup(first, a, b);
+        }
+        return lookup(first, a, -1) + lookup(component(shape, b), b, -1);
+    }
+
+    /**
+     * Return the value of the generated position SHAPE with amazons on
+     * frame squares A and B (B may be -1).
+     */
+    private int lookup(long shape, int a, int b) {
+        int n = Long.bitCount(shape);
+        int[] rows = new int[n], cols = new int[n];
+        boolean[] amazon = new boolean[n];
+        int i = 0;
+        for (long bits = shape; bits != 0; bits &= bits - 1) {
+            int bit = Long.numberOfTrailingZeros(bits);
+            rows[i] = bit / FRAME;
+            cols[i] = bit % FRAME;
+            amazon[i] = bit == a || bit == b;
+            i += 1;
+        }
+        return _values.get(new Position(Tablebase.key(rows, cols, amazon,
+                n)));
+    }
+
+    /**
+     * Return the squares of SHAPE connected by king steps to frame
+     * square START.
+     */
+    private static long component(long shape, int start) {
+        long result = 1L << start;
+        long frontier = result;
+        while (frontier != 0) {
+            int k = Long.numberOfTrailingZeros(frontier);
+            frontier &= frontier - 1;
+            for (int[] dir : STEPS) {
+                int next = step(k, dir);
+                if (next >= 0 && (shape & ~result & (1L << next)) != 0) {
+                    result |= 1L << next;
+                    frontier |= 1L << next;
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Return the frame square one step in direction DIR from frame
+     * square K, or -1 if that is off the frame.
+     */
+    private static int step(int k, int[] dir) {
+        int r = k / FRAME + dir[0], c = k % FRAME + dir[1];
+        if (r < 0 || c < 0 || r >= FRAME || c >= FRAME) {
+            return -1;
+        }
+        return FRAME * r + c;
+    }
+
+    /**
+     * Return true iff frame square K is in SHAPE and is not OCCUPIED by
+     * the amazon that is not moving.  A queen's path never crosses its
+     * own square, so the moving amazon needs no check, and the square
+     * it left counts as empty for its spear.
+     */
+    private static boolean isEmpty(long shape, int k, int occupied) {
+        return (shape & (1L << k)) != 0 && k != occupied;
+    }
+
+    /**
+     * Return true iff (R, C) is a square of SHAPE.
+     */
+    private static boolean inShape(long shape, int r, int c) {
+        return r >= 0 && c >= 0 && r < FRAME && c < FRAME
+                && (shape & (1L << (FRAME * r + c))) != 0;
+    }
+
+    /**
+     * A position in canonical form: a shape and the amazons on it, as
+     * returned by Tablebase.key.
+     */
+    private static final class Position {
+        /**
+         * The squares of the position.
+         */
+        private final long _shape;
+        /**
+         * The amazons, encoded as by Tablebase.amazonCode.
+         */
+        private final int _amazons;
+
+        /**
+         * The position whose canonical key is KEY.
+         */
+        Position(long[] key) {
+            _shape = key[0];
+            _amazons = (int) key[1];
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (!(obj instanceof Position)) {
+                return false;
+            }
+            Position other = (Position) obj;
+            return _shape == other._shape && _amazons == other._amazons;
+        }
+
+        @Override
+        public int hashCode() {
+            return Long.hashCode(_shape * 31 + _amazons);
+        }
+    }
+}
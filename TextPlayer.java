@@ -9,24 +9,45 @@ import java.util.regex.Pattern;
  */
 class TextPlayer extends Player {
 
+    /**
+     * True iff my input is typed by a person as it is read.
+     */
+    private final boolean _interactive;
+
     /**
      * A new TextPlayer with no piece or controller (intended to produce
-     * a template).
+     * a template), reading a script.
      */
     TextPlayer() {
-        this(null, null);
+        this(false);
     }
 
     /**
-     * A new TextPlayer playing PIECE under control of CONTROLLER.
+     * A new TextPlayer with no piece or controller (intended to produce
+     * a template), whose input is typed by a person iff INTERACTIVE.
      */
-    private TextPlayer(Piece piece, Controller controller) {
+    TextPlayer(boolean interactive) {
+        this(null, null, interactive);
+    }
+
+    /**
+     * A new TextPlayer playing PIECE under control of CONTROLLER, whose
+     * input is typed by a person iff INTERACTIVE.
+     */
+    private TextPlayer(Piece piece, Controller controller,
+                       boolean interactive) {
         super(piece, controller);
+        _interactive = interactive;
     }
 
     @Override
     Player create(Piece piece, Controller controller) {
-        return new TextPlayer(piece, controller);
+        return new TextPlayer(piece, controller, _interactive);
+    }
+
+    @Override
+    boolean isInteractive() {
+        return _interactive;
     }
 
     @Override
@@ -56,6 +77,8 @@ class TextPlayer extends Player {
                     || Pattern.matches("([a-j]([1-9]|10)-[a-j]"
                         + "([1-9]|10)\\([a-j]([1-9]|10)\\))$", line)
                     || Pattern.matches("undo$", line)
+                    || Pattern.matches("analyze\\s+(\\d+)$", line)
+                    || _controller.isAddedCommand(line)
             ) {
                 return line;
             } else {
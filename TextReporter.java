@@ -1,5 +1,8 @@
 package amazons;
 
+import java.io.PrintStream;
+import java.util.List;
+
 /**
  * A Reporter that uses the standard output for messaeges and standard
  * error for error messages.
@@ -8,20 +11,51 @@ package amazons;
  */
 class TextReporter implements Reporter {
 
+    /**
+     * The streams for messages and for error messages.
+     */
+    private final PrintStream _out, _err;
+
+    /**
+     * A reporter using the standard output and standard error.
+     */
+    TextReporter() {
+        this(System.out, System.err);
+    }
+
+    /**
+     * A reporter writing messages to OUT and error messages to ERR.
+     */
+    TextReporter(PrintStream out, PrintStream err) {
+        _out = out;
+        _err = err;
+    }
+
     @Override
     public void reportError(String fmt, Object... args) {
-        System.err.printf(fmt, args);
-        System.err.println();
+        _err.printf(fmt, args);
+        _err.println();
     }
 
     @Override
     public void reportNote(String fmt, Object... args) {
-        System.out.printf("* " + fmt, args);
-        System.out.println();
+        _out.printf("* " + fmt, args);
+        _out.println();
     }
 
     @Override
     public void reportMove(Move move) {
-        System.out.printf("* %s%n", move);
+        _out.printf("* %s%n", move);
+    }
+
+    @Override
+    public void reportAnalysis(List<Variation> lines) {
+        if (lines.isEmpty()) {
+            return;
+        }
+        _out.printf("* depth %d:%n", lines.get(0).depth());
+        for (int i = 0; i < lines.size(); i += 1) {
+            _out.printf("*   %d. %s%n", i + 1, lines.get(i));
+        }
     }
 }
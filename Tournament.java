@@ -0,0 +1,388 @@
+package amazons;
+
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Scanner;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+import static amazons.Piece.WHITE;
+import static amazons.Utils.error;
+
+/**
+ * A match of self-play games between two engines, a challenger and a
+ * baseline, to tell whether the challenger is the stronger.  Each game
+ * is played headless by a Controller of its own, with a NullView and no
+ * output, and many games are played at once, one per thread, each
+ * searching on a thread of its own.
+ *
+ * <p>Games are played in pairs from the same opening, the challenger
+ * playing White in the first game of a pair and Black in the second.
+ * The first few plies of each game are chosen at random (see
+ * AI.setRandomPlies) from the controller's random numbers, which are
+ * seeded (see Controller.setSeed) by the match's seed plus the number
+ * of the pair, so that a match can be replayed.
+ *
+ * <p>As games finish, the match applies a sequential probability ratio
+ * test of the hypothesis that the challenger is no stronger than the
+ * baseline (0 Elo) against the hypothesis that it is stronger by a
+ * given number of Elo points, and stops as soon as the test accepts
+ * either, with error rates ALPHA and BETA.  Since Amazons has no
+ * draws, every game that finishes is a win or a loss.
+ *
+ * @author Shichao Han
+ */
+final class Tournament {
+
+    /**
+     * The default number of plies chosen at random to open each game.
+     */
+    static final int DEFAULT_RANDOM_PLIES = 4;
+    /**
+     * The default strength, in Elo points, of a stronger challenger.
+     */
+    static final double DEFAULT_ELO = 20;
+    /**
+     * The chances of accepting that the challenger is stronger when it
+     * is not, and of rejecting it when it is.
+     */
+    static final double ALPHA = 0.05, BETA = 0.05;
+    /**
+     * The number of games between progress reports.
+     */
+    static final int REPORT_INTERVAL = 100;
+
+    /**
+     * Discards everything written to it.
+     */
+    private static final PrintStream NOWHERE =
+        new PrintStream(OutputStream.nullOutputStream());
+    /**
+     * Reports errors only.
+     */
+    private static final Reporter QUIET = new TextReporter(NOWHERE,
+                                                           System.err);
+    /**
+     * Creates the threads of the games and of their controllers.
+     */
+    private static final ThreadFactory DAEMONS = task -> {
+        Thread thread = new Thread(task, "selfplay");
+        thread.setDaemon(true);
+        return thread;
+    };
+
+    /**
+     * The templates of the two engines.
+     */
+    private final AI _challenger, _baseline;
+    /**
+     * The seed of the first pair of games.
+     */
+    private final long _seed;
+    /**
+     * The advantage of the challenger, in Elo points, under the
+     * alternative hypothesis.
+     */
+    private final double _elo;
+
+    /**
+     * A match between the engines CHALLENGER and BASELINE (AI
+     * templates, which are changed to open games with RANDOMPLIES random
+     * plies and not to ponder), seeded with SEED, testing for an
+     * advantage to the challenger of ELO points.
+     */
+    Tournament(AI challenger, AI baseline, int randomPlies, long seed,
+               double elo) {
+        if (elo <= 0) {
+            throw error("tested advantage must be positive");
+        }
+        _challenger = challenger;
+        _baseline = baseline;
+        _seed = seed;
+        _elo = elo;
+        for (AI engine : new AI[] { challenger, baseline }) {
+            engine.setRandomPlies(randomPlies);
+            engine.setPondering(false);
+        }
+    }
+
+    /**
+     * Return an AI template with the settings in SPEC, a
+     * comma-separated list of any of "alphabeta" or "mtdf" (the kind of
+     * search), "millis=N" (the time limit per move), "depth=N" (the
+     * search depth), and "threads=N" (the threads per search).  An
+     * empty or null SPEC gives the default AI.
+     */
+    static AI engine(String spec) {
+        AI result = new AI();
+        if (spec == null || spec.isEmpty()) {
+            return result;
+        }
+        for (String setting : spec.split(",")) {
+            String[] parts = setting.trim().split("=", 2);
+            try {
+                switch (parts[0]) {
+                case "alphabeta":
+                case "mtdf":
+                    if (parts.length > 1) {
+                        throw error("bad engine setting: %s", setting);
+                    }
+                    result.useMtdf(parts[0].equals("mtdf"));
+                    break;
+                case "millis":
+                    result.setTimeLimit(Long.parseLong(value(parts)));
+                    break;
+                case "depth":
+                    result.setDepthLimit(Integer.parseInt(value(parts)));
+                    break;
+                case "threads":
+                    result.setThreads(Integer.parseInt(value(parts)));
+                    break;
+                default:
+                    throw error("bad engine setting: %s", setting);
+                }
+            } catch (NumberFormatException excp) {
+                throw error("bad engine setting: %s", setting);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Return the value in PARTS, a setting split at its "=".
+     */
+    private static String value(String[] parts) {
+        if (parts.length < 2) {
+            throw error("missing value for %s", parts[0]);
+        }
+        return parts[1];
+    }
+
+    /**
+     * Play at most GAMES games (a whole number of pairs, if GAMES is
+     * even), SIMUL at once, until the test accepts a hypothesis,
+     * reporting progress every REPORT_INTERVAL games on PROGRESS.
+     * Return the final result.  Games still in progress when the test
+     * decides are abandoned.
+     */
+    Result run(int games, int simul, PrintStream progress) {
+        return run(0, games, simul, true, progress);
+    }
+
+    /**
+     * Play games number FIRST through FIRST + GAMES - 1 of the match to
+     * the end, SIMUL at once, and return their result.  The games are
+     * those that run would play, so that the games of one match may be
+     * split among several runs, even in several processes, and their
+     * results added up.
+     */
+    Result play(int first, int games, int simul) {
+        return run(first, games, simul, false, null);
+    }
+
+    /**
+     * Play games FIRST through FIRST + GAMES - 1, SIMUL at once, until
+     * the test accepts a hypothesis, if SEQUENTIAL, or else all of
+     * them, reporting progress every REPORT_INTERVAL games on PROGRESS,
+     * if it is not null.  Return the result.
+     */
+    private Result run(int first, int games, int simul, boolean sequential,
+                       PrintStream progress) {
+        if (first < 0 || games < 1 || simul < 1) {
+            throw error("need at least one game, played one at a time");
+        }
+        Result result = new Result(_elo);
+        ExecutorService pool = Executors.newFixedThreadPool(simul, DAEMONS);
+        CompletionService<Piece> finished =
+            new ExecutorCompletionService<>(pool);
+        Map<Future<Piece>, Integer> numbers = new HashMap<>();
+        int started = 0;
+        try {
+            while ((!sequential || result.decision() == 0)
+                   && (started < games || !numbers.isEmpty())) {
+                while (started < games && numbers.size() < simul) {
+                    int game = first + started;
+                    numbers.put(finished.submit(() -> play(game)), game);
+                    started += 1;
+                }
+                Future<Piece> done = finished.take();
+                int game = numbers.remove(done);
+                Piece winner = done.get();
+                if (winner != null) {
+                    boolean whiteWon = winner == WHITE;
+                    result.add(whiteWon == (game % 2 == 0), whiteWon);
+                    if (progress != null
+                        && result.games() % REPORT_INTERVAL == 0) {
+                        progress.println(result);
+                    }
+                }
+            }
+        } catch (InterruptedException excp) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException excp) {
+            throw new IllegalStateException(excp.getCause());
+        } finally {
+            pool.shutdownNow();
+        }
+        return result;
+    }
+
+    /**
+     * Play game number GAME of the match, and return its winner, or
+     * null if it was abandoned.
+     */
+    private Piece play(int game) {
+        boolean challengerWhite = game % 2 == 0;
+        Controller control =
+            new Controller(new NullView(), null, QUIET, new TextPlayer(),
+                           _baseline, new Scanner("auto white"), NOWHERE,
+                           null, DAEMONS);
+        control.setAutoPlayers(challengerWhite ? _challenger : _baseline,
+                               challengerWhite ? _baseline : _challenger);
+        control.setSeed(_seed + game / 2);
+        control.play();
+        return control.board().winner();
+    }
+
+    /**
+     * The games won and lost by the challenger so far, and the state of
+     * the test.
+     */
+    static final class Result {
+        /**
+         * The advantage tested for, in Elo points.
+         */
+        private final double _elo;
+        /**
+         * The games won and lost by the challenger, and the games won by
+         * White.
+         */
+        private int _wins, _losses, _whiteWins;
+
+        /**
+         * An empty result of a test for an advantage of ELO points.
+         */
+        Result(double elo) {
+            _elo = elo;
+        }
+
+        /**
+         * A result of a test for an advantage of ELO points, counting
+         * WINS and LOSSES of the challenger, WHITEWINS of them won by
+         * White.
+         */
+        Result(double elo, int wins, int losses, int whiteWins) {
+            _elo = elo;
+            _wins = wins;
+            _losses = losses;
+            _whiteWins = whiteWins;
+        }
+
+        /**
+         * Count one more game, won by the challenger iff WON, and by
+         * White iff WHITEWON.
+         */
+        void add(boolean won, boolean whiteWon) {
+            if (won) {
+                _wins += 1;
+            } else {
+                _losses += 1;
+            }
+            if (whiteWon) {
+                _whiteWins += 1;
+            }
+        }
+
+        /**
+         * Count the games of OTHER as well.
+         */
+        void add(Result other) {
+            _wins += other._wins;
+            _losses += other._losses;
+            _whiteWins += other._whiteWins;
+        }
+
+        /**
+         * Return the number of games counted.
+         */
+        int games() {
+            return _wins + _losses;
+        }
+
+        /**
+         * Return the number of games won by the challenger.
+         */
+        int wins() {
+            return _wins;
+        }
+
+        /**
+         * Return the number of games lost by the challenger.
+         */
+        int losses() {
+            return _losses;
+        }
+
+        /**
+         * Return the number of games won by White.
+         */
+        int whiteWins() {
+            return _whiteWins;
+        }
+
+        /**
+         * Return the log of the ratio of the likelihood of my games if
+         * the challenger were stronger by my Elo advantage to their
+         * likelihood if it were as strong as the baseline.
+         */
+        double llr() {
+            double p1 = 1 / (1 + Math.pow(10, -_elo / 400));
+            return _wins * Math.log(2 * p1)
+                + _losses * Math.log(2 * (1 - p1));
+        }
+
+        /**
+         * Return 1 if the test accepts that the challenger is stronger,
+         * -1 if it accepts that it is not, and 0 if it needs more games.
+         */
+        int decision() {
+            double llr = llr();
+            if (llr >= Math.log((1 - BETA) / ALPHA)) {
+                return 1;
+            } else if (llr <= Math.log(BETA / (1 - ALPHA))) {
+                return -1;
+            } else {
+                return 0;
+            }
+        }
+
+        /**
+         * Return an estimate of the challenger's advantage in Elo
+         * points, from its score with half a game added to each side.
+         */
+        double eloEstimate() {
+            double score = (_wins + 0.5) / (games() + 1);
+            return 400 * Math.log10(score / (1 - score));
+        }
+
+        @Override
+        public String toString() {
+            String verdict =
+                decision() > 0 ? "challenger stronger"
+                : decision() < 0 ? "challenger not stronger"
+                : "undecided";
+            return String.format("%d games: challenger +%d -%d (Elo %+.0f),"
+                    + " White won %d; LLR %.2f [%.2f, %.2f], %s",
+                    games(), _wins, _losses, eloEstimate(), _whiteWins,
+                    llr(), Math.log(BETA / (1 - ALPHA)),
+                    Math.log((1 - BETA) / ALPHA), verdict);
+        }
+    }
+}
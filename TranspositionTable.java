@@ -0,0 +1,174 @@
+package amazons;
+
+/**
+ * A fixed-size table of search results, indexed by Zobrist hash (see
+ * Board.hash()), that several searching threads may share without
+ * locking.  Each entry records the depth to which its position was
+ * searched, the value found, whether that value is exact or only a
+ * bound, and the best move, packed into a single long.
+ *
+ * <p>Each slot holds two longs: the packed entry, and the entry XORed
+ * with the hash of its position.  A reader accepts a slot only if the
+ * two agree with the hash it is looking for, so an entry torn by two
+ * threads writing the same slot at once reads as absent rather than
+ * as a wrong answer.
+ *
+ * @author Shichao Han
+ */
+final class TranspositionTable {
+
+    /**
+     * The result of probe for a position that is not in the table.
+     */
+    static final long NONE = 0;
+    /**
+     * Bound types: the stored value is the value of the position, a
+     * lower bound on it, or an upper bound on it.
+     */
+    static final int EXACT = 1, LOWER = 2, UPPER = 3;
+    /**
+     * The default number of slots.
+     */
+    static final int DEFAULT_SIZE = 1 << 20;
+    /**
+     * The number of bits in each field of an entry.
+     */
+    private static final int VALUE_BITS = 32, MOVE_BITS = 22,
+        DEPTH_BITS = 8;
+    /**
+     * The number of bits in each square index in a packed move.
+     */
+    private static final int SQUARE_BITS = 7;
+
+    /**
+     * The packed entry in each slot, XORed with its hash.
+     */
+    private final long[] _checks;
+    /**
+     * The packed entry in each slot.
+     */
+    private final long[] _entries;
+
+    /**
+     * A table of DEFAULT_SIZE slots.
+     */
+    TranspositionTable() {
+        this(DEFAULT_SIZE);
+    }
+
+    /**
+     * A table of SIZE slots (a power of 2).
+     */
+    TranspositionTable(int size) {
+        _checks = new long[size];
+        _entries = new long[size];
+    }
+
+    /**
+     * Return the number of slots in me.
+     */
+    int size() {
+        return _entries.length;
+    }
+
+    /**
+     * Return the entry for the position whose hash is HASH, or NONE.
+     * Its parts are extracted with value, depth, bound, and move.
+     */
+    long probe(long hash) {
+        int slot = slot(hash);
+        long entry = _entries[slot];
+        if (entry == NONE || (_checks[slot] ^ entry) != hash) {
+            return NONE;
+        }
+        return entry;
+    }
+
+    /**
+     * Record that the position whose hash is HASH, searched DEPTH
+     * plies deep, has value VALUE, of bound type BOUND, and best move
+     * MOVE (which may be null).  A deeper result already stored for the
+     * same position is kept instead.
+     */
+    void store(long hash, int depth, int value, int bound, Move move) {
+        int slot = slot(hash);
+        long old = _entries[slot];
+        if (old != NONE && (_checks[slot] ^ old) == hash
+                && depth(old) > depth) {
+            return;
+        }
+        long entry = (value & 0xffffffffL)
+                | (long) encode(move) << VALUE_BITS
+                | (long) Math.min(depth, (1 << DEPTH_BITS) - 1)
+                  << (VALUE_BITS + MOVE_BITS)
+                | (long) bound << (VALUE_BITS + MOVE_BITS + DEPTH_BITS);
+        _entries[slot] = entry;
+        _checks[slot] = entry ^ hash;
+    }
+
+    /**
+     * Empty me.
+     */
+    void clear() {
+        for (int i = 0; i < _entries.length; i += 1) {
+            _entries[i] = NONE;
+            _checks[i] = 0;
+        }
+    }
+
+    /**
+     * Return the value recorded in ENTRY.
+     */
+    static int value(long entry) {
+        return (int) entry;
+    }
+
+    /**
+     * Return the search depth recorded in ENTRY.
+     */
+    static int depth(long entry) {
+        return (int) (entry >>> (VALUE_BITS + MOVE_BITS))
+                & ((1 << DEPTH_BITS) - 1);
+    }
+
+    /**
+     * Return the bound type (EXACT, LOWER, or UPPER) of ENTRY.
+     */
+    static int bound(long entry) {
+        return (int) (entry >>> (VALUE_BITS + MOVE_BITS + DEPTH_BITS));
+    }
+
+    /**
+     * Return the best move recorded in ENTRY, or null.
+     */
+    static Move move(long entry) {
+        int code = (int) (entry >>> VALUE_BITS) & ((1 << MOVE_BITS) - 1);
+        if (code == 0) {
+            return null;
+        }
+        code -= 1;
+        int mask = (1 << SQUARE_BITS) - 1;
+        return Move.mv(Square.sq(code >>> (2 * SQUARE_BITS)),
+                Square.sq(code >>> SQUARE_BITS & mask),
+                Square.sq(code & mask));
+    }
+
+    /**
+     * Return MOVE packed into MOVE_BITS bits, 0 for null.
+     */
+    private static int encode(Move move) {
+        if (move == null) {
+            return 0;
+        }
+        return (move.from().index() << (2 * SQUARE_BITS)
+                | move.to().index() << SQUARE_BITS
+                | move.spear().index()) + 1;
+    }
+
+    /**
+     * Return the slot for HASH.
+     */
+    private int slot(long hash) {
+        return (int) (hash ^ (hash >>> 32)) & (_entries.length - 1);
+    }
+}
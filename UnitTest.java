@@ -3,9 +3,35 @@ package amazons;
 import org.junit.Test;
 import ucb.junit.textui;
 
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.PipedInputStream;
+import java.io.PipedOutputStream;
+import java.io.PrintStream;
+import java.io.StringReader;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.Iterator;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 
 import static amazons.Piece.*;
+import static amazons.Utils.iterable;
 import static org.junit.Assert.*;
 
 /**
@@ -336,6 +362,1269 @@ public class UnitTest {
 
     }
 
+    @Test
+    public void testRegions() {
+        Board b = new Board();
+        assertEquals(1, b.regions().size());
+        for (int row = 0; row < Board.SIZE; row += 1) {
+            b.put(SPEAR, 5, row);
+        }
+        b.put(EMPTY, 6, 0);
+        b.put(EMPTY, 9, 3);
+        b.put(BLACK, 8, 1);
+        List<Region> regions = b.regions();
+        assertEquals(2, regions.size());
+        Region left = regions.get(0), right = regions.get(1);
+        assertTrue(left.isContested());
+        assertTrue(left.contains(Square.sq("a1")));
+        assertFalse(left.contains(Square.sq("a4")));
+        assertEquals(BLACK, right.owner());
+        assertEquals(37, right.size());
+        Iterator<Move> moves = b.contestedMoves(BLACK);
+        while (moves.hasNext()) {
+            assertTrue(left.amazons(BLACK).contains(moves.next().from()));
+        }
+    }
 
-}
+    @Test
+    public void testIncrementalRegions() {
+        Random random = new Random(61);
+        for (int game = 0; game < 5; game += 1) {
+            Board b = new Board();
+            while (b.winner() == null) {
+                List<Move> moves = new ArrayList<>();
+                b.legalMoves().forEachRemaining(moves::add);
+                b.makeMove(moves.get(random.nextInt(moves.size())));
+                assertSameRegions(b);
+            }
+            while (b.numMoves() > 0) {
+                b.undo();
+                assertSameRegions(b);
+            }
+        }
+    }
+
+    @Test
+    public void testRegionSolver() {
+        Board b = new Board();
+        for (int k = 0; k < Board.SIZE * Board.SIZE; k += 1) {
+            b.put(SPEAR, Square.sq(k));
+        }
+        for (int col = 0; col < 6; col += 1) {
+            b.put(EMPTY, col, 0);
+        }
+        b.put(WHITE, 0, 0);
+        b.put(EMPTY, 0, 2);
+        b.put(EMPTY, 1, 2);
+        b.put(EMPTY, 0, 3);
+        b.put(BLACK, 1, 3);
+        b.put(EMPTY, 8, 8);
+        RegionSolver solver = new RegionSolver();
+        int[] values = new int[3];
+        for (Region region : b.regions()) {
+            int value = solver.solve(region);
+            if (region.owner() == WHITE) {
+                values[0] = value;
+            } else if (region.owner() == BLACK) {
+                values[1] = value;
+            } else {
+                values[2] = value;
+            }
+        }
+        assertEquals(5, values[0]);
+        assertEquals(3, values[1]);
+        assertEquals(0, values[2]);
+        b.put(EMPTY, 6, 4);
+        b.put(WHITE, 7, 5);
+        b.put(EMPTY, 8, 4);
+        for (Region region : b.regions()) {
+            if (region.contains(Square.sq(6, 4))) {
+                assertEquals(2, region.size());
+                assertEquals(1, solver.solve(region));
+            }
+        }
+    }
+
+    @Test
+    public void testTablebase() throws IOException {
+        File file = File.createTempFile("amazons", ".tb");
+        file.deleteOnExit();
+        new TablebaseGenerator(6).generate(file.getPath());
+        Tablebase table = Tablebase.open(file.getPath());
+        RegionSolver solver = new RegionSolver();
+        Random random = new Random(61);
+        for (int trial = 0; trial < 300; trial += 1) {
+            int size = 2 + random.nextInt(5);
+            List<Integer> squares = new ArrayList<>();
+            squares.add(random.nextInt(Board.SIZE * Board.SIZE));
+            while (squares.size() < size) {
+                Square s = Square.sq(squares.get(
+                        random.nextInt(squares.size())));
+                Square next = s.queenMove(random.nextInt(8), 1);
+                if (next != null && !squares.contains(next.index())) {
+                    squares.add(next.index());
+                }
+            }
+            int[] amazons = new int[1 + random.nextInt(2)];
+            long[] empty = new long[2];
+            for (int i = 0; i < size; i += 1) {
+                int k = squares.get(i);
+                if (i < amazons.length) {
+                    amazons[i] = k;
+                } else {
+                    empty[k / Long.SIZE] |= 1L << (k % Long.SIZE);
+                }
+            }
+            assertEquals(solver.solve(empty[0], empty[1], amazons.clone()),
+                    table.lookup(empty[0], empty[1], amazons));
+        }
+    }
+
+    @Test
+    public void testSymmetry() {
+        for (int sym = 0; sym < Square.SYMMETRIES; sym += 1) {
+            for (Square s : Square.getSquareList()) {
+                assertEquals(s, s.transform(sym).transform(
+                        Square.inverse(sym)));
+            }
+        }
+        assertEquals(Square.sq("j4"), Square.sq("a4").transform(4));
+        Board init = new Board();
+        assertEquals(init.hash(), init.transform(4).hash());
+        Random random = new Random(61);
+        Board b = new Board();
+        for (int ply = 0; ply < 20; ply += 1) {
+            List<Move> moves = new ArrayList<>();
+            for (Move move : iterable(b.legalMoves())) {
+                moves.add(move);
+            }
+            Move move = moves.get(random.nextInt(moves.size()));
+            for (int sym = 0; sym < Square.SYMMETRIES; sym += 1) {
+                Board image = b.transform(sym);
+                assertEquals(b.canonicalHash(), image.canonicalHash());
+                assertTrue(image.isLegal(move.transform(sym)));
+                image.makeMove(move.transform(sym));
+                b.makeMove(move);
+                assertEquals(b.canonicalHash(), image.canonicalHash());
+                b.undo();
+            }
+            b.makeMove(move);
+        }
+    }
+
+    @Test
+    public void testTranspositionTable() {
+        TranspositionTable table = new TranspositionTable(1 << 4);
+        Move move = Move.mv("d1-d7(h7)");
+        assertEquals(TranspositionTable.NONE, table.probe(61));
+        table.store(61, 3, -1234, TranspositionTable.LOWER, move);
+        long entry = table.probe(61);
+        assertEquals(-1234, TranspositionTable.value(entry));
+        assertEquals(3, TranspositionTable.depth(entry));
+        assertEquals(TranspositionTable.LOWER,
+                TranspositionTable.bound(entry));
+        assertEquals(move, TranspositionTable.move(entry));
+        assertEquals(TranspositionTable.NONE, table.probe(61 + (1 << 4)));
+        table.store(61, 2, 5, TranspositionTable.EXACT, null);
+        assertEquals(3, TranspositionTable.depth(table.probe(61)));
+        table.store(61 + (1 << 4), 1, 5, TranspositionTable.EXACT, null);
+        entry = table.probe(61 + (1 << 4));
+        assertEquals(TranspositionTable.EXACT,
+                TranspositionTable.bound(entry));
+        assertEquals(null, TranspositionTable.move(entry));
+        assertEquals(TranspositionTable.NONE, table.probe(61));
+    }
+
+    @Test
+    public void testCancelledSearch() {
+        Board b = new Board();
+        SearchToken token = new SearchToken();
+        token.cancel();
+        Move move = new AI().findMove(b, 3, token);
+        assertTrue(move != null && b.isLegal(move));
+        assertTrue(token.isStopped());
+        assertTrue(token.nodes() <= 2 * SearchToken.CHECK_INTERVAL);
+        assertEquals(new Board().toString(), b.toString());
+        token = new SearchToken(50);
+        long start = System.currentTimeMillis();
+        move = new AI().findMove(b, 20, token);
+        assertTrue(move != null && b.isLegal(move));
+        assertTrue(System.currentTimeMillis() - start < 5000);
+
+        AI ai = new AI();
+        Move shallow = ai.findMove(b, 1);
+        token = new SearchToken(1);
+        while (!token.checkpoint()) {
+            continue;
+        }
+        assertEquals(shallow, ai.findMove(b, 3, token));
+        SearchToken whole = new SearchToken();
+        SearchToken part = new SearchToken(whole, 0);
+        part.cancel();
+        assertTrue(whole.isCancelled());
+        whole = new SearchToken();
+        part = new SearchToken(whole, 0);
+        whole.cancel();
+        assertTrue(part.isCancelled());
+    }
+
+    @Test
+    public void testAnalysis() {
+        Board b = smallBoard();
+        List<List<Variation>> reports = new ArrayList<>();
+        Reporter reporter = new TextReporter() {
+            @Override
+            public void reportAnalysis(List<Variation> lines) {
+                reports.add(lines);
+            }
+        };
+        List<Variation> lines =
+            new AI().analyze(b, 3, 4, new SearchToken(), reporter);
+        assertEquals(3, reports.size());
+        assertEquals(lines, reports.get(2));
+        assertEquals(4, lines.size());
+        AI ai = new AI();
+        assertEquals(ai.findMove(b, 3), lines.get(0).move());
+        for (int i = 0; i < lines.size(); i += 1) {
+            Variation line = lines.get(i);
+            assertEquals(3, line.depth());
+            if (i > 0) {
+                assertTrue(lines.get(i - 1).value() >= line.value());
+            }
+            Board child = new Board(b);
+            child.makeMove(line.move());
+            AI checker = new AI();
+            checker.findMove(child, 2);
+            assertEquals(checker.lastValue(), line.value());
+        }
+    }
+
+    @Test
+    public void testEngineProtocol() throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        PrintStream output = new PrintStream(bytes, true);
+        String input = "isready\nposition start moves d1-d7(g7) a1-b1(c1)\n"
+            + "setoption name MultiPV value 2\ngo depth 1\nquit\n";
+        new EngineProtocol(new BufferedReader(new StringReader(input)),
+                           output).run();
+        String[] lines = bytes.toString().split("\\R");
+        assertEquals("readyok", lines[0]);
+        assertTrue(lines[1].startsWith("info string error"));
+        String last = lines[lines.length - 1];
+        assertTrue(last.startsWith("bestmove "));
+        assertTrue(new Board().isLegal(Move.mv(last.substring(9))));
+    }
+
+    @Test
+    public void testEngine() throws Exception {
+        try (Engine engine = new Engine(3, new TranspositionTable())) {
+            Board b = smallBoard();
+            List<CompletableFuture<SearchResult>> results =
+                new ArrayList<>();
+            for (int i = 0; i < 6; i += 1) {
+                results.add(engine.search(b, 2, 0, 0, 1 + i % 3));
+            }
+            CompletableFuture<SearchResult> endless =
+                engine.search(new Board(), 0, 0, 0);
+            assertTrue(endless.cancel(false));
+            AI ai = new AI();
+            ai.findMove(b, 2);
+            for (int i = 0; i < results.size(); i += 1) {
+                SearchResult result = results.get(i).get();
+                assertEquals(2, result.depth());
+                assertEquals(1 + i % 3, result.lines().size());
+                assertTrue(b.isLegal(result.move()));
+                assertEquals(ai.lastValue(), result.value());
+                assertEquals(result.move(), result.line().get(0));
+                assertTrue(result.nodes() > 0);
+            }
+            SearchResult limited =
+                engine.search(new Board(), 0, 0, 1000).get();
+            assertTrue(new Board().isLegal(limited.move()));
+            assertTrue(limited.nodes() < 1000 + SearchToken.CHECK_INTERVAL);
+        }
+    }
+
+    @Test
+    public void testGameServer() throws Exception {
+        try (GameServer server = new GameServer(0, 2)) {
+            Thread acceptor = new Thread(() -> {
+                try {
+                    server.serve();
+                } catch (IOException excp) {
+                    throw new AssertionError(excp);
+                }
+            });
+            acceptor.start();
+            List<Socket> clients = new ArrayList<>();
+            for (int i = 0; i < 4; i += 1) {
+                Socket client = new Socket(InetAddress.getLoopbackAddress(),
+                                           server.port());
+                client.setSoTimeout(30000);
+                clients.add(client);
+                PrintStream out =
+                    new PrintStream(client.getOutputStream(), true);
+                out.println(i % 2 == 0 ? "d1-d7(g7)" : "a4-a6(b6)");
+                out.println("dump");
+            }
+            for (int i = 0; i < clients.size(); i += 1) {
+                Socket client = clients.get(i);
+                InputStream in = client.getInputStream();
+                StringBuilder text = new StringBuilder();
+                while (text.indexOf("===") == text.lastIndexOf("===")) {
+                    int c = in.read();
+                    assertTrue(c >= 0);
+                    text.append((char) c);
+                }
+                Matcher report = Pattern.compile("\\* ([^\\s]+-[^\\s]+)\\n")
+                    .matcher(text);
+                assertTrue(report.find());
+                Move reply = Move.mv(report.group(1));
+                Board b = new Board();
+                b.makeMove(Move.mv(i % 2 == 0 ? "d1-d7(g7)" : "a4-a6(b6)"));
+                assertTrue(b.isLegal(reply));
+                new PrintStream(client.getOutputStream(), true)
+                    .println("quit");
+                while (in.read() >= 0) {
+                    continue;
+                }
+                client.close();
+            }
+            server.close();
+            acceptor.join(10000);
+            assertFalse(acceptor.isAlive());
+        }
+    }
+
+    @Test
+    public void testServerAnalysis() throws Exception {
+        try (GameServer server = new GameServer(0, 1)) {
+            Thread acceptor = new Thread(() -> {
+                try {
+                    server.serve();
+                } catch (IOException excp) {
+                    throw new AssertionError(excp);
+                }
+            });
+            acceptor.start();
+            try (Socket client = new Socket(InetAddress.getLoopbackAddress(),
+                                            server.port())) {
+                client.setSoTimeout(30000);
+                PrintStream out =
+                    new PrintStream(client.getOutputStream(), true);
+                out.println("analyze 1");
+                InputStream in = client.getInputStream();
+                StringBuilder text = new StringBuilder();
+                while (text.indexOf("* depth 1:") < 0) {
+                    int c = in.read();
+                    assertTrue(c >= 0);
+                    text.append((char) c);
+                }
+                out.println("quit");
+                while (in.read() >= 0) {
+                    continue;
+                }
+            }
+            SearchScheduler scheduler = server.scheduler();
+            for (int i = 0; i < 100
+                     && scheduler.finished(
+                         SearchScheduler.Priority.BACKGROUND) == 0; i += 1) {
+                Thread.sleep(100);
+            }
+            assertEquals(1, scheduler.finished(
+                SearchScheduler.Priority.BACKGROUND));
+            assertEquals(0, scheduler.finished(
+                SearchScheduler.Priority.INTERACTIVE));
+            server.close();
+            acceptor.join(10000);
+        }
+    }
+
+    @Test
+    public void testGameFeed() throws InterruptedException {
+        GameFeed feed = new GameFeed();
+        GameFeed.Subscription early = feed.subscribe();
+        assertTrue(early.next().startsWith("snapshot 0 W 0 "));
+        Board b = new Board();
+        AI ai = new AI();
+        b.makeMove(ai.findMove(b, 1));
+        feed.update(new Board(b));
+        feed.update(new Board(b));
+        assertEquals("move 1 " + b.getMyMoves().peek(), early.next());
+        b.undo();
+        feed.update(new Board(b));
+        assertEquals("undo 2", early.next());
+        GameFeed.Subscription slow = feed.subscribe();
+        assertTrue(slow.next().startsWith("snapshot 0 W 0 "));
+        for (int i = 0; i < GameFeed.CAPACITY; i += 1) {
+            b.makeMove(ai.findMove(b, 1));
+            feed.update(new Board(b));
+        }
+        String resync = slow.next();
+        assertTrue(resync.startsWith("snapshot "));
+        assertEquals(1, slow.resyncs());
+        int moves = Integer.parseInt(resync.split(" ")[3]);
+        feed.close();
+        String event;
+        while ((event = slow.next()) != null) {
+            assertFalse(event.startsWith("undo"));
+            if (event.startsWith("move ")) {
+                moves += 1;
+            } else if (event.startsWith("snapshot ")) {
+                assertEquals(moves, Integer.parseInt(event.split(" ")[3]));
+            } else {
+                assertTrue(event.startsWith("over "));
+            }
+        }
+        assertEquals(b.numMoves(), moves);
+        assertEquals(0, early.resyncs());
+
+        GameFeed ending = new GameFeed();
+        GameFeed.Subscription last = ending.subscribe();
+        b = new Board();
+        for (int i = 1; i < GameFeed.SNAPSHOT_INTERVAL; i += 1) {
+            b.makeMove(ai.findMove(b, 1));
+            ending.update(new Board(b));
+        }
+        ending.close();
+        assertEquals(GameFeed.SNAPSHOT_INTERVAL + 1, ending.published());
+        String previous = null;
+        while ((event = last.next()) != null) {
+            previous = event;
+        }
+        assertEquals("over " + GameFeed.SNAPSHOT_INTERVAL, previous);
+    }
+
+    @Test
+    public void testSharedEvalCache() throws InterruptedException {
+        EvalCache cache = new EvalCache(1 << 4);
+        boolean[] wrong = new boolean[1];
+        List<Thread> threads = new ArrayList<>();
+        for (int t = 0; t < 4; t += 1) {
+            long seed = t;
+            threads.add(new Thread(() -> {
+                Random random = new Random(seed);
+                for (int i = 0; i < 200000; i += 1) {
+                    long key = random.nextInt(1000) * 0x9E3779B97F4A7C15L;
+                    int expected = (int) (key >>> 40);
+                    int value = cache.get(key);
+                    if (value != EvalCache.MISSING && value != expected) {
+                        wrong[0] = true;
+                    }
+                    cache.put(key, expected);
+                }
+            }));
+        }
+        for (Thread thread : threads) {
+            thread.start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assertFalse(wrong[0]);
+    }
+
+    @Test
+    public void testSimulLimit() throws Exception {
+        try (GameServer server = new GameServer(0, 1, 1)) {
+            Thread acceptor = new Thread(() -> {
+                try {
+                    server.serve();
+                } catch (IOException excp) {
+                    throw new AssertionError(excp);
+                }
+            });
+            acceptor.start();
+            Socket first = new Socket(InetAddress.getLoopbackAddress(),
+                                      server.port());
+            first.setSoTimeout(30000);
+            BufferedReader firstIn = new BufferedReader(
+                new InputStreamReader(first.getInputStream()));
+            assertEquals("* Game 0", firstIn.readLine());
+            Socket second = new Socket(InetAddress.getLoopbackAddress(),
+                                       server.port());
+            second.setSoTimeout(30000);
+            BufferedReader secondIn = new BufferedReader(
+                new InputStreamReader(second.getInputStream()));
+            assertEquals("error all games taken", secondIn.readLine());
+            new PrintStream(second.getOutputStream(), true)
+                .println("watch 0");
+            assertTrue(secondIn.readLine().startsWith("snapshot 0 W 0 "));
+            new PrintStream(first.getOutputStream(), true)
+                .println("d1-d7(g7)");
+            assertEquals("move 1 d1-d7(g7)", secondIn.readLine());
+            first.close();
+            assertTrue(secondIn.readLine().startsWith("move 2 "));
+            second.close();
+        }
+    }
 
+    @Test
+    public void testResumeCommand() throws Exception {
+        File dir = File.createTempFile("amazons", ".journals");
+        assertTrue(dir.delete());
+        for (int run = 0; run < 2; run += 1) {
+            try (GameServer server = new GameServer(0, 1, 0, dir)) {
+                Thread acceptor = new Thread(() -> {
+                    try {
+                        server.serve();
+                    } catch (IOException excp) {
+                        throw new AssertionError(excp);
+                    }
+                });
+                acceptor.start();
+                Socket client = new Socket(InetAddress.getLoopbackAddress(),
+                                           server.port());
+                client.setSoTimeout(30000);
+                BufferedReader in = new BufferedReader(
+                    new InputStreamReader(client.getInputStream()));
+                PrintStream out =
+                    new PrintStream(client.getOutputStream(), true);
+                assertEquals("* Game " + run, in.readLine());
+                if (run == 0) {
+                    out.println("manual black");
+                    out.println("d1-d7(g7)");
+                    out.println("dump");
+                } else {
+                    assertEquals(Collections.singleton(0),
+                                 server.recovered());
+                    out.println("resume 0");
+                    assertEquals("> * Game 0", in.readLine());
+                    out.println("dump");
+                }
+                String line;
+                do {
+                    line = in.readLine();
+                } while (!line.endsWith("==="));
+                StringBuilder dump = new StringBuilder();
+                while (!(line = in.readLine()).equals("===")) {
+                    dump.append(line).append('\n');
+                }
+                Board b = new Board();
+                b.makeMove(Move.mv("d1-d7(g7)"));
+                assertEquals(b.toString(), dump.toString());
+                server.close();
+                client.close();
+                acceptor.join(10000);
+            }
+        }
+    }
+
+    @Test
+    public void testWatchCommand() throws Exception {
+        try (GameServer server = new GameServer(0, 1)) {
+            Thread acceptor = new Thread(() -> {
+                try {
+                    server.serve();
+                } catch (IOException excp) {
+                    throw new AssertionError(excp);
+                }
+            });
+            acceptor.start();
+            Socket player = new Socket(InetAddress.getLoopbackAddress(),
+                                       server.port());
+            player.setSoTimeout(30000);
+            BufferedReader playerIn = new BufferedReader(
+                new InputStreamReader(player.getInputStream()));
+            assertEquals("* Game 0", playerIn.readLine());
+            Socket spectator = new Socket(InetAddress.getLoopbackAddress(),
+                                          server.port());
+            spectator.setSoTimeout(30000);
+            BufferedReader spectatorIn = new BufferedReader(
+                new InputStreamReader(spectator.getInputStream()));
+            assertEquals("* Game 1", spectatorIn.readLine());
+            PrintStream spectatorOut =
+                new PrintStream(spectator.getOutputStream(), true);
+            spectatorOut.println("watch 7");
+            assertTrue(spectatorIn.readLine().contains("no such game"));
+            spectatorOut.println("watch 0");
+            String line;
+            do {
+                line = spectatorIn.readLine();
+            } while (line.isEmpty());
+            assertTrue(line.matches("(> )*snapshot 0 W 0 .*"));
+            new PrintStream(player.getOutputStream(), true)
+                .println("d1-d7(g7)");
+            assertEquals("move 1 d1-d7(g7)", spectatorIn.readLine());
+            player.close();
+            spectator.close();
+        }
+    }
+
+    @Test
+    public void testSearchScheduler() throws Exception {
+        SearchScheduler scheduler = new SearchScheduler(1, 1024);
+        TranspositionTable table = new TranspositionTable();
+        try (Engine analysis = new Engine(scheduler, "analysis",
+                 SearchScheduler.Priority.BACKGROUND, table);
+             Engine game = new Engine(scheduler, "game",
+                 SearchScheduler.Priority.INTERACTIVE, table)) {
+            CompletableFuture<SearchResult> endless =
+                analysis.search(new Board(), 0, 0, 0);
+            while (scheduler.used("analysis") == 0) {
+                Thread.sleep(1);
+            }
+            SearchResult move = game.search(new Board(), 0, 0, 5000).get();
+            assertTrue(new Board().isLegal(move.move()));
+            assertTrue(scheduler.used("game") >= 5000);
+            game.search(new Board(), 0, 0, 2000).get();
+            assertEquals(1, game.ais());
+            assertFalse(endless.isDone());
+            scheduler.setQuota("analysis", 5000);
+            long used = scheduler.used("analysis");
+            assertTrue(new Board().isLegal(endless.get().move()));
+            assertTrue(scheduler.used("analysis") - used
+                       < 5000 + 2 * SearchToken.CHECK_INTERVAL);
+            while (scheduler.finished(SearchScheduler.Priority.BACKGROUND)
+                   == 0) {
+                Thread.sleep(1);
+            }
+            assertTrue(scheduler.maxWaitMillis(
+                           SearchScheduler.Priority.INTERACTIVE)
+                       <= scheduler.runMillis(
+                           SearchScheduler.Priority.BACKGROUND));
+            assertEquals(0, scheduler.waiting());
+        }
+    }
+
+    @Test
+    public void testPausedSearch() throws Exception {
+        SearchScheduler scheduler = new SearchScheduler(1, 1024);
+        Executor blocking = scheduler.executor(
+            "game", SearchScheduler.Priority.INTERACTIVE);
+        try (Engine analysis = new Engine(scheduler, "analysis",
+                 SearchScheduler.Priority.BACKGROUND,
+                 new TranspositionTable())) {
+            CompletableFuture<SearchResult> endless =
+                analysis.search(new Board(), 0, 0, 0);
+            CountDownLatch started = new CountDownLatch(1),
+                done = new CountDownLatch(1);
+            while (scheduler.used("analysis") == 0) {
+                Thread.sleep(1);
+            }
+            blocking.execute(blocker(started, done));
+            started.await();
+            endless.cancel(false);
+            for (int i = 0; i < 500 && scheduler.finished(
+                     SearchScheduler.Priority.BACKGROUND) == 0; i += 1) {
+                Thread.sleep(10);
+            }
+            assertEquals(1, scheduler.finished(
+                SearchScheduler.Priority.BACKGROUND));
+            done.countDown();
+
+            long used = scheduler.used("analysis");
+            CompletableFuture<SearchResult> timed =
+                analysis.search(new Board(), 0, 1000, 0);
+            CountDownLatch started2 = new CountDownLatch(1),
+                done2 = new CountDownLatch(1);
+            while (scheduler.used("analysis") == used) {
+                Thread.sleep(1);
+            }
+            blocking.execute(blocker(started2, done2));
+            started2.await();
+            Thread.sleep(1500);
+            long resumed = System.nanoTime();
+            done2.countDown();
+            assertTrue(new Board().isLegal(
+                timed.get(10, TimeUnit.SECONDS).move()));
+            assertTrue(System.nanoTime() - resumed > 300 * 1000000L);
+        }
+    }
+
+    /**
+     * Return a task that counts down STARTED, and then holds its thread
+     * until DONE is counted down.
+     */
+    private static Runnable blocker(CountDownLatch started,
+                                    CountDownLatch done) {
+        return () -> {
+            started.countDown();
+            try {
+                done.await();
+            } catch (InterruptedException excp) {
+                Thread.currentThread().interrupt();
+            }
+        };
+    }
+
+    @Test
+    public void testGameJournal() throws IOException {
+        File dir = File.createTempFile("amazons", ".journals");
+        assertTrue(dir.delete());
+        Board b = new Board();
+        Random random = new Random(61);
+        try (JournalStore store = new JournalStore(dir, false)) {
+            GameJournal journal = store.open(7);
+            journal.recordSnapshot();
+            journal.recordPlayer(WHITE, true);
+            for (int i = 0; i < 3 * GameJournal.SNAPSHOT_INTERVAL; i += 1) {
+                if (i % 5 == 4) {
+                    b.undo();
+                    journal.recordUndo();
+                } else {
+                    List<Move> moves = new ArrayList<>();
+                    for (Move move : iterable(b.legalMoves())) {
+                        moves.add(move);
+                    }
+                    Move move = moves.get(random.nextInt(moves.size()));
+                    b.makeMove(move);
+                    journal.recordMove(move);
+                }
+            }
+            journal.recordPlayer(BLACK, false);
+            store.sync();
+            assertTrue(store.batches() > 0);
+        }
+        File file = new File(dir, "game-7.journal");
+        long length = file.length();
+        try (FileOutputStream torn = new FileOutputStream(file, true)) {
+            torn.write(new byte[] { 1, 0, 3, 42 });
+        }
+        try (JournalStore store = new JournalStore(dir)) {
+            List<GameJournal> games = store.recover();
+            assertEquals(1, games.size());
+            GameJournal journal = games.get(0);
+            assertEquals(7, journal.id());
+            assertTrue(journal.recovered());
+            assertEquals(length, file.length());
+            Board recovered = journal.board();
+            assertEquals(b.numMoves(), recovered.numMoves());
+            assertEquals(b.hash(), recovered.hash());
+            assertEquals(b.toString(), recovered.toString());
+            assertTrue(journal.isAutomated(WHITE));
+            assertFalse(journal.isAutomated(BLACK));
+            journal.discard();
+            assertFalse(file.exists());
+        }
+        assertTrue(dir.delete());
+    }
+
+    /**
+     * An automated player that thinks until cancelled.
+     */
+    private static class Stalling extends Player {
+        /**
+         * Released when I am cancelled.
+         */
+        private final CountDownLatch _cancelled = new CountDownLatch(1);
+
+        Stalling(Piece piece, Controller controller) {
+            super(piece, controller);
+        }
+
+        @Override
+        Player create(Piece piece, Controller controller) {
+            return new Stalling(piece, controller);
+        }
+
+        @Override
+        String myMove() {
+            try {
+                _cancelled.await();
+            } catch (InterruptedException excp) {
+                Thread.currentThread().interrupt();
+            }
+            return "null";
+        }
+
+        @Override
+        boolean isAutomated() {
+            return true;
+        }
+
+        @Override
+        void cancel() {
+            _cancelled.countDown();
+        }
+    }
+
+    @Test
+    public void testUndoDuringSearch() throws IOException {
+        ByteArrayOutputStream log = new ByteArrayOutputStream();
+        Controller control = new Controller(
+            new NullView(), new PrintStream(log, true),
+            new TextReporter(new PrintStream(new ByteArrayOutputStream()),
+                             System.err),
+            new TextPlayer(true), new Stalling(null, null),
+            new java.util.Scanner("manual black\nd1-d7(g7)\nd10-d8(d9)\n"
+                                  + "auto black\nj4-h6(h7)\nundo\n"
+                                  + "g1-g4(g5)\nquit\n"),
+            new PrintStream(new ByteArrayOutputStream()), null, task -> {
+                Thread thread = new Thread(task);
+                thread.setDaemon(true);
+                return thread;
+            });
+        control.play();
+        assertEquals(3, control.board().numMoves());
+        assertTrue(log.toString().contains("takeback"));
+        List<String> skipped = new ArrayList<>();
+        List<Board> games =
+            GameLog.read(new StringReader(log.toString()), skipped);
+        assertEquals(1, games.size());
+        assertEquals(control.board().getMyMoves(),
+                     games.get(0).getMyMoves());
+        assertTrue(skipped.isEmpty());
+    }
+
+    @Test
+    public void testTakeOverDuringSearch() throws Exception {
+        AI engine = Tournament.engine("depth=1");
+        engine.setPondering(false);
+        PipedOutputStream keys = new PipedOutputStream();
+        Controller control = new Controller(
+            new NullView(), null,
+            new TextReporter(new PrintStream(new ByteArrayOutputStream()),
+                             System.err),
+            new TextPlayer(true), engine,
+            new java.util.Scanner(new PipedInputStream(keys)),
+            new PrintStream(new ByteArrayOutputStream()), null, task -> {
+                Thread thread = new Thread(task);
+                thread.setDaemon(true);
+                return thread;
+            });
+        Thread game = new Thread(control::play);
+        game.start();
+        PrintStream typing = new PrintStream(keys, true);
+        typing.println("auto white");
+        typing.println("manual white");
+        Thread.sleep(1000);
+        typing.println("quit");
+        game.join(10000);
+        assertFalse(game.isAlive());
+        assertEquals(2, control.board().numMoves());
+    }
+
+    @Test
+    public void testAnalyzeCommand() {
+        AI engine = new AI();
+        engine.setDepthLimit(100);
+        engine.setPondering(false);
+        ByteArrayOutputStream log = new ByteArrayOutputStream();
+        Controller control = new Controller(
+            new NullView(), new PrintStream(log, true),
+            new TextReporter(new PrintStream(new ByteArrayOutputStream()),
+                             System.err),
+            new TextPlayer(true), engine,
+            new java.util.Scanner("manual black\nd1-d7(g7)\nd10-d8(d9)\n"
+                                  + "analyze 2\nundo\nquit\n"),
+            new PrintStream(new ByteArrayOutputStream()), null, task -> {
+                Thread thread = new Thread(task);
+                thread.setDaemon(true);
+                return thread;
+            });
+        control.play();
+        assertEquals(0, control.board().numMoves());
+        assertFalse(log.toString().contains("takeback"));
+    }
+
+    @Test
+    public void testGameArchive() throws IOException {
+        List<String> skipped = new ArrayList<>();
+        List<Board> games = GameLog.read(new StringReader(
+            "auto black\nd1-d7(g7)  # White\na1-a2(a3)\nD10 C9 B8\n"
+            + "dump\nundo\nd1-d4(d2)\nnew\nnew\ng1-g2(g3)\n"),
+            skipped);
+        assertEquals(2, games.size());
+        assertEquals(Arrays.asList("line 3: illegal move a1-a2(a3)"),
+                     skipped);
+        assertEquals(1, games.get(0).numMoves());
+        assertEquals(Move.mv("d1-d4(d2)"), games.get(0).getMyMoves().peek());
+        Board full = randomGame(new Random(45));
+        games.add(full);
+        File file = File.createTempFile("amazons", ".games");
+        file.deleteOnExit();
+        try (GameArchive.Writer writer =
+                 new GameArchive.Writer(file.getPath())) {
+            for (Board game : games) {
+                writer.add(game);
+            }
+        }
+        GameArchive archive = GameArchive.open(file.getPath());
+        assertEquals(3, archive.size());
+        for (int g = 0; g < games.size(); g += 1) {
+            Board game = games.get(g);
+            assertEquals(game.getMyMoves(), archive.moves(g));
+            assertEquals(game.winner() == null ? EMPTY : game.winner(),
+                         archive.winner(g));
+            assertEquals(game.hash(),
+                         archive.position(g, game.numMoves()).hash());
+        }
+        assertEquals(Move.mv("g1-g2(g3)"), archive.move(1, 0));
+        assertEquals(GameArchive.HEADER_BYTES + 3 * 8
+                     + 3 * GameArchive.GAME_HEADER_BYTES
+                     + (2 + full.numMoves()) * GameArchive.MOVE_BYTES,
+                     file.length());
+    }
+
+    /**
+     * Return the board at the end of a game played to the end with
+     * moves chosen by RANDOM.
+     */
+    private static Board randomGame(Random random) {
+        Board board = new Board();
+        while (board.winner() == null) {
+            List<Move> moves = new ArrayList<>();
+            for (Move move : iterable(board.legalMoves())) {
+                moves.add(move);
+            }
+            board.makeMove(moves.get(random.nextInt(moves.size())));
+        }
+        return board;
+    }
+
+    @Test
+    public void testPositionIndex() throws IOException {
+        File file = File.createTempFile("amazons", ".games");
+        file.deleteOnExit();
+        Random random = new Random(46);
+        int positions = 0;
+        try (GameArchive.Writer writer =
+                 new GameArchive.Writer(file.getPath())) {
+            Board game = randomGame(random);
+            for (int g = 0; g < 30; g += 1) {
+                if (g % 3 == 0) {
+                    game = randomGame(random);
+                }
+                writer.add(game);
+                positions += game.numMoves() + 1;
+            }
+        }
+        GameArchive archive = GameArchive.open(file.getPath());
+        PositionIndex index = new PositionIndex(archive);
+        assertEquals(positions, index.size());
+        assertEquals(30, index.count(new Board()));
+        for (int g = 0; g < 30; g += 7) {
+            for (int ply = 0; ply <= archive.length(g); ply += 5) {
+                Board position = archive.position(g, ply);
+                assertTrue(index.lookup(position).contains(
+                               new PositionIndex.Occurrence(g, ply)));
+                assertTrue(index.count(position) >= 3);
+            }
+        }
+        List<PositionIndex.MoveStats> stats = index.explore(new Board());
+        int played = 0;
+        for (int i = 0; i < stats.size(); i += 1) {
+            PositionIndex.MoveStats move = stats.get(i);
+            assertEquals(move.games(), move.whiteWins() + move.blackWins());
+            assertTrue(i == 0 || stats.get(i - 1).games() >= move.games());
+            played += move.games();
+        }
+        assertEquals(30, played);
+        Board unseen = new Board();
+        unseen.makeMove(Move.mv("a4-a5(a6)"));
+        unseen.makeMove(Move.mv("a7-a8(a9)"));
+        assertEquals(0, index.lookup(unseen).size());
+        File saved = File.createTempFile("amazons", ".index");
+        saved.deleteOnExit();
+        index.write(saved.getPath());
+        PositionIndex opened = PositionIndex.open(saved.getPath(), archive);
+        assertEquals(index.size(), opened.size());
+        for (int g = 0; g < 30; g += 4) {
+            Board position = archive.position(g, archive.length(g) / 2);
+            assertEquals(index.lookup(position), opened.lookup(position));
+        }
+        assertEquals(index.explore(new Board()).toString(),
+                     opened.explore(new Board()).toString());
+    }
+
+    @Test
+    public void testGameValidator() throws IOException {
+        Board game = randomGame(new Random(47));
+        StringBuilder valid = new StringBuilder();
+        for (Move move : game.getMyMoves()) {
+            valid.append(move).append(' ');
+        }
+        StringBuilder input = new StringBuilder("# imported games\n");
+        for (int g = 0; g < 3 * GameValidator.BATCH; g += 1) {
+            if (g % 100 == 1) {
+                input.append("d1-d7(g7), d10-d8(d9) d7-d9(d10)\n\n");
+            } else if (g % 100 == 2) {
+                input.append("d1-d7(e9)  # a bad throw\n");
+            } else if (g % 100 == 3) {
+                input.append("d1-d7(g7) resign\n");
+            } else {
+                input.append(valid).append('\n');
+            }
+        }
+        ByteArrayOutputStream report = new ByteArrayOutputStream();
+        GameValidator.Summary summary = new GameValidator(3).validate(
+            new BufferedReader(new StringReader(input.toString())),
+            new PrintStream(report, true));
+        assertEquals(3 * GameValidator.BATCH, summary.games());
+        String[] lines = report.toString().split("\\R");
+        assertEquals(3 * 16, summary.invalid());
+        assertEquals(summary.invalid(), lines.length);
+        assertEquals("game 1 ply 2: illegal move d7-d9(d10)", lines[0]);
+        assertEquals("game 2 ply 0: illegal move d1-d7(e9)", lines[1]);
+        assertEquals("game 3 ply 1: unreadable move", lines[2]);
+        assertEquals("game 1501 ply 2: illegal move d7-d9(d10)",
+                     lines[lines.length - 3]);
+        File file = File.createTempFile("amazons", ".games");
+        file.deleteOnExit();
+        try (GameArchive.Writer writer =
+                 new GameArchive.Writer(file.getPath())) {
+            writer.add(game);
+            List<Move> blocked = new ArrayList<>();
+            blocked.add(Move.mv("d1-d7(d8)"));
+            blocked.add(Move.mv("a7-j7(i7)"));
+            writer.add(blocked, EMPTY);
+        }
+        assertTrue(GameValidator.isArchive(file.getPath()));
+        report.reset();
+        summary = new GameValidator(2).validate(
+            GameArchive.open(file.getPath()), new PrintStream(report, true));
+        assertEquals(2, summary.games());
+        assertEquals(1, summary.invalid());
+        assertEquals(game.numMoves() + 1, summary.plies());
+        assertEquals("game 1 ply 1: illegal move a7-j7(i7)",
+                     report.toString().trim());
+    }
+
+    @Test
+    public void testGameAnalyzer() throws IOException {
+        File log = File.createTempFile("amazons", ".log");
+        log.deleteOnExit();
+        try (PrintStream out = new PrintStream(log)) {
+            out.println("d1-d7(g7)\nd10-d8(d9)\nj4-h6(h7)\ng10-g8(h8)");
+            out.println("new\nd1-d2(d1)  # walls in its own queen");
+        }
+        ByteArrayOutputStream report = new ByteArrayOutputStream(),
+            again = new ByteArrayOutputStream();
+        GameAnalyzer.Summary summary;
+        try (GameAnalyzer analyzer =
+                 new GameAnalyzer(2, 2, GameAnalyzer.DEFAULT_BLUNDER)) {
+            summary = analyzer.analyze(
+                Arrays.asList(log.getPath(), log.getPath()),
+                new PrintStream(report, true));
+        }
+        try (GameAnalyzer analyzer =
+                 new GameAnalyzer(1, 2, GameAnalyzer.DEFAULT_BLUNDER)) {
+            analyzer.analyze(Arrays.asList(log.getPath()),
+                             new PrintStream(again, true));
+        }
+        assertEquals(4, summary.games());
+        assertEquals(10, summary.moves());
+        assertTrue(summary.blunders() >= 2);
+        assertTrue(summary.blunders() < summary.moves());
+        String[] lines = report.toString().split("\\R");
+        assertEquals(14, lines.length);
+        String name = log.getPath();
+        assertTrue(lines[0].startsWith(name + " 0 0 White d1-d7(g7) "));
+        assertTrue(lines[4].startsWith(name + " 0: 4 moves, "));
+        assertTrue(lines[5].startsWith(name + " 1 0 White d1-d2(d1) "));
+        assertTrue(lines[5].endsWith(" blunder"));
+        assertEquals(name + " 1: 1 moves, blunders White 1 Black 0",
+                     lines[6]);
+        assertEquals(Arrays.asList(lines).subList(0, 7),
+                     Arrays.asList(lines).subList(7, 14));
+        assertEquals(Arrays.asList(lines).subList(0, 7),
+                     Arrays.asList(again.toString().split("\\R")));
+        Pattern ply = Pattern.compile(
+            "\\S+ \\d+ \\d+ \\w+ (\\S+) (-?\\d+) best (\\S+) (-?\\d+)"
+            + " loss (\\d+)( blunder)?");
+        int best = 0;
+        for (String line : lines) {
+            Matcher mat = ply.matcher(line);
+            if (!mat.matches()) {
+                continue;
+            }
+            int loss = Integer.parseInt(mat.group(5));
+            assertEquals(loss >= GameAnalyzer.DEFAULT_BLUNDER,
+                         mat.group(6) != null);
+            if (mat.group(1).equals(mat.group(3))) {
+                best += 1;
+                assertEquals(0, loss);
+                assertEquals(mat.group(2), mat.group(4));
+            }
+        }
+        assertTrue(best > 0);
+    }
+
+    @Test
+    public void testTournament() {
+        Tournament match =
+            new Tournament(Tournament.engine("mtdf,depth=1"),
+                           Tournament.engine(""), 1000, 49, 20);
+        Tournament.Result result = match.run(6, 3, System.out);
+        assertEquals(6, result.games());
+        assertEquals(3, result.wins());
+        assertEquals(0, result.whiteWins() % 2);
+        assertEquals(0, result.decision());
+        for (int i = 0; i < 60; i += 1) {
+            result.add(true, i % 2 == 0);
+        }
+        assertEquals(1, result.decision());
+        assertTrue(result.eloEstimate() > 100);
+        try {
+            Tournament.engine("depth=x");
+            fail("bad engine setting accepted");
+        } catch (IllegalArgumentException excp) {
+            assertTrue(excp.getMessage().contains("depth=x"));
+        }
+    }
+
+    @Test
+    public void testWorkQueue() throws Exception {
+        File dir = Files.createTempDirectory("amazons").toFile();
+        WorkQueue queue = new WorkQueue(dir, 300);
+        assertEquals(5, Worker.submitSelfPlay(queue, "m", 10, 2, "depth=1",
+                                              "", 1000, 50));
+        assertEquals(0, Worker.submitSelfPlay(queue, "m", 10, 2, "depth=1",
+                                              "", 1000, 50));
+        assertEquals(1, Worker.submitSelfPlay(queue, "n", 2, 2, "depth=1",
+                                              "depth=1", 1000, 51));
+        Files.write(dir.toPath().resolve("claims").resolve("README"),
+                    new byte[0]);
+        try {
+            Worker.submitSelfPlay(queue, "m", 10, 2, "depth=2", "", 1000,
+                                  50);
+            fail("conflicting unit accepted");
+        } catch (IllegalArgumentException excp) {
+            assertTrue(excp.getMessage().contains("other settings"));
+        }
+        WorkQueue.Claim dead = queue.claim("dead", id -> true);
+        assertEquals("selfplay-m-00000000", dead.id());
+        List<CompletableFuture<Integer>> workers = new ArrayList<>();
+        for (int w = 0; w < 2; w += 1) {
+            Worker worker = new Worker(queue, "worker" + w, 2);
+            workers.add(CompletableFuture.supplyAsync(() -> {
+                try {
+                    return worker.work();
+                } catch (IOException | InterruptedException excp) {
+                    throw new IllegalStateException(excp);
+                }
+            }));
+        }
+        int done = 0;
+        for (CompletableFuture<Integer> worker : workers) {
+            done += worker.get();
+        }
+        assertEquals(6, done);
+        assertEquals(6, queue.done().size());
+        dead.complete("wins=1\nlosses=1\nwhiteWins=2\n");
+        assertEquals(2, Worker.selfPlayResult(queue, "n").games());
+        Tournament.Result result = Worker.selfPlayResult(queue, "m");
+        assertEquals(10, result.games());
+        assertEquals(5, result.wins());
+        assertEquals(0, result.whiteWins() % 2);
+        assertEquals(0, new Worker(queue, "late", 1).work());
+    }
+
+    @Test
+    public void testOpeningBook() throws IOException {
+        File file = File.createTempFile("amazons", ".book");
+        file.deleteOnExit();
+        int count = new BookGenerator(2, 2, 1).generate(file.getPath());
+        OpeningBook book = OpeningBook.open(file.getPath());
+        assertEquals(count, book.size());
+        Board b = new Board();
+        Move move = book.lookup(b);
+        assertTrue(move != null && b.isLegal(move));
+        Board mirror = new Board();
+        mirror.makeMove(move.transform(4));
+        b.makeMove(move);
+        assertTrue(book.lookup(b) != null);
+        Move reply = book.lookup(mirror);
+        assertTrue(reply != null && mirror.isLegal(reply));
+        b.makeMove(Move.mv("a7-b8(c8)"));
+        assertEquals(null, book.lookup(b));
+        Move m = Move.mv("d1-d7(h7)");
+        assertEquals(m, OpeningBook.decode(OpeningBook.encode(m)));
+    }
+
+    @Test
+    public void testProofSearch() {
+        Random random = new Random(61);
+        ProofSearch prover = new ProofSearch(new RegionSolver(), 1 << 12);
+        for (int trial = 0; trial < 40; trial += 1) {
+            Board b = new Board();
+            for (int k = 0; k < Board.SIZE * Board.SIZE; k += 1) {
+                b.put(SPEAR, Square.sq(k));
+            }
+            for (int col = 3; col < 6; col += 1) {
+                for (int row = 3; row < 6; row += 1) {
+                    if (random.nextInt(4) > 0) {
+                        b.put(EMPTY, col, row);
+                    }
+                }
+            }
+            b.put(WHITE, 3 + random.nextInt(3), 3);
+            b.put(BLACK, 3 + random.nextInt(3), 5);
+            long hash = b.hash();
+            Piece winner = prover.prove(b, 100000);
+            assertEquals(hash, b.hash());
+            assertEquals(wins(b) ? WHITE : BLACK, winner);
+            if (prover.winningMove() != null) {
+                b.makeMove(prover.winningMove());
+                assertFalse(wins(b));
+            }
+        }
+    }
+
+    @Test
+    public void testMtdf() {
+        Board b = smallBoard();
+        AI alphaBeta = new AI();
+        alphaBeta.useMtdf(false);
+        Move expected = alphaBeta.findMove(b, 3);
+        AI mtdf = new AI();
+        mtdf.useMtdf(true);
+        Move move = mtdf.findMove(b, 3);
+        assertTrue(move != null && b.isLegal(move));
+        assertEquals(alphaBeta.lastValue(), mtdf.lastValue());
+        b.makeMove(move);
+        AI checker = new AI();
+        checker.findMove(b, 2);
+        assertEquals(mtdf.lastValue(), checker.lastValue());
+        b.undo();
+        assertEquals(expected, alphaBeta.findMove(b, 3));
+    }
+
+    /** Return a board with two amazons of each color in a 5x4 room. */
+    private Board smallBoard() {
+        Board b = new Board();
+        for (int k = 0; k < Board.SIZE * Board.SIZE; k += 1) {
+            b.put(SPEAR, Square.sq(k));
+        }
+        for (int col = 2; col < 7; col += 1) {
+            for (int row = 2; row < 6; row += 1) {
+                b.put(EMPTY, col, row);
+            }
+        }
+        b.put(WHITE, 2, 2);
+        b.put(WHITE, 6, 5);
+        b.put(BLACK, 6, 2);
+        b.put(BLACK, 2, 5);
+        return b;
+    }
+
+    /** Return true iff the side to move on B can force a win. */
+    private boolean wins(Board b) {
+        for (Move move : iterable(b.legalMoves())) {
+            b.makeMove(move);
+            boolean lost = !wins(b);
+            b.undo();
+            if (lost) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /** Check that the regions B tracks are those of a fresh copy of B. */
+    private void assertSameRegions(Board b) {
+        Board fresh = new Board();
+        for (int k = 0; k < Board.SIZE * Board.SIZE; k += 1) {
+            fresh.put(b.get(Square.sq(k)), Square.sq(k));
+        }
+        List<Region> expected = fresh.regions(), actual = b.regions();
+        assertEquals(expected.size(), actual.size());
+        for (int i = 0; i < expected.size(); i += 1) {
+            assertEquals(expected.get(i).lo(), actual.get(i).lo());
+            assertEquals(expected.get(i).hi(), actual.get(i).hi());
+            assertEquals(expected.get(i).toString(),
+                    actual.get(i).toString());
+        }
+    }
+}
@@ -3,6 +3,7 @@ package amazons;
 import java.io.IOException;
 import java.io.InputStream;
 import java.util.Iterator;
+import java.util.concurrent.ThreadFactory;
 
 /**
  * Miscellaneous utilties.
@@ -37,6 +38,26 @@ class Utils {
         return () -> iterator;
     }
 
+    /**
+     * Return a factory for virtual threads, if this runtime has them,
+     * and otherwise for daemon threads named NAME.  Virtual threads cost
+     * so little that thousands may wait at once.
+     */
+    static ThreadFactory lightThreads(String name) {
+        try {
+            Object builder = Thread.class.getMethod("ofVirtual")
+                    .invoke(null);
+            return (ThreadFactory) Class.forName("java.lang.Thread$Builder")
+                    .getMethod("factory").invoke(builder);
+        } catch (ReflectiveOperationException excp) {
+            return task -> {
+                Thread thread = new Thread(task, name);
+                thread.setDaemon(true);
+                return thread;
+            };
+        }
+    }
+
     /**
      * Return an input stream containing the contents of file NAME in the
      * directory containing this class.  Throws IOException if no such
@@ -0,0 +1,80 @@
+package amazons;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * One line of play found by an analysing search (see AI.analyze): a
+ * move from the position searched, its value, and the principal
+ * variation beginning with it.
+ *
+ * @author Shichao Han
+ */
+final class Variation {
+
+    /**
+     * The first move of the line.
+     */
+    private final Move _move;
+    /**
+     * The value of _move (positive values favor White).
+     */
+    private final int _value;
+    /**
+     * The depth of the search that found me.
+     */
+    private final int _depth;
+    /**
+     * The moves of the line, starting with _move.
+     */
+    private final List<Move> _line;
+
+    /**
+     * A variation found by a search DEPTH plies deep, consisting of
+     * the moves LINE, whose first move has value VALUE.
+     */
+    Variation(int depth, int value, List<Move> line) {
+        _move = line.get(0);
+        _value = value;
+        _depth = depth;
+        _line = Collections.unmodifiableList(line);
+    }
+
+    /**
+     * Return my first move.
+     */
+    Move move() {
+        return _move;
+    }
+
+    /**
+     * Return the value of my first move (positive values favor White).
+     */
+    int value() {
+        return _value;
+    }
+
+    /**
+     * Return the depth of the search that found me.
+     */
+    int depth() {
+        return _depth;
+    }
+
+    /**
+     * Return my moves, starting with move().
+     */
+    List<Move> line() {
+        return _line;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder result = new StringBuilder();
+        result.append(String.format("%d", _value));
+        for (Move move : _line) {
+            result.append(' ').append(move);
+        }
+        return result.toString();
+    }
+}
@@ -0,0 +1,274 @@
+package amazons;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.FileTime;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.function.Predicate;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static amazons.Utils.error;
+
+/**
+ * A queue of units of work shared through a directory by any number of
+ * worker processes, which need nothing in common but the file system.
+ * It keeps three subdirectories: units, holding each unit's settings as
+ * a properties file named by its id; claims, holding the claims of
+ * workers on units; and results, holding the result of each unit
+ * finished, named by its id.
+ *
+ * <p>A worker claims a unit by creating a claim file named by the unit
+ * and the number of the attempt (other files there are ignored).
+ * Creating a file is atomic, so of the workers trying the same attempt,
+ * only one succeeds.  A worker keeps its claim alive by touching it; a
+ * claim untouched for a lease period
+ * has expired, as if its worker had died, and the unit may be claimed
+ * again by the next attempt.  A result is written to a temporary file
+ * and then renamed into place, atomically, so that a result is either
+ * absent or complete.  Units are deterministic, or at least any of
+ * their results will do, so a unit done twice (by a worker thought dead
+ * that was only slow) does no harm: recording a result is idempotent,
+ * and the bookkeeping can be resumed at any point after a crash of any
+ * worker.
+ *
+ * @author Shichao Han
+ */
+final class WorkQueue {
+
+    /**
+     * The default time, in milliseconds, that a claim lives untouched.
+     */
+    static final long DEFAULT_LEASE = 60000;
+
+    /**
+     * My subdirectories.
+     */
+    private final Path _units, _claims, _results;
+    /**
+     * The lifetime of an untouched claim, in milliseconds.
+     */
+    private final long _lease;
+
+    /**
+     * The queue in directory DIR, created if need be, whose claims live
+     * LEASE milliseconds untouched.
+     */
+    WorkQueue(File dir, long lease) throws IOException {
+        Path root = dir.toPath();
+        _units = Files.createDirectories(root.resolve("units"));
+        _claims = Files.createDirectories(root.resolve("claims"));
+        _results = Files.createDirectories(root.resolve("results"));
+        _lease = lease;
+    }
+
+    /**
+     * Return the time, in milliseconds, that my claims live untouched.
+     */
+    long lease() {
+        return _lease;
+    }
+
+    /**
+     * Add the unit ID with settings UNIT, unless it is already queued
+     * with the same settings.  Return true iff it was added.  It is an
+     * error for ID to be queued with other settings.
+     */
+    boolean submit(String id, Properties unit) throws IOException {
+        checkId(id);
+        Path file = _units.resolve(id);
+        if (!Files.exists(file)) {
+            Path temp = Files.createTempFile(_units, ".", ".tmp");
+            try (Writer out = Files.newBufferedWriter(temp)) {
+                unit.store(out, null);
+            }
+            try {
+                Files.createLink(file, temp);
+                return true;
+            } catch (FileAlreadyExistsException excp) {
+                return false;
+            } finally {
+                Files.delete(temp);
+            }
+        }
+        if (!unit(id).equals(unit)) {
+            throw error("unit %s is queued with other settings", id);
+        }
+        return false;
+    }
+
+    /**
+     * Return the ids of my units, in order.
+     */
+    List<String> ids() throws IOException {
+        return list(_units).stream().sorted()
+            .collect(Collectors.toList());
+    }
+
+    /**
+     * Return the settings of unit ID.
+     */
+    Properties unit(String id) throws IOException {
+        Properties result = new Properties();
+        try (Reader in = Files.newBufferedReader(_units.resolve(id))) {
+            result.load(in);
+        }
+        return result;
+    }
+
+    /**
+     * Return the ids of the units that are finished.
+     */
+    Set<String> done() throws IOException {
+        return new TreeSet<>(list(_results));
+    }
+
+    /**
+     * Return the result of unit ID, or null if it is not finished.
+     */
+    String result(String id) throws IOException {
+        try {
+            return new String(Files.readAllBytes(_results.resolve(id)),
+                              StandardCharsets.UTF_8);
+        } catch (NoSuchFileException excp) {
+            return null;
+        }
+    }
+
+    /**
+     * Claim for WORKER the first unfinished unit, in order, whose id
+     * satisfies WANTED and that no live claim holds.  Return the claim,
+     * or null if there is no such unit.
+     */
+    Claim claim(String worker, Predicate<String> wanted)
+        throws IOException {
+        Set<String> done = done();
+        Map<String, Integer> attempts = new HashMap<>();
+        Set<String> live = new HashSet<>();
+        long now = System.currentTimeMillis();
+        for (String name : list(_claims)) {
+            int dot = name.lastIndexOf('.');
+            if (dot < 0 || !name.substring(dot + 1).matches("\\d{1,9}")) {
+                continue;
+            }
+            String id = name.substring(0, dot);
+            attempts.merge(id, Integer.parseInt(name.substring(dot + 1)),
+                           Math::max);
+            try {
+                if (now - Files.getLastModifiedTime(_claims.resolve(name))
+                    .toMillis() < _lease) {
+                    live.add(id);
+                }
+            } catch (NoSuchFileException excp) {
+                continue;
+            }
+        }
+        for (String id : ids()) {
+            if (done.contains(id) || live.contains(id) || !wanted.test(id)) {
+                continue;
+            }
+            Path file =
+                _claims.resolve(id + "." + (attempts.getOrDefault(id, 0) + 1));
+            try {
+                Files.write(file, worker.getBytes(StandardCharsets.UTF_8),
+                            StandardOpenOption.CREATE_NEW);
+                return new Claim(id, file);
+            } catch (FileAlreadyExistsException excp) {
+                continue;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Return the names of the files in DIR, except temporary ones.
+     */
+    private static List<String> list(Path dir) throws IOException {
+        try (Stream<Path> files = Files.list(dir)) {
+            return files.map(path -> path.getFileName().toString())
+                .filter(name -> !name.startsWith("."))
+                .collect(Collectors.toList());
+        }
+    }
+
+    /**
+     * Check that ID may name a unit.
+     */
+    private static void checkId(String id) {
+        if (!id.matches("[A-Za-z0-9_-]+")) {
+            throw error("bad unit id: %s", id);
+        }
+    }
+
+    /**
+     * A worker's claim on a unit.
+     */
+    final class Claim {
+        /**
+         * The unit claimed.
+         */
+        private final String _id;
+        /**
+         * My claim file.
+         */
+        private final Path _file;
+
+        /**
+         * The claim in FILE on unit ID.
+         */
+        Claim(String id, Path file) {
+            _id = id;
+            _file = file;
+        }
+
+        /**
+         * Return the id of my unit.
+         */
+        String id() {
+            return _id;
+        }
+
+        /**
+         * Return the settings of my unit.
+         */
+        Properties unit() throws IOException {
+            return WorkQueue.this.unit(_id);
+        }
+
+        /**
+         * Keep me alive for another lease period.
+         */
+        void renew() throws IOException {
+            Files.setLastModifiedTime(
+                _file, FileTime.fromMillis(System.currentTimeMillis()));
+        }
+
+        /**
+         * Record RESULT as the result of my unit, replacing any result
+         * recorded by another claim, and give up my claim.
+         */
+        void complete(String result) throws IOException {
+            Path temp = Files.createTempFile(_results, ".", ".tmp");
+            Files.write(temp, result.getBytes(StandardCharsets.UTF_8));
+            Files.move(temp, _results.resolve(_id),
+                       StandardCopyOption.ATOMIC_MOVE,
+                       StandardCopyOption.REPLACE_EXISTING);
+            Files.deleteIfExists(_file);
+        }
+    }
+}
@@ -0,0 +1,440 @@
+package amazons;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.StringReader;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Predicate;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import static amazons.Utils.error;
+
+/**
+ * The tool that spreads self-play matches (see Tournament) and game
+ * analyses (see GameAnalyzer) over any number of worker processes, on
+ * one machine or several sharing a file system, through a WorkQueue.
+ * A match is split into units of a few pairs of games each, which play
+ * the same games the whole match would, and an analysis into one unit
+ * per log.  Each worker does one unit at a time, using all the threads
+ * it is given, until none is left, renewing its claim as it goes; the
+ * results are then merged, a match's by adding up its wins and losses.
+ * Each match and each batch of analyses is given a NAME (letters,
+ * digits, and underscores), which is part of the ids of its units, so
+ * that one queue may hold any number of them, and results are merged
+ * by name.  Once the merged results of a match decide its test, workers
+ * stop taking its units.  A worker may be killed and another started at
+ * any time: its unit is taken up again once its claim expires.
+ *
+ * <p>Usage: java amazons.Worker QUEUE COMMAND, where COMMAND is one of
+ * <pre>
+ *   selfplay NAME GAMES UNITGAMES CHALLENGER BASELINE [RANDOM [SEED]]
+ *   analyze NAME DEPTH LOG...
+ *   work [THREADS]
+ *   status
+ *   report NAME FILE
+ * </pre>
+ * The first two queue units (again, if need be: units already queued
+ * are kept), work does units, status prints the progress and merged
+ * result of each match, and report writes the merged analyses of batch
+ * NAME to FILE.
+ *
+ * @author Shichao Han
+ */
+public class Worker {
+
+    /**
+     * The prefixes of the ids of self-play and analysis units.
+     */
+    static final String SELFPLAY = "selfplay", ANALYSIS = "analysis";
+    /**
+     * The form of the name of a match or batch.
+     */
+    static final String NAME = "[A-Za-z0-9_]+";
+    /**
+     * The time, in milliseconds, between looks at a queue whose units
+     * are all claimed by others.
+     */
+    static final long POLL_MILLIS = 1000;
+
+    /**
+     * My queue.
+     */
+    private final WorkQueue _queue;
+    /**
+     * My name, as recorded in my claims.
+     */
+    private final String _name;
+    /**
+     * The number of threads doing my units.
+     */
+    private final int _threads;
+    /**
+     * Renews my claims.
+     */
+    private final ScheduledExecutorService _renewer =
+        Executors.newSingleThreadScheduledExecutor(task -> {
+            Thread thread = new Thread(task, "renew");
+            thread.setDaemon(true);
+            return thread;
+        });
+
+    /**
+     * A worker named NAME doing the units of QUEUE with THREADS
+     * threads.
+     */
+    Worker(WorkQueue queue, String name, int threads) {
+        _queue = queue;
+        _name = name;
+        _threads = threads;
+    }
+
+    /**
+     * Act on the queue as directed by ARGS (see the class comment).
+     */
+    public static void main(String... args) {
+        if (args.length < 2) {
+            usage();
+        }
+        try {
+            WorkQueue queue =
+                new WorkQueue(new File(args[0]), WorkQueue.DEFAULT_LEASE);
+            List<String> rest = Arrays.asList(args).subList(2, args.length);
+            switch (args[1]) {
+            case "selfplay":
+                if (rest.size() < 5 || rest.size() > 7) {
+                    usage();
+                }
+                System.out.printf("Queued %d units%n", submitSelfPlay(
+                    queue, rest.get(0), Integer.parseInt(rest.get(1)),
+                    Integer.parseInt(rest.get(2)), rest.get(3), rest.get(4),
+                    rest.size() > 5 ? Integer.parseInt(rest.get(5))
+                    : Tournament.DEFAULT_RANDOM_PLIES,
+                    rest.size() > 6 ? Long.parseLong(rest.get(6)) : 0));
+                break;
+            case "analyze":
+                if (rest.size() < 3) {
+                    usage();
+                }
+                System.out.printf("Queued %d units%n", submitAnalysis(
+                    queue, rest.get(0), Integer.parseInt(rest.get(1)),
+                    rest.subList(2, rest.size())));
+                break;
+            case "work":
+                int threads = rest.isEmpty()
+                    ? Runtime.getRuntime().availableProcessors()
+                    : Integer.parseInt(rest.get(0));
+                String name = "worker-" + ProcessHandle.current().pid();
+                System.out.printf("Did %d units%n",
+                                  new Worker(queue, name, threads).work());
+                break;
+            case "status":
+                System.out.printf("%d of %d units done%n",
+                                  queue.done().size(), queue.ids().size());
+                for (Map.Entry<String, Tournament.Result> match
+                         : selfPlayResults(queue).entrySet()) {
+                    System.out.printf("%s: %s%n", match.getKey(),
+                                      match.getValue());
+                }
+                break;
+            case "report":
+                if (rest.size() != 2) {
+                    usage();
+                }
+                try (PrintStream out = new PrintStream(rest.get(1))) {
+                    report(queue, rest.get(0), out);
+                }
+                break;
+            default:
+                usage();
+            }
+            System.exit(0);
+        } catch (NumberFormatException excp) {
+            System.err.printf("Bad number: %s%n", excp.getMessage());
+        } catch (IllegalArgumentException | IOException excp) {
+            System.err.println(excp.getMessage());
+        } catch (InterruptedException excp) {
+            System.err.println("Interrupted");
+        }
+        System.exit(1);
+    }
+
+    /**
+     * Print a usage message and exit.
+     */
+    private static void usage() {
+        System.err.println("Usage: java amazons.Worker QUEUE selfplay NAME"
+                + " GAMES UNITGAMES CHALLENGER BASELINE [RANDOM [SEED]]");
+        System.err.println("   or: java amazons.Worker QUEUE analyze NAME"
+                + " DEPTH LOG...");
+        System.err.println("   or: java amazons.Worker QUEUE work"
+                + " [THREADS]");
+        System.err.println("   or: java amazons.Worker QUEUE status");
+        System.err.println("   or: java amazons.Worker QUEUE report NAME"
+                + " FILE");
+        System.exit(1);
+    }
+
+    /**
+     * Queue in QUEUE the units of the match NAME of GAMES games,
+     * UNITGAMES (even) to a unit, between engines with the settings
+     * CHALLENGER and BASELINE (see Tournament.engine), opening with
+     * RANDOM random plies and seeded with SEED.  Return the number of
+     * units newly queued.
+     */
+    static int submitSelfPlay(WorkQueue queue, String name, int games,
+                              int unitGames, String challenger,
+                              String baseline, int random, long seed)
+        throws IOException {
+        checkName(name);
+        if (games < 1 || unitGames < 2 || unitGames % 2 != 0) {
+            throw error("units must hold a positive, even number of games");
+        }
+        Tournament.engine(challenger);
+        Tournament.engine(baseline);
+        int added = 0;
+        for (int first = 0; first < games; first += unitGames) {
+            Properties unit = new Properties();
+            unit.setProperty("challenger", challenger);
+            unit.setProperty("baseline", baseline);
+            unit.setProperty("random", Integer.toString(random));
+            unit.setProperty("seed", Long.toString(seed));
+            unit.setProperty("elo", Double.toString(Tournament.DEFAULT_ELO));
+            unit.setProperty("first", Integer.toString(first));
+            unit.setProperty("games",
+                             Integer.toString(Math.min(unitGames,
+                                                       games - first)));
+            if (queue.submit(String.format("%s-%s-%08d", SELFPLAY, name,
+                                           first), unit)) {
+                added += 1;
+            }
+        }
+        return added;
+    }
+
+    /**
+     * Queue in QUEUE the batch NAME of analyses of each of LOGS, DEPTH
+     * plies deep (see GameAnalyzer).  Return the number of units newly
+     * queued.
+     */
+    static int submitAnalysis(WorkQueue queue, String name, int depth,
+                              List<String> logs) throws IOException {
+        checkName(name);
+        if (depth < 2) {
+            throw error("analysis depth must be at least 2");
+        }
+        int added = 0;
+        for (int i = 0; i < logs.size(); i += 1) {
+            Properties unit = new Properties();
+            unit.setProperty("depth", Integer.toString(depth));
+            unit.setProperty("log", new File(logs.get(i)).getAbsolutePath());
+            if (queue.submit(String.format("%s-%s-%06d", ANALYSIS, name, i),
+                             unit)) {
+                added += 1;
+            }
+        }
+        return added;
+    }
+
+    /**
+     * Check that NAME may name a match or batch.
+     */
+    private static void checkName(String name) {
+        if (!name.matches(NAME)) {
+            throw error("bad match or batch name: %s", name);
+        }
+    }
+
+    /**
+     * Return the name of the match or batch of the unit ID, or null if
+     * ID is not of the form KIND-NAME-NUMBER.
+     */
+    static String name(String id, String kind) {
+        Matcher mat =
+            Pattern.compile(kind + "-(" + NAME + ")-\\d+").matcher(id);
+        return mat.matches() ? mat.group(1) : null;
+    }
+
+    /**
+     * Do units of my queue until none is left, and return the number I
+     * did.  Units claimed by others are waited for, in case their
+     * claims expire.
+     */
+    int work() throws IOException, InterruptedException {
+        int count = 0;
+        try {
+            while (true) {
+                Predicate<String> wanted = wanted(_queue);
+                WorkQueue.Claim claim = _queue.claim(_name, wanted);
+                if (claim != null) {
+                    perform(claim);
+                    count += 1;
+                } else if (pending(_queue, wanted)) {
+                    Thread.sleep(Math.min(POLL_MILLIS, _queue.lease() / 2));
+                } else {
+                    return count;
+                }
+            }
+        } finally {
+            _renewer.shutdownNow();
+        }
+    }
+
+    /**
+     * Do the unit of CLAIM, renewing CLAIM meanwhile, and record its
+     * result.
+     */
+    private void perform(WorkQueue.Claim claim) throws IOException {
+        long period = Math.max(1, _queue.lease() / 3);
+        ScheduledFuture<?> renewal = _renewer.scheduleAtFixedRate(() -> {
+            try {
+                claim.renew();
+            } catch (IOException excp) {
+                return;
+            }
+        }, period, period, TimeUnit.MILLISECONDS);
+        try {
+            Properties unit = claim.unit();
+            if (claim.id().startsWith(SELFPLAY)) {
+                claim.complete(playUnit(unit));
+            } else {
+                claim.complete(analyzeUnit(unit));
+            }
+        } finally {
+            renewal.cancel(false);
+        }
+    }
+
+    /**
+     * Play the games of the self-play UNIT, and return their result.
+     */
+    private String playUnit(Properties unit) {
+        Tournament match = new Tournament(
+            Tournament.engine(unit.getProperty("challenger")),
+            Tournament.engine(unit.getProperty("baseline")),
+            Integer.parseInt(unit.getProperty("random")),
+            Long.parseLong(unit.getProperty("seed")),
+            Double.parseDouble(unit.getProperty("elo")));
+        Tournament.Result result =
+            match.play(Integer.parseInt(unit.getProperty("first")),
+                       Integer.parseInt(unit.getProperty("games")),
+                       _threads);
+        return String.format("wins=%d%nlosses=%d%nwhiteWins=%d%n",
+                             result.wins(), result.losses(),
+                             result.whiteWins());
+    }
+
+    /**
+     * Analyze the log of the analysis UNIT, and return the report.
+     */
+    private String analyzeUnit(Properties unit) throws IOException {
+        ByteArrayOutputStream report = new ByteArrayOutputStream();
+        try (PrintStream out = new PrintStream(report, true);
+             GameAnalyzer analyzer = new GameAnalyzer(
+                 _threads, Integer.parseInt(unit.getProperty("depth")),
+                 GameAnalyzer.DEFAULT_BLUNDER)) {
+            out.println(analyzer.analyze(
+                Collections.singletonList(unit.getProperty("log")), out));
+        }
+        return report.toString();
+    }
+
+    /**
+     * Return a test of whether the unit with a given id in QUEUE is
+     * still wanted: all are, but those of matches whose tests have been
+     * decided.
+     */
+    private static Predicate<String> wanted(WorkQueue queue)
+        throws IOException {
+        Set<String> decided = new HashSet<>();
+        for (Map.Entry<String, Tournament.Result> match
+                 : selfPlayResults(queue).entrySet()) {
+            if (match.getValue().decision() != 0) {
+                decided.add(match.getKey());
+            }
+        }
+        return id -> !decided.contains(name(id, SELFPLAY));
+    }
+
+    /**
+     * Return true iff QUEUE has unfinished units whose ids satisfy
+     * WANTED.
+     */
+    private static boolean pending(WorkQueue queue, Predicate<String> wanted)
+        throws IOException {
+        Set<String> done = queue.done();
+        for (String id : queue.ids()) {
+            if (!done.contains(id) && wanted.test(id)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Return the merged result of the finished units of the match NAME
+     * in QUEUE.
+     */
+    static Tournament.Result selfPlayResult(WorkQueue queue, String name)
+        throws IOException {
+        Tournament.Result result = selfPlayResults(queue).get(name);
+        return result == null ? new Tournament.Result(Tournament.DEFAULT_ELO)
+            : result;
+    }
+
+    /**
+     * Return the merged results of the finished self-play units of
+     * QUEUE, by the names of their matches, in order of name.
+     */
+    static Map<String, Tournament.Result> selfPlayResults(WorkQueue queue)
+        throws IOException {
+        Map<String, Tournament.Result> results = new TreeMap<>();
+        for (String id : queue.done()) {
+            String name = name(id, SELFPLAY);
+            if (name == null) {
+                continue;
+            }
+            double elo =
+                Double.parseDouble(queue.unit(id).getProperty("elo"));
+            Properties counts = new Properties();
+            counts.load(new StringReader(queue.result(id)));
+            Tournament.Result unit = new Tournament.Result(
+                elo, Integer.parseInt(counts.getProperty("wins")),
+                Integer.parseInt(counts.getProperty("losses")),
+                Integer.parseInt(counts.getProperty("whiteWins")));
+            Tournament.Result result = results.get(name);
+            if (result == null) {
+                results.put(name, unit);
+            } else {
+                result.add(unit);
+            }
+        }
+        return results;
+    }
+
+    /**
+     * Write the reports of the finished units of the analysis batch
+     * NAME in QUEUE to OUT, in the order of their logs.
+     */
+    static void report(WorkQueue queue, String name, PrintStream out)
+        throws IOException {
+        for (String id : queue.done()) {
+            if (name.equals(name(id, ANALYSIS))) {
+                out.print(queue.result(id));
+            }
+        }
+    }
+}